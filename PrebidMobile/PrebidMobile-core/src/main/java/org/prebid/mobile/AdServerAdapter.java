@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sets the targeting of the winning bids on the ad object of an ad server.
+ * <p>
+ * Adapters for MoPub banners and interstitials and DFP {@code PublisherAdRequest} are built in, others can be
+ * added with {@link PrebidMobile#registerAdServerAdapter(AdServerAdapter)}. The adapter for a class of ad objects
+ * is looked up once and reused for every fetch.
+ */
+public interface AdServerAdapter {
+
+    /**
+     * @param adObjectClass class of the ad object passed to {@code fetchDemand}
+     * @return true if this adapter handles ad objects of the given class
+     */
+    boolean supports(@NonNull Class<?> adObjectClass);
+
+    /**
+     * Removes the targeting keys set by previous fetches from the ad object.
+     *
+     * @param adObject the ad object
+     * @param keys     targeting keys that were set by Prebid
+     */
+    @MainThread
+    void removeTargeting(@NonNull Object adObject, @NonNull Set<String> keys);
+
+    /**
+     * Adds the targeting key/values of the winning bids to the ad object.
+     *
+     * @param adObject  the ad object
+     * @param targeting targeting key/values, never empty
+     */
+    @MainThread
+    void addTargeting(@NonNull Object adObject, @NonNull Map<String, String> targeting);
+}
@@ -0,0 +1,98 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of the {@link AdServerAdapter}s, with the adapter found for each class of ad objects cached.
+ */
+final class AdServerAdapters {
+
+    // cached for classes no adapter supports, the map can't hold null
+    private static final AdServerAdapter UNSUPPORTED = new AdServerAdapter() {
+        @Override
+        public boolean supports(@NonNull Class<?> adObjectClass) {
+            return false;
+        }
+
+        @Override
+        public void removeTargeting(@NonNull Object adObject, @NonNull Set<String> keys) {
+        }
+
+        @Override
+        public void addTargeting(@NonNull Object adObject, @NonNull Map<String, String> targeting) {
+        }
+    };
+
+    private static final CopyOnWriteArrayList<AdServerAdapter> adapters = new CopyOnWriteArrayList<>();
+    private static final ConcurrentHashMap<Class<?>, AdServerAdapter> adapterForClass = new ConcurrentHashMap<>();
+
+    static {
+        adapters.add(new MoPubKeywordsAdapter(Util.MOPUB_BANNER_VIEW_CLASS));
+        adapters.add(new MoPubKeywordsAdapter(Util.MOPUB_INTERSTITIAL_CLASS));
+        adapters.add(new DfpCustomTargetingAdapter());
+    }
+
+    private AdServerAdapters() {
+    }
+
+    /**
+     * Adds an adapter, it takes precedence over the ones added before it and the built in ones.
+     */
+    static void register(@NonNull AdServerAdapter adapter) {
+        adapters.add(0, adapter);
+        adapterForClass.clear();
+    }
+
+    @VisibleForTesting
+    static void unregister(@NonNull AdServerAdapter adapter) {
+        adapters.remove(adapter);
+        adapterForClass.clear();
+    }
+
+    @Nullable
+    static AdServerAdapter get(@Nullable Object adObject) {
+        if (adObject == null) {
+            return null;
+        }
+        Class<?> adObjectClass = adObject.getClass();
+        AdServerAdapter adapter = adapterForClass.get(adObjectClass);
+        if (adapter == null) {
+            adapter = find(adObjectClass);
+            adapterForClass.put(adObjectClass, adapter);
+        }
+        return adapter != UNSUPPORTED ? adapter : null;
+    }
+
+    @NonNull
+    private static AdServerAdapter find(Class<?> adObjectClass) {
+        for (AdServerAdapter adapter : adapters) {
+            if (adapter.supports(adObjectClass)) {
+                return adapter;
+            }
+        }
+        return UNSUPPORTED;
+    }
+}
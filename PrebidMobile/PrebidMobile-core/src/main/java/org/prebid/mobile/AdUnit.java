@@ -16,14 +16,13 @@
 
 package org.prebid.mobile;
 
-import android.content.Context;
-import android.content.pm.PackageManager;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
+import android.view.View;
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,6 +37,8 @@ public abstract class AdUnit {
 
     private DemandFetcher fetcher;
     private int periodMillis;
+    @Nullable
+    private WeakReference<View> autoRefreshAdView;
 
     private final Map<String, Set<String>> contextDataDictionary;
     private final Set<String> contextKeywordsSet;
@@ -63,6 +64,18 @@ public abstract class AdUnit {
         }
     }
 
+    /**
+     * Sets the view the ad is shown in, auto refresh pauses while it can't be seen and while the app is in the
+     * background. Not needed when the ad object passed to {@link #fetchDemand(Object, OnCompleteListener)} is the
+     * ad view itself.
+     */
+    public void setAutoRefreshAdView(@Nullable View adView) {
+        this.autoRefreshAdView = adView != null ? new WeakReference<>(adView) : null;
+        if (fetcher != null) {
+            fetcher.setAdView(adView);
+        }
+    }
+
     public void stopAutoRefresh() {
         LogUtil.v("Stopping auto refresh...");
         if (fetcher != null) {
@@ -72,48 +85,115 @@ public abstract class AdUnit {
     }
 
     public void fetchDemand(@NonNull Object adObj, @NonNull OnCompleteListener listener) {
+        ResultCode error = validate();
+        if (error != null) {
+            listener.onComplete(error);
+            return;
+        }
+        if (Util.supportedAdObject(adObj)) {
+            RequestParams requestParams = getRequestParams();
+            if (periodMillis <= 0) {
+                HashMap<String, String> cachedBid = BidCache.getInstance().take(requestParams);
+                if (cachedBid != null) {
+                    LogUtil.v("Using a prefetched bid, prefetching the next one.");
+                    Util.apply(cachedBid, adObj);
+                    BidCache.getInstance().prefetch(requestParams);
+                    listener.onComplete(ResultCode.SUCCESS);
+                    return;
+                }
+            }
+            fetcher = new DemandFetcher(adObj);
+            if (autoRefreshAdView != null && autoRefreshAdView.get() != null) {
+                fetcher.setAdView(autoRefreshAdView.get());
+            }
+            fetcher.setPeriodMillis(periodMillis);
+            fetcher.setRequestParams(requestParams);
+            fetcher.setListener(listener);
+            if (periodMillis >= 30000) {
+                LogUtil.v("Start fetching bids with auto refresh millis: " + periodMillis);
+            } else {
+                LogUtil.v("Start a single fetching.");
+            }
+            fetcher.start();
+        } else {
+            listener.onComplete(ResultCode.INVALID_AD_OBJECT);
+        }
+
+    }
+
+    /**
+     * Runs an auction ahead of time and keeps the winning bid, so that the next single {@link #fetchDemand(Object, OnCompleteListener)}
+     * call for this ad unit completes right away, as long as the bid has not expired. Each bid is used once and a
+     * new one is prefetched when it is.
+     */
+    public void prefetchDemand() {
+        ResultCode error = validate();
+        if (error != null) {
+            LogUtil.e("Unable to prefetch demand: " + error.name());
+            return;
+        }
+        BidCache.getInstance().prefetch(getRequestParams());
+    }
+
+    // returns the error to report for the ad unit and the SDK settings, null if they are valid
+    @Nullable
+    private ResultCode validate() {
         if (TextUtils.isEmpty(PrebidMobile.getPrebidServerAccountId())) {
             LogUtil.e("Empty account id.");
-            listener.onComplete(ResultCode.INVALID_ACCOUNT_ID);
-            return;
+            return ResultCode.INVALID_ACCOUNT_ID;
         }
         if (TextUtils.isEmpty(configId)) {
             LogUtil.e("Empty config id.");
-            listener.onComplete(ResultCode.INVALID_CONFIG_ID);
-            return;
+            return ResultCode.INVALID_CONFIG_ID;
         }
         if (PrebidMobile.getPrebidServerHost().equals(Host.CUSTOM)) {
             if (TextUtils.isEmpty(PrebidMobile.getPrebidServerHost().getHostUrl())) {
                 LogUtil.e("Empty host url for custom Prebid Server host.");
-                listener.onComplete(ResultCode.INVALID_HOST_URL);
-                return;
+                return ResultCode.INVALID_HOST_URL;
             }
         }
 
-        Integer videoPlacement = null;
-        HashSet<AdSize> sizes = null;
-        if (adType == AdType.BANNER) {
-            sizes = ((BannerAdUnit) this).getSizes();
+        HashSet<AdSize> sizes = getSizes();
+        if (sizes != null) {
             for (AdSize size : sizes) {
                 if (size.getWidth() < 0 || size.getHeight() < 0) {
-                    listener.onComplete(ResultCode.INVALID_SIZE);
-                    return;
+                    return ResultCode.INVALID_SIZE;
                 }
             }
-        } else if (adType == AdType.VIDEO) {
+        }
 
-            VideoAdUnit videoAdUnit = (VideoAdUnit) this;
+        if (PrebidMobile.getApplicationContext() == null) {
+            return ResultCode.INVALID_CONTEXT;
+        }
+        if (!ConnectivityMonitor.getInstance().getState().connected) {
+            return ResultCode.NETWORK_ERROR;
+        }
+        return null;
+    }
 
+    @Nullable
+    private HashSet<AdSize> getSizes() {
+        HashSet<AdSize> sizes = null;
+        if (adType == AdType.BANNER) {
+            sizes = ((BannerAdUnit) this).getSizes();
+        } else if (adType == AdType.VIDEO) {
             sizes = new HashSet<>(1);
-            sizes.add(videoAdUnit.getAdSize());
-            for (AdSize size : sizes) {
-                if (size.getWidth() < 0 || size.getHeight() < 0) {
-                    listener.onComplete(ResultCode.INVALID_SIZE);
-                    return;
-                }
-            }
+            sizes.add(((VideoAdUnit) this).getAdSize());
+        }
+        return sizes;
+    }
 
-            videoPlacement = videoAdUnit.getType().getValue();
+    // auto refresh keeps the params taken by fetchDemand, changes made to the ad unit later are handed over here
+    void updateRequestParams() {
+        if (fetcher != null) {
+            fetcher.setRequestParams(getRequestParams());
+        }
+    }
+
+    private RequestParams getRequestParams() {
+        Integer videoPlacement = null;
+        if (adType == AdType.VIDEO) {
+            videoPlacement = ((VideoAdUnit) this).getType().getValue();
         }
         AdSize minSizePerc = null;
         if (this instanceof InterstitialAdUnit) {
@@ -122,39 +202,11 @@ public abstract class AdUnit {
             minSizePerc = interstitialAdUnit.getMinSizePerc();
         }
 
-        Context context = PrebidMobile.getApplicationContext();
-        if (context != null) {
-            ConnectivityManager conMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-            if (conMgr != null && context.checkCallingOrSelfPermission("android.permission.ACCESS_NETWORK_STATE") == PackageManager.PERMISSION_GRANTED) {
-                NetworkInfo activeNetworkInfo = conMgr.getActiveNetworkInfo();
-                if (activeNetworkInfo == null || !activeNetworkInfo.isConnected()) {
-                    listener.onComplete(ResultCode.NETWORK_ERROR);
-                    return;
-                }
-            }
-        } else {
-            listener.onComplete(ResultCode.INVALID_CONTEXT);
-            return;
+        RequestParams requestParams = new RequestParams(configId, adType, getSizes(), contextDataDictionary, contextKeywordsSet, minSizePerc, videoPlacement);
+        if (this.adType.equals(AdType.NATIVE)) {
+            requestParams.setNativeRequestParams(((NativeAdUnit) this).params);
         }
-        if (Util.supportedAdObject(adObj)) {
-            fetcher = new DemandFetcher(adObj);
-            RequestParams requestParams = new RequestParams(configId, adType, sizes, contextDataDictionary, contextKeywordsSet, minSizePerc, videoPlacement);
-            if (this.adType.equals(AdType.NATIVE)) {
-                requestParams.setNativeRequestParams(((NativeAdUnit) this).params);
-            }
-            fetcher.setPeriodMillis(periodMillis);
-            fetcher.setRequestParams(requestParams);
-            fetcher.setListener(listener);
-            if (periodMillis >= 30000) {
-                LogUtil.v("Start fetching bids with auto refresh millis: " + periodMillis);
-            } else {
-                LogUtil.v("Start a single fetching.");
-            }
-            fetcher.start();
-        } else {
-            listener.onComplete(ResultCode.INVALID_AD_OBJECT);
-        }
-
+        return requestParams;
     }
 
 
@@ -208,6 +260,7 @@ public abstract class AdUnit {
      */
     public void addContextData(String key, String value) {
         Util.addValue(contextDataDictionary, key, value);
+        updateRequestParams();
     }
 
     /**
@@ -216,6 +269,7 @@ public abstract class AdUnit {
      */
     public void updateContextData(String key, Set<String> value) {
         contextDataDictionary.put(key, value);
+        updateRequestParams();
     }
 
     /**
@@ -223,6 +277,7 @@ public abstract class AdUnit {
      */
     public void removeContextData(String key) {
         contextDataDictionary.remove(key);
+        updateRequestParams();
     }
 
     /**
@@ -230,6 +285,7 @@ public abstract class AdUnit {
      */
     public void clearContextData() {
         contextDataDictionary.clear();
+        updateRequestParams();
     }
 
     Map<String, Set<String>> getContextDataDictionary() {
@@ -244,6 +300,7 @@ public abstract class AdUnit {
      */
     public void addContextKeyword(String keyword) {
         contextKeywordsSet.add(keyword);
+        updateRequestParams();
     }
 
     /**
@@ -252,6 +309,7 @@ public abstract class AdUnit {
      */
     public void addContextKeywords(Set<String> keywords) {
         contextKeywordsSet.addAll(keywords);
+        updateRequestParams();
     }
 
     /**
@@ -259,6 +317,7 @@ public abstract class AdUnit {
      */
     public void removeContextKeyword(String keyword) {
         contextKeywordsSet.remove(keyword);
+        updateRequestParams();
     }
 
     /**
@@ -266,6 +325,7 @@ public abstract class AdUnit {
      */
     public void clearContextKeywords() {
         contextKeywordsSet.clear();
+        updateRequestParams();
     }
 
     Set<String> getContextKeywordsSet() {
@@ -0,0 +1,193 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Tells whether an ad can be seen: the app is in the foreground and the ad view, if there is one, is attached to
+ * a visible window and shown. {@link #waitForVisible()} reports back once it can be seen again.
+ * <p>
+ * The view is only read on the main thread, while monitored after {@link #start()}: when it is attached or
+ * detached and before every frame. Other threads get the state last read there.
+ * <p>
+ * The view only counts once it has been attached, so that the ad it is about to show can be loaded first.
+ */
+final class AdVisibilityMonitor implements AppLifecycle.Listener, View.OnAttachStateChangeListener, ViewTreeObserver.OnPreDrawListener {
+
+    interface Listener {
+        @MainThread
+        void onAdVisible();
+    }
+
+    @Nullable
+    private final WeakReference<View> adViewReference;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // the view state as last read on the main thread
+    private volatile boolean adViewVisible = true;
+    private volatile boolean waiting;
+
+    // main thread only
+    private boolean adViewAttached;
+    private boolean monitoring;
+
+    private final Runnable startMonitoring = new Runnable() {
+        @Override
+        public void run() {
+            if (!monitoring) {
+                monitoring = true;
+                AppLifecycle.getInstance().addListener(AdVisibilityMonitor.this);
+                View adView = getAdView();
+                if (adView != null) {
+                    adView.addOnAttachStateChangeListener(AdVisibilityMonitor.this);
+                    if (adView.getWindowToken() != null) {
+                        adView.getViewTreeObserver().addOnPreDrawListener(AdVisibilityMonitor.this);
+                    }
+                }
+            }
+            check();
+        }
+    };
+
+    private final Runnable stopMonitoring = new Runnable() {
+        @Override
+        public void run() {
+            unregister();
+        }
+    };
+
+    AdVisibilityMonitor(@Nullable View adView, @NonNull Listener listener) {
+        this.adViewReference = adView != null ? new WeakReference<>(adView) : null;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts following the view, can be called from any thread.
+     */
+    void start() {
+        mainHandler.removeCallbacks(stopMonitoring);
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            startMonitoring.run();
+        } else {
+            mainHandler.post(startMonitoring);
+        }
+    }
+
+    /**
+     * Can be called from any thread, the view state is the one last read on the main thread.
+     */
+    boolean isVisible() {
+        return AppLifecycle.getInstance().isInForeground() && adViewVisible;
+    }
+
+    /**
+     * Calls the listener on the main thread once the ad can be seen again.
+     */
+    void waitForVisible() {
+        waiting = true;
+        mainHandler.removeCallbacks(startMonitoring);
+        start();
+    }
+
+    void stop() {
+        waiting = false;
+        mainHandler.removeCallbacks(startMonitoring);
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            unregister();
+        } else {
+            mainHandler.post(stopMonitoring);
+        }
+    }
+
+    @MainThread
+    private void check() {
+        adViewVisible = readAdViewVisible();
+        if (waiting && isVisible()) {
+            waiting = false;
+            listener.onAdVisible();
+        }
+    }
+
+    @MainThread
+    private boolean readAdViewVisible() {
+        View adView = getAdView();
+        if (adView == null) {
+            // no view to go by
+            return true;
+        }
+        if (adView.getWindowToken() == null) {
+            return !adViewAttached;
+        }
+        adViewAttached = true;
+        return adView.getWindowVisibility() == View.VISIBLE && adView.isShown();
+    }
+
+    @MainThread
+    private void unregister() {
+        if (!monitoring) {
+            return;
+        }
+        monitoring = false;
+        AppLifecycle.getInstance().removeListener(this);
+        View adView = getAdView();
+        if (adView != null) {
+            adView.removeOnAttachStateChangeListener(this);
+            adView.getViewTreeObserver().removeOnPreDrawListener(this);
+        }
+    }
+
+    @Nullable
+    private View getAdView() {
+        return adViewReference != null ? adViewReference.get() : null;
+    }
+
+    @Override
+    public void onForegroundChanged(boolean inForeground) {
+        check();
+    }
+
+    @Override
+    public void onViewAttachedToWindow(View v) {
+        adViewAttached = true;
+        // redrawing is what tells that the window or the view is shown again
+        v.getViewTreeObserver().addOnPreDrawListener(this);
+        check();
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(View v) {
+        v.getViewTreeObserver().removeOnPreDrawListener(this);
+        // the view still has its window token while it is being detached
+        adViewVisible = false;
+    }
+
+    @Override
+    public boolean onPreDraw() {
+        check();
+        return true;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.telephony.TelephonyManager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Derives the auction timeout from the latencies measured during the session.
+ * <p>
+ * The round trip times of the last {@link #WINDOW_SIZE} auctions are kept per Prebid Server host and network
+ * class, e.g. Wi-Fi or 4G, and the timeout is the configured percentile of them plus a safety margin, capped at
+ * {@link PrebidMobile#getTimeoutMillis()}. Auctions that time out count with the timeout they were given, so
+ * the timeout grows again when the network gets slower.
+ */
+final class AdaptiveTimeout {
+
+    static final int WINDOW_SIZE = 50;
+    static final int MIN_SAMPLES = 5;
+
+    static final String NETWORK_WIFI = "wifi";
+    static final String NETWORK_2G = "2g";
+    static final String NETWORK_3G = "3g";
+    static final String NETWORK_4G = "4g";
+    static final String NETWORK_5G = "5g";
+    static final String NETWORK_OTHER = "other";
+
+    // TelephonyManager.NETWORK_TYPE_LTE_CA is hidden, NETWORK_TYPE_NR only comes with Android Q
+    private static final int NETWORK_TYPE_LTE_CA = 19;
+    private static final int NETWORK_TYPE_NR = 20;
+
+    private static AdaptiveTimeout instance;
+
+    private final HashMap<String, LatencyWindow> windows = new HashMap<>();
+
+    static synchronized AdaptiveTimeout getInstance() {
+        if (instance == null) {
+            instance = new AdaptiveTimeout();
+        }
+        return instance;
+    }
+
+    private AdaptiveTimeout() {
+    }
+
+    /**
+     * @return timeout for the next auction on the given host and network class
+     */
+    synchronized int getTimeoutMillis(@NonNull String host, @NonNull String networkClass) {
+        int maxTimeoutMillis = PrebidMobile.getTimeoutMillis();
+        LatencyWindow window = windows.get(getKey(host, networkClass));
+        if (window == null || window.size() < MIN_SAMPLES) {
+            return maxTimeoutMillis;
+        }
+        long timeoutMillis = (long) window.percentile(PrebidMobile.getTimeoutPercentile()) + PrebidMobile.getTimeoutMarginMillis();
+        return (int) Math.max(1, Math.min(timeoutMillis, maxTimeoutMillis));
+    }
+
+    /**
+     * @return the given percentile of the recent latencies on the host and network class, -1 if there are too few
+     */
+    synchronized int getLatencyPercentile(@NonNull String host, @NonNull String networkClass, int percentile) {
+        LatencyWindow window = windows.get(getKey(host, networkClass));
+        if (window == null || window.size() < MIN_SAMPLES) {
+            return -1;
+        }
+        return window.percentile(percentile);
+    }
+
+    synchronized void addSample(@NonNull String host, @NonNull String networkClass, int latencyMillis) {
+        String key = getKey(host, networkClass);
+        LatencyWindow window = windows.get(key);
+        if (window == null) {
+            window = new LatencyWindow();
+            windows.put(key, window);
+        }
+        window.add(Math.max(0, latencyMillis));
+    }
+
+    @VisibleForTesting
+    synchronized void clear() {
+        windows.clear();
+    }
+
+    private static String getKey(String host, String networkClass) {
+        return networkClass + " " + host;
+    }
+
+    /**
+     * @return class of the active network, {@link #NETWORK_OTHER} if it can't be told
+     */
+    @NonNull
+    static String getNetworkClass(@NonNull NetworkInfo activeNetwork) {
+        if (activeNetwork.getType() == ConnectivityManager.TYPE_WIFI) {
+            return NETWORK_WIFI;
+        }
+        if (activeNetwork.getType() != ConnectivityManager.TYPE_MOBILE) {
+            return NETWORK_OTHER;
+        }
+        switch (activeNetwork.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return NETWORK_2G;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+            case NETWORK_TYPE_LTE_CA:
+                return NETWORK_4G;
+            case NETWORK_TYPE_NR:
+                return NETWORK_5G;
+            case TelephonyManager.NETWORK_TYPE_UNKNOWN:
+                return NETWORK_OTHER;
+            default:
+                return NETWORK_3G;
+        }
+    }
+
+    // ring buffer of the latest latencies
+    private static final class LatencyWindow {
+        private final int[] samples = new int[WINDOW_SIZE];
+        private int count;
+        private int next;
+
+        void add(int latencyMillis) {
+            samples[next] = latencyMillis;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        int size() {
+            return count;
+        }
+
+        // nearest rank percentile
+        int percentile(int percentile) {
+            int[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * count);
+            return sorted[Math.min(Math.max(rank, 1), count) - 1];
+        }
+    }
+}
@@ -16,15 +16,16 @@
 
 package org.prebid.mobile;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
-import android.os.AsyncTask;
-import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
 import android.text.TextUtils;
 
 import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 class AdvertisingIDUtil {
     private static String aaid = null;
@@ -54,25 +55,24 @@ class AdvertisingIDUtil {
     }
 
     private static STATE state = STATE.NOT_FETCHED;
+    private static FutureTask<Void> aaidTask;
 
     /**
-     * Starts an AsyncTask to retrieve and set the AAID.
-     * Does nothing if PrebidServerSettings.aaid is already set for the SDK.
+     * Starts retrieving and setting the AAID in the background.
+     * Does nothing if the aaid is already set for the SDK or being retrieved.
      *
      * @param context context to retrieve the AAID on.
+     * @return the retrieval, done once the AAID is set
      */
-    @SuppressLint("ObsoleteSdkInt")
-    static void retrieveAndSetAAID(Context context) {
-        if (STATE.FETCHED.equals(state) || STATE.FETCHING.equals(state) || context == null) {
-            return;
-        }
-
-        AAIDTask getAAIDTask = new AAIDTask(context);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            getAAIDTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-        } else {
-            getAAIDTask.execute();
+    @NonNull
+    static synchronized Future<?> retrieveAndSetAAID(@NonNull Context context) {
+        if (aaidTask != null && (STATE.FETCHED.equals(state) || STATE.FETCHING.equals(state))) {
+            return aaidTask;
         }
+        state = STATE.FETCHING;
+        aaidTask = new FutureTask<>(new AAIDRunnable(context), null);
+        AuctionExecutors.getBackgroundExecutor().execute(aaidTask);
+        return aaidTask;
     }
 
     /**
@@ -80,7 +80,7 @@ class AdvertisingIDUtil {
      * Sets the SDK's aaid value to the result if successful,
      * or null if failed.
      */
-    private static class AAIDTask extends AsyncTask<Void, Void, Void> {
+    private static class AAIDRunnable implements Runnable {
         private static final String cAdvertisingIdClientName
                 = "com.google.android.gms.ads.identifier.AdvertisingIdClient";
         private static final String cAdvertisingIdClientInfoName
@@ -88,16 +88,19 @@ class AdvertisingIDUtil {
 
         private WeakReference<Context> context;
 
-        private AAIDTask(Context context) {
+        private AAIDRunnable(Context context) {
             this.context = new WeakReference<Context>(context);
         }
 
         @Override
-        protected Void doInBackground(Void... params) {
-            state = STATE.FETCHING;
+        @WorkerThread
+        public void run() {
             // attempt to retrieve AAID from GooglePlayServices via reflection
             // Setting aaid in the backend thread
             // Can potentially avoid long processing time on main thread
+            String aaid = null;
+            boolean limitAdTracking = false;
+            boolean retrieved = false;
             try {
                 Context callcontext = context.get();
                 if (callcontext != null) {
@@ -113,6 +116,7 @@ class AdvertisingIDUtil {
 
                     aaid = (String) mGetId.invoke(adInfoObject);
                     limitAdTracking = (Boolean) mIsLimitAdTrackingEnabled.invoke(adInfoObject);
+                    retrieved = true;
                 }
             } catch (ClassNotFoundException ignored) {
             } catch (InvocationTargetException ignored) {
@@ -124,12 +128,17 @@ class AdvertisingIDUtil {
                 // catches GooglePlayServicesRepairableException, GooglePlayServicesNotAvailableException
             }
 
-            if (limitAdTracking || TextUtils.isEmpty(aaid)) {
-                state = STATE.FETCHED_BUT_LIMIT_TARGETING;
-            } else {
-                state = STATE.FETCHED;
+            synchronized (AdvertisingIDUtil.class) {
+                if (retrieved) {
+                    setAAID(aaid);
+                    setLimitAdTracking(limitAdTracking);
+                }
+                if (isLimitAdTracking() || TextUtils.isEmpty(getAAID())) {
+                    state = STATE.FETCHED_BUT_LIMIT_TARGETING;
+                } else {
+                    state = STATE.FETCHED;
+                }
             }
-            return null;
         }
     }
 }
@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tracks whether the app is in the foreground by counting its started activities.
+ * <p>
+ * Until the first activity is stopped the app is taken to be in the foreground, so the application context
+ * should be set before the first activity starts, e.g. in {@code Application.onCreate()}.
+ */
+final class AppLifecycle implements Application.ActivityLifecycleCallbacks {
+
+    interface Listener {
+        @MainThread
+        void onForegroundChanged(boolean inForeground);
+    }
+
+    private static AppLifecycle instance;
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private Application application;
+    private int startedActivities;
+    private volatile boolean inBackground;
+
+    static synchronized AppLifecycle getInstance() {
+        if (instance == null) {
+            instance = new AppLifecycle();
+        }
+        return instance;
+    }
+
+    private AppLifecycle() {
+    }
+
+    synchronized void register(@NonNull Context context) {
+        Context applicationContext = context.getApplicationContext();
+        if (!(applicationContext instanceof Application) || applicationContext == application) {
+            return;
+        }
+        if (application != null) {
+            application.unregisterActivityLifecycleCallbacks(this);
+        }
+        application = (Application) applicationContext;
+        application.registerActivityLifecycleCallbacks(this);
+        startedActivities = 0;
+        inBackground = false;
+    }
+
+    boolean isInForeground() {
+        return !inBackground;
+    }
+
+    void addListener(@NonNull Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        startedActivities++;
+        if (inBackground) {
+            inBackground = false;
+            notifyListeners();
+        }
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        startedActivities = Math.max(0, startedActivities - 1);
+        // a configuration change restarts the activity right away
+        if (startedActivities == 0 && !activity.isChangingConfigurations() && !inBackground) {
+            inBackground = true;
+            notifyListeners();
+        }
+    }
+
+    private void notifyListeners() {
+        LogUtil.v("App moved to the " + (inBackground ? "background" : "foreground"));
+        for (Listener listener : listeners) {
+            listener.onForegroundChanged(!inBackground);
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Collects the ad unit fetches started within {@link PrebidMobile#getAuctionBatchWindowMillis()} of each other
+ * and sends them as a single request with one imp per ad unit. The targeting of each imp is handed back to
+ * the fetch it came from.
+ * <p>
+ * Interstitials are never batched, they carry their own device level settings.
+ */
+final class AuctionBatch {
+
+    static final int MAX_IMPS = 10;
+
+    private static AuctionBatch instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<PrebidServerAdapter.ImpRequest> pending = new ArrayList<>();
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    static synchronized AuctionBatch getInstance() {
+        if (instance == null) {
+            instance = new AuctionBatch();
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    AuctionBatch() {
+    }
+
+    boolean canBatch(@NonNull RequestParams params) {
+        if (PrebidMobile.getAuctionBatchWindowMillis() <= 0) {
+            return false;
+        }
+        AdType adType = params.getAdType();
+        return adType.equals(AdType.BANNER) || adType.equals(AdType.VIDEO) || adType.equals(AdType.NATIVE);
+    }
+
+    /**
+     * Adds the fetch to the pending request, which is sent once the window is over or right away when
+     * {@link #MAX_IMPS} is reached. Fetches added after that start a new request.
+     */
+    void enqueue(@NonNull PrebidServerAdapter.ImpRequest impRequest) {
+        ArrayList<PrebidServerAdapter.ImpRequest> full = null;
+        synchronized (this) {
+            pending.add(impRequest);
+            if (pending.size() >= MAX_IMPS) {
+                mainHandler.removeCallbacks(flushRunnable);
+                full = takePending();
+            } else if (pending.size() == 1) {
+                mainHandler.postDelayed(flushRunnable, PrebidMobile.getAuctionBatchWindowMillis());
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * Drops a fetch that is still waiting for its request to be sent.
+     *
+     * @return the dropped fetches
+     */
+    @NonNull
+    synchronized List<PrebidServerAdapter.ImpRequest> remove(String auctionId) {
+        ArrayList<PrebidServerAdapter.ImpRequest> removed = new ArrayList<>();
+        Iterator<PrebidServerAdapter.ImpRequest> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            PrebidServerAdapter.ImpRequest impRequest = iterator.next();
+            if (impRequest.getAuctionId().equals(auctionId)) {
+                iterator.remove();
+                removed.add(impRequest);
+            }
+        }
+        if (pending.isEmpty()) {
+            mainHandler.removeCallbacks(flushRunnable);
+        }
+        return removed;
+    }
+
+    @MainThread
+    private void flush() {
+        ArrayList<PrebidServerAdapter.ImpRequest> impRequests;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            impRequests = takePending();
+        }
+        send(impRequests);
+    }
+
+    private ArrayList<PrebidServerAdapter.ImpRequest> takePending() {
+        ArrayList<PrebidServerAdapter.ImpRequest> impRequests = new ArrayList<>(pending);
+        pending.clear();
+        return impRequests;
+    }
+
+    private void send(List<PrebidServerAdapter.ImpRequest> impRequests) {
+        LogUtil.d("Sending " + impRequests.size() + " ad units in one request");
+        PrebidServerAdapter.ServerConnector connector = new PrebidServerAdapter.ServerConnector(impRequests);
+        for (PrebidServerAdapter.ImpRequest impRequest : impRequests) {
+            PrebidServerAdapter adapter = impRequest.getPrebidServerAdapter();
+            if (adapter != null) {
+                adapter.addServerConnector(connector);
+            }
+        }
+        connector.execute();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.prebid.mobile;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors of the auction pipeline.
+ * <p>
+ * Auctions run on a bounded pool owned by the SDK, unless the app sets its own executor with
+ * {@link PrebidMobile#setAuctionExecutor(Executor)}. Their results are applied on the main thread and the listeners
+ * of the app are called there too, unless it sets {@link PrebidMobile#setCallbackExecutor(Executor)}. Work handed off by a running auction, like the second request
+ * of a hedged auction, goes to a separate pool, so it never waits behind the auction that is waiting for it.
+ * Loading what the requests are built from, like the user agent, runs on a small background pool of its own.
+ */
+final class AuctionExecutors {
+
+    static final int AUCTION_THREADS = HttpTransport.MAX_CONCURRENT_CONNECTIONS;
+    static final int NETWORK_THREADS = 2 * HttpTransport.MAX_CONCURRENT_CONNECTIONS;
+    static final int BACKGROUND_THREADS = 4;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    @Nullable
+    private static volatile Executor auctionExecutor;
+    @Nullable
+    private static volatile Executor callbackExecutor;
+
+    private static Executor defaultAuctionExecutor;
+    private static Executor networkExecutor;
+    private static Executor backgroundExecutor;
+    private static Executor mainThreadExecutor;
+
+    private AuctionExecutors() {
+    }
+
+    static void setAuctionExecutor(@Nullable Executor executor) {
+        auctionExecutor = executor;
+    }
+
+    static void setCallbackExecutor(@Nullable Executor executor) {
+        callbackExecutor = executor;
+    }
+
+    /**
+     * @return executor the auction requests run on
+     */
+    @NonNull
+    static Executor getAuctionExecutor() {
+        Executor executor = auctionExecutor;
+        return executor != null ? executor : getDefaultAuctionExecutor();
+    }
+
+    /**
+     * @return executor the listeners of the app are called on
+     */
+    @NonNull
+    static Executor getCallbackExecutor() {
+        Executor executor = callbackExecutor;
+        return executor != null ? executor : getMainThreadExecutor();
+    }
+
+    /**
+     * Calls a listener of the app on the callback executor, right away when that is the main thread and the caller
+     * is on it.
+     */
+    static void executeCallback(@NonNull Runnable callback) {
+        Executor executor = callbackExecutor;
+        if (executor != null) {
+            executor.execute(callback);
+        } else if (Looper.myLooper() == Looper.getMainLooper()) {
+            callback.run();
+        } else {
+            getMainThreadExecutor().execute(callback);
+        }
+    }
+
+    /**
+     * @return executor for network work started by a running auction or in the background, never one set by the app
+     */
+    @NonNull
+    static synchronized Executor getNetworkExecutor() {
+        if (networkExecutor == null) {
+            networkExecutor = newPool("PrebidNetwork", NETWORK_THREADS);
+        }
+        return networkExecutor;
+    }
+
+    /**
+     * @return executor for the SDK's own background work that doesn't belong to an auction, never one set by the app
+     */
+    @NonNull
+    static synchronized Executor getBackgroundExecutor() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = newPool("PrebidBackground", BACKGROUND_THREADS);
+        }
+        return backgroundExecutor;
+    }
+
+    @VisibleForTesting
+    static synchronized void setBackgroundExecutor(@Nullable Executor executor) {
+        backgroundExecutor = executor;
+    }
+
+    private static synchronized Executor getDefaultAuctionExecutor() {
+        if (defaultAuctionExecutor == null) {
+            defaultAuctionExecutor = newPool("PrebidAuction", AUCTION_THREADS);
+        }
+        return defaultAuctionExecutor;
+    }
+
+    /**
+     * @return executor the results of the auctions are applied on, the main thread
+     */
+    @NonNull
+    static synchronized Executor getMainThreadExecutor() {
+        if (mainThreadExecutor == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            mainThreadExecutor = new Executor() {
+                @Override
+                public void execute(@NonNull Runnable command) {
+                    mainHandler.post(command);
+                }
+            };
+        }
+        return mainThreadExecutor;
+    }
+
+    // up to the given number of background threads, which end when they have been idle for a while
+    private static ThreadPoolExecutor newPool(final String name, int threads) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name + "-" + count.incrementAndGet());
+            }
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Targeting of bids won ahead of time by {@link AdUnit#prefetchDemand()}, keyed by the request the auction was run
+ * with, see {@link #getKey(RequestParams)}. A bid is only handed to a fetch for the same ad unit and settings.
+ * <p>
+ * A cached bid is handed out once and only until it expires, which is the bid's {@code exp} or
+ * {@link #DEFAULT_TTL_SECONDS} if the bid has none.
+ */
+final class BidCache {
+
+    static final int DEFAULT_TTL_SECONDS = 300;
+
+    private static BidCache instance;
+
+    private final HashMap<String, CachedBid> bids = new HashMap<>();
+    private final HashSet<String> prefetching = new HashSet<>();
+
+    static synchronized BidCache getInstance() {
+        if (instance == null) {
+            instance = new BidCache();
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    BidCache() {
+    }
+
+    /**
+     * @return canonical key of the ad unit parameters, the global targeting and the consent a fetch is sent with.
+     * The device values of the {@link RequestSnapshot} are left out, they change with the connectivity or the
+     * configuration, which would leave a prefetched bid under a key that is never asked for again.
+     */
+    @NonNull
+    static String getKey(@NonNull RequestParams params) {
+        ArrayList<String> sizes = new ArrayList<>();
+        if (params.getAdSizes() != null) {
+            for (AdSize size : params.getAdSizes()) {
+                sizes.add(size.getWidth() + "x" + size.getHeight());
+            }
+            Collections.sort(sizes);
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(params.getConfigId()).append('|').append(params.getAdType()).append('|').append(sizes);
+        key.append('|').append(sorted(params.getContextDataDictionary()));
+        key.append('|').append(new TreeSet<>(params.getContextKeywordsSet()));
+        AdSize minSizePerc = params.getMinSizePerc();
+        if (minSizePerc != null) {
+            key.append('|').append(minSizePerc.getWidth()).append('x').append(minSizePerc.getHeight());
+        }
+        key.append('|').append(params.getVideoPlacement());
+        key.append('|').append(PrebidMobile.getPrebidServerAccountId());
+        key.append('|').append(PrebidMobile.getPrebidServerHost().getHostUrl());
+        key.append('|').append(PrebidMobile.getStoredAuctionResponse());
+        key.append('|').append(sorted(PrebidMobile.getStoredBidResponses()));
+        key.append('|').append(sorted(TargetingParams.getContextDataDictionary()));
+        key.append('|').append(new TreeSet<>(TargetingParams.getContextKeywordsSet()));
+        key.append('|').append(new TreeSet<>(TargetingParams.getAccessControlList()));
+        key.append('|').append(TargetingParams.getYearOfBirth()).append('|').append(TargetingParams.getGender());
+        key.append('|').append(sorted(TargetingParams.getUserDataDictionary()));
+        key.append('|').append(new TreeSet<>(TargetingParams.getUserKeywordsSet()));
+        // the consent is read from the shared preferences for every request, a CMP may change it
+        key.append('|').append(TargetingParams.isSubjectToCOPPA());
+        key.append('|').append(TargetingParams.isSubjectToGDPR());
+        key.append('|').append(TargetingParams.getGDPRConsentString());
+        try {
+            key.append('|').append(StorageUtils.getIabCcpa());
+        } catch (PbContextNullException e) {
+            key.append('|');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Runs an auction for the given ad unit in the background and caches the winning bid, unless one is running
+     * for it already.
+     */
+    void prefetch(@NonNull final RequestParams params) {
+        final String key = getKey(params);
+        synchronized (this) {
+            evictExpired();
+            if (!prefetching.add(key)) {
+                return;
+            }
+        }
+        FetchScheduler.getInstance().getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                new PrebidServerAdapter().requestDemandForCache(params, UUID.randomUUID().toString(), key);
+            }
+        });
+    }
+
+    /**
+     * @param key key of the fetch at the time the prefetch was started
+     */
+    synchronized void put(@NonNull String key, @NonNull HashMap<String, String> targeting, int expSeconds) {
+        evictExpired();
+        prefetching.remove(key);
+        int ttlSeconds = expSeconds > 0 ? expSeconds : DEFAULT_TTL_SECONDS;
+        bids.put(key, new CachedBid(targeting, SystemClock.elapsedRealtime() + ttlSeconds * 1000L));
+    }
+
+    synchronized void onPrefetchFailed(@NonNull String key) {
+        prefetching.remove(key);
+    }
+
+    /**
+     * @return targeting of a bid that has not expired yet, removed from the cache, or null
+     */
+    @Nullable
+    synchronized HashMap<String, String> take(@NonNull RequestParams params) {
+        CachedBid bid = bids.remove(getKey(params));
+        if (bid == null || bid.expiresAt <= SystemClock.elapsedRealtime()) {
+            return null;
+        }
+        return bid.targeting;
+    }
+
+    // bids for targeting that has changed since are never taken
+    private void evictExpired() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<CachedBid> iterator = bids.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAt <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized boolean isPrefetching(@NonNull RequestParams params) {
+        return prefetching.contains(getKey(params));
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return bids.size();
+    }
+
+    @VisibleForTesting
+    synchronized void clear() {
+        bids.clear();
+        prefetching.clear();
+    }
+
+    private static String sorted(Map<String, ?> map) {
+        TreeMap<String, Object> sorted = new TreeMap<>();
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            sorted.put(entry.getKey(), value instanceof Set ? new TreeSet<>((Set<?>) value) : value);
+        }
+        return sorted.toString();
+    }
+
+    private static final class CachedBid {
+        private final HashMap<String, String> targeting;
+        private final long expiresAt;
+
+        private CachedBid(HashMap<String, String> targeting, long expiresAt) {
+            this.targeting = targeting;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
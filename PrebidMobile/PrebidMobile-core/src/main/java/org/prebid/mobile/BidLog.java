@@ -1,7 +1,13 @@
 package org.prebid.mobile;
 
+import android.util.Log;
+
 public class BidLog {
+    // longer bodies are cut off in the log
+    static final int MAX_BODY_LENGTH = 64 * 1024;
+
     private BidLogEntry mLastEntry;
+    private volatile boolean mRecordBodies;
 
     private static BidLog sInstance;
 
@@ -28,6 +34,18 @@ public class BidLog {
         this.mLastEntry = null;
     }
 
+    /**
+     * Keeps the request and response bodies in the entries, at most {@value #MAX_BODY_LENGTH} bytes of each. They
+     * are also kept while debug logging is on, otherwise only the url and the response code are.
+     */
+    public void setRecordBodies(boolean recordBodies) {
+        this.mRecordBodies = recordBodies;
+    }
+
+    public boolean isRecordingBodies() {
+        return mRecordBodies || Log.isLoggable(LogUtil.getTagWithBase(null), Log.DEBUG);
+    }
+
     public static class BidLogEntry {
         private String requestUrl;
         private String requestBody;
@@ -0,0 +1,277 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Pull parser for the Prebid Server bid response.
+ * <p>
+ * Reads the response in a single pass and keeps only what the SDK uses: the targeting key/values of every
+ * bid, merged and per {@code impid}, their {@code exp} and whether the top bid was cached. Creatives
+ * ({@code adm}) and every other field are skipped without being materialized.
+ */
+final class BidResponseParser {
+
+    static final String KEY_CACHE_ID = "hb_cache_id";
+
+    private BidResponseParser() {
+    }
+
+    @WorkerThread
+    @NonNull
+    static Result parse(@NonNull InputStream inputStream) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        Result result = new Result();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("seatbid".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readSeatBids(reader, result);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return result;
+    }
+
+    private static void readSeatBids(JsonReader reader, Result result) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("bid".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    readBids(reader, result);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    private static void readBids(JsonReader reader, Result result) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            readBid(reader, result);
+        }
+        reader.endArray();
+    }
+
+    private static void readBid(JsonReader reader, Result result) throws IOException {
+        String impId = null;
+        int exp = -1;
+        HashMap<String, String> bidTargeting = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if ("impid".equals(name) && token == JsonToken.STRING) {
+                impId = reader.nextString();
+            } else if ("exp".equals(name) && token == JsonToken.NUMBER) {
+                try {
+                    exp = reader.nextInt();
+                } catch (NumberFormatException e) {
+                    // ignore this
+                }
+            } else if ("ext".equals(name) && token == JsonToken.BEGIN_OBJECT) {
+                bidTargeting = readBidExt(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (bidTargeting != null) {
+            result.addBid(impId, bidTargeting, exp);
+        }
+    }
+
+    // bid.ext.prebid.targeting
+    private static HashMap<String, String> readBidExt(JsonReader reader) throws IOException {
+        HashMap<String, String> bidTargeting = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("prebid".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("targeting".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        bidTargeting = readTargeting(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return bidTargeting;
+    }
+
+    private static HashMap<String, String> readTargeting(JsonReader reader) throws IOException {
+        HashMap<String, String> bidTargeting = new HashMap<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            String value = readValueAsString(reader);
+            if (value != null) {
+                bidTargeting.put(key, value);
+            }
+        }
+        reader.endObject();
+
+        return bidTargeting;
+    }
+
+    private static String readValueAsString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    static final class Result {
+        private final HashMap<String, String> targeting = new HashMap<>();
+        private final HashMap<String, HashMap<String, String>> impTargeting = new HashMap<>();
+        private final HashSet<String> impsWithTopBid = new HashSet<>();
+        private final HashMap<String, Integer> impExp = new HashMap<>();
+        private boolean containsTopBid;
+        private int exp = -1;
+
+        private void addBid(@Nullable String impId, HashMap<String, String> bidTargeting, int bidExp) {
+            boolean containsBids = false;
+            boolean topBid = false;
+            for (String key : bidTargeting.keySet()) {
+                if (key.equals(KEY_CACHE_ID)) {
+                    topBid = true;
+                }
+                if (key.startsWith(KEY_CACHE_ID)) {
+                    containsBids = true;
+                }
+            }
+
+            // lower bids on the same seat come without a cache id and are not used
+            if (!containsBids) {
+                return;
+            }
+            targeting.putAll(bidTargeting);
+            containsTopBid |= topBid;
+            exp = minExp(exp, bidExp);
+
+            if (impId != null) {
+                HashMap<String, String> forImp = impTargeting.get(impId);
+                if (forImp == null) {
+                    forImp = new HashMap<>();
+                    impTargeting.put(impId, forImp);
+                }
+                forImp.putAll(bidTargeting);
+                if (topBid) {
+                    impsWithTopBid.add(impId);
+                }
+                Integer impBidExp = impExp.get(impId);
+                impExp.put(impId, minExp(impBidExp != null ? impBidExp : -1, bidExp));
+            }
+        }
+
+        // the targeting of several bids is only usable as long as all of them are
+        private static int minExp(int exp, int bidExp) {
+            if (bidExp <= 0) {
+                return exp;
+            }
+            return exp <= 0 ? bidExp : Math.min(exp, bidExp);
+        }
+
+        /**
+         * @return merged targeting key/values of all bids that carry a cache id
+         */
+        @NonNull
+        HashMap<String, String> getTargeting() {
+            return targeting;
+        }
+
+        /**
+         * @return merged targeting key/values of the bids for the given imp
+         */
+        @NonNull
+        HashMap<String, String> getTargeting(@NonNull String impId) {
+            HashMap<String, String> forImp = impTargeting.get(impId);
+            return forImp != null ? forImp : new HashMap<String, String>();
+        }
+
+        boolean containsTopBid() {
+            return containsTopBid;
+        }
+
+        boolean containsTopBid(@NonNull String impId) {
+            return impsWithTopBid.contains(impId);
+        }
+
+        /**
+         * @return lowest {@code exp} in seconds of the bids in {@link #getTargeting()}, -1 if none has one
+         */
+        int getExp() {
+            return exp;
+        }
+
+        /**
+         * @return lowest {@code exp} in seconds of the bids for the given imp, -1 if none has one
+         */
+        int getExp(@NonNull String impId) {
+            Integer impBidExp = impExp.get(impId);
+            return impBidExp != null ? impBidExp : -1;
+        }
+
+        @Override
+        public String toString() {
+            return targeting.toString();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the connectivity of the device, so that fetches and requests don't ask {@link ConnectivityManager}
+ * each time.
+ * <p>
+ * A network callback is registered once per application, or the connectivity broadcast before Lollipop, and
+ * every change publishes a new {@link State}. Listeners are told on the main thread when the device moved to
+ * another network or lost its connection.
+ * Without the {@code ACCESS_NETWORK_STATE} permission the state stays {@link State#UNKNOWN}.
+ */
+final class ConnectivityMonitor {
+
+    interface Listener {
+        @MainThread
+        void onConnectivityChanged(@NonNull State state);
+    }
+
+    /**
+     * Connectivity at one point in time, never changes.
+     */
+    static final class State {
+
+        // without the permission the connectivity can't be told, fetches go ahead like they always did
+        static final State UNKNOWN = new State(true, AdaptiveTimeout.NETWORK_OTHER, 0, false, -1);
+        static final State OFFLINE = new State(false, AdaptiveTimeout.NETWORK_OTHER, 0, false, -1);
+
+        final boolean connected;
+        // see AdaptiveTimeout#getNetworkClass(NetworkInfo)
+        @NonNull
+        final String networkClass;
+        // device.connectiontype: 0 unknown or not connected, 1 Wi-Fi, 2 any other network
+        final int connectionType;
+        final boolean metered;
+        // estimated downstream bandwidth, -1 if not known
+        final int bandwidthKbps;
+
+        State(boolean connected, @NonNull String networkClass, int connectionType, boolean metered, int bandwidthKbps) {
+            this.connected = connected;
+            this.networkClass = networkClass;
+            this.connectionType = connectionType;
+            this.metered = metered;
+            this.bandwidthKbps = bandwidthKbps;
+        }
+
+        // the bandwidth estimate changes all the time, only a different network counts as a change
+        boolean isSameNetwork(@NonNull State other) {
+            return connected == other.connected && networkClass.equals(other.networkClass)
+                    && connectionType == other.connectionType && metered == other.metered;
+        }
+
+        @Override
+        public String toString() {
+            return connected ? networkClass + (metered ? " metered" : "") + (bandwidthKbps >= 0 ? " " + bandwidthKbps + " kbps" : "") : "offline";
+        }
+    }
+
+    private static ConnectivityMonitor instance;
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+
+    private volatile State state = State.UNKNOWN;
+    @Nullable
+    private ConnectivityManager connectivityManager;
+    private Context registeredContext;
+    @Nullable
+    private Object registration;
+    // changed by the network callback from Nougat on
+    @Nullable
+    private volatile Network defaultNetwork;
+
+    static synchronized ConnectivityMonitor getInstance() {
+        if (instance == null) {
+            instance = new ConnectivityMonitor();
+        }
+        return instance;
+    }
+
+    private ConnectivityMonitor() {
+    }
+
+    /**
+     * Starts following the connectivity of the application the context belongs to.
+     */
+    synchronized void register(@NonNull Context context) {
+        Context applicationContext = context.getApplicationContext();
+        if (applicationContext == null || applicationContext == registeredContext) {
+            return;
+        }
+        unregister();
+        registeredContext = applicationContext;
+        connectivityManager = null;
+        if (applicationContext.checkCallingOrSelfPermission("android.permission.ACCESS_NETWORK_STATE") != PackageManager.PERMISSION_GRANTED) {
+            publish(State.UNKNOWN);
+            return;
+        }
+        connectivityManager = (ConnectivityManager) applicationContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            publish(State.UNKNOWN);
+            return;
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                registration = registerCallback(connectivityManager);
+            } else {
+                BroadcastReceiver receiver = new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        update();
+                    }
+                };
+                applicationContext.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+                registration = receiver;
+            }
+        } catch (RuntimeException e) {
+            // some devices throw when they have too many callbacks, the state is read once then
+            LogUtil.w("Unable to follow connectivity changes: " + e.getMessage());
+        }
+        update();
+    }
+
+    /**
+     * From Nougat on the callback follows the default network, so the state is built from the network it is
+     * given. Before that it is told about every network with internet access, and the active network isn't
+     * updated yet while it runs, so the connectivity is read again once the callback returned.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private ConnectivityManager.NetworkCallback registerCallback(final ConnectivityManager connectivityManager) {
+        ConnectivityManager.NetworkCallback callback;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            callback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    update(network, connectivityManager.getNetworkCapabilities(network));
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    // only the network that was the default one, the new one may have come up already
+                    if (network.equals(defaultNetwork)) {
+                        defaultNetwork = null;
+                        publish(State.OFFLINE);
+                    }
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                    update(network, networkCapabilities);
+                }
+            };
+            connectivityManager.registerDefaultNetworkCallback(callback);
+        } else {
+            callback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    postUpdate();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    postUpdate();
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities networkCapabilities) {
+                    postUpdate();
+                }
+            };
+            connectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build(), callback);
+        }
+        return callback;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void unregister() {
+        if (registration == null) {
+            return;
+        }
+        try {
+            if (registration instanceof BroadcastReceiver) {
+                registeredContext.unregisterReceiver((BroadcastReceiver) registration);
+            } else if (connectivityManager != null) {
+                connectivityManager.unregisterNetworkCallback((ConnectivityManager.NetworkCallback) registration);
+            }
+        } catch (RuntimeException e) {
+            // already unregistered
+        }
+        registration = null;
+    }
+
+    /**
+     * @return the last connectivity seen, {@link State#UNKNOWN} before the application context is set
+     */
+    @NonNull
+    State getState() {
+        return state;
+    }
+
+    void addListener(@NonNull Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reads the connectivity of the active network again.
+     */
+    @VisibleForTesting
+    void update() {
+        ConnectivityManager cm = connectivityManager;
+        if (cm != null) {
+            publish(read(cm));
+        }
+    }
+
+    private void postUpdate() {
+        mainHandler.removeCallbacks(updateRunnable);
+        mainHandler.post(updateRunnable);
+    }
+
+    // the default network changed, called by the network callback on its own thread
+    @TargetApi(Build.VERSION_CODES.N)
+    private void update(@NonNull Network network, @Nullable NetworkCapabilities capabilities) {
+        ConnectivityManager cm = connectivityManager;
+        if (cm == null) {
+            return;
+        }
+        if (capabilities == null) {
+            // the network went away in the meantime, onLost follows
+            return;
+        }
+        defaultNetwork = network;
+        NetworkInfo networkInfo;
+        try {
+            networkInfo = cm.getNetworkInfo(network);
+        } catch (SecurityException ex) {
+            networkInfo = null;
+        }
+        boolean wifi = capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI);
+        String networkClass;
+        if (networkInfo != null) {
+            networkClass = AdaptiveTimeout.getNetworkClass(networkInfo);
+        } else {
+            networkClass = wifi ? AdaptiveTimeout.NETWORK_WIFI : AdaptiveTimeout.NETWORK_OTHER;
+        }
+        boolean metered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        publish(new State(true, networkClass, wifi ? 1 : 2, metered, capabilities.getLinkDownstreamBandwidthKbps()));
+    }
+
+    private void publish(@NonNull final State newState) {
+        State oldState = state;
+        state = newState;
+        if (oldState.isSameNetwork(newState)) {
+            return;
+        }
+        LogUtil.v("Connectivity changed: " + newState);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onConnectivityChanged(newState);
+                }
+            }
+        });
+    }
+
+    @NonNull
+    private static State read(@NonNull ConnectivityManager cm) {
+        NetworkInfo activeNetwork;
+        try {
+            activeNetwork = cm.getActiveNetworkInfo();
+        } catch (SecurityException ex) {
+            return State.UNKNOWN;
+        }
+        if (activeNetwork == null || !activeNetwork.isConnected()) {
+            return State.OFFLINE;
+        }
+        int connectionType = activeNetwork.getType() == ConnectivityManager.TYPE_WIFI ? 1 : 2;
+        int bandwidthKbps = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? getBandwidthKbps(cm) : -1;
+        return new State(true, AdaptiveTimeout.getNetworkClass(activeNetwork), connectionType, cm.isActiveNetworkMetered(), bandwidthKbps);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static int getBandwidthKbps(ConnectivityManager cm) {
+        Network network = cm.getActiveNetwork();
+        NetworkCapabilities capabilities = network != null ? cm.getNetworkCapabilities(network) : null;
+        return capabilities != null ? capabilities.getLinkDownstreamBandwidthKbps() : -1;
+    }
+}
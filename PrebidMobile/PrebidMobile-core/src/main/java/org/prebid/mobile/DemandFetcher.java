@@ -17,10 +17,12 @@
 package org.prebid.mobile;
 
 import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.Looper;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.view.View;
 
 import java.util.HashMap;
 import java.util.UUID;
@@ -30,27 +32,81 @@ class DemandFetcher {
     enum STATE {
         STOPPED,
         RUNNING,
+        PAUSED,
         DESTROYED
     }
 
-    private STATE state;
+    // changed on the main thread, read by the refresh on the FetchScheduler thread as well
+    private volatile STATE state;
     private int periodMillis;
     private Object adObject;
     private OnCompleteListener listener;
     private Handler fetcherHandler;
     private RequestRunnable requestRunnable;
-    private long lastFetchTime = -1;
-    private long timePausedAt = -1;
-    private RequestParams requestParams;
+    private volatile long lastFetchTime = -1;
+    private volatile long timePausedAt = -1;
+    private volatile RequestParams requestParams;
+    private AdVisibilityMonitor visibilityMonitor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable pauseIfUnseen = new Runnable() {
+        @Override
+        public void run() {
+            if (state != STATE.RUNNING) {
+                return;
+            }
+            if (!visibilityMonitor.isVisible()) {
+                pause();
+            } else if (!ConnectivityMonitor.getInstance().getState().connected) {
+                pauseWhileOffline();
+            } else {
+                // seen and online again meanwhile
+                fetcherHandler.post(requestRunnable);
+            }
+        }
+    };
+    private final ConnectivityMonitor.Listener connectivityListener = new ConnectivityMonitor.Listener() {
+        @Override
+        public void onConnectivityChanged(@NonNull ConnectivityMonitor.State connectivity) {
+            if (connectivity.connected) {
+                ConnectivityMonitor.getInstance().removeListener(this);
+                if (state == STATE.PAUSED) {
+                    LogUtil.v("Resuming auto refresh, the device is online again.");
+                    start();
+                }
+            }
+        }
+    };
 
     DemandFetcher(@NonNull Object adObj) {
         this.state = STATE.STOPPED;
         this.periodMillis = 0;
         this.adObject = adObj;
-        HandlerThread fetcherThread = new HandlerThread("FetcherThread");
-        fetcherThread.start();
-        this.fetcherHandler = new Handler(fetcherThread.getLooper());
+        this.fetcherHandler = FetchScheduler.getInstance().getHandler();
         this.requestRunnable = new RequestRunnable();
+        setAdView(adObj instanceof View ? (View) adObj : null);
+    }
+
+    /**
+     * @param adView view the ad is shown in, auto refresh pauses while it can't be seen
+     */
+    void setAdView(@Nullable View adView) {
+        if (visibilityMonitor != null) {
+            visibilityMonitor.stop();
+        }
+        visibilityMonitor = new AdVisibilityMonitor(adView, new AdVisibilityMonitor.Listener() {
+            @Override
+            public void onAdVisible() {
+                if (state == STATE.PAUSED) {
+                    LogUtil.v("Resuming auto refresh.");
+                    start();
+                }
+            }
+        });
+        if (state == STATE.PAUSED) {
+            visibilityMonitor.waitForVisible();
+        } else if (state == STATE.RUNNING && periodMillis > 0) {
+            visibilityMonitor.start();
+        }
     }
 
     void setListener(OnCompleteListener listener) {
@@ -72,21 +128,42 @@ class DemandFetcher {
     }
 
     private void stop() {
+        mainHandler.removeCallbacks(pauseIfUnseen);
         this.requestRunnable.cancelRequest();
-        this.fetcherHandler.removeCallbacks(requestRunnable);
+        this.requestRunnable.removeCallbacks();
         // cancel existing requests
         timePausedAt = System.currentTimeMillis();
         state = STATE.STOPPED;
     }
 
+    // stops auto refresh until the ad can be seen again, start() then picks up with the remaining stall
+    @MainThread
+    private void pause() {
+        LogUtil.v("Pausing auto refresh while the ad can't be seen.");
+        stop();
+        state = STATE.PAUSED;
+        visibilityMonitor.waitForVisible();
+    }
+
+    // refreshing without a network would only clear the ad's keywords, auto refresh resumes once it is back
+    @MainThread
+    private void pauseWhileOffline() {
+        LogUtil.v("Pausing auto refresh while the device is offline.");
+        stop();
+        state = STATE.PAUSED;
+        ConnectivityMonitor.getInstance().addListener(connectivityListener);
+    }
+
     void start() {
         switch (state) {
             case STOPPED:
+            case PAUSED:
                 if (this.periodMillis <= 0) {
                     // start a single request
                     fetcherHandler.post(requestRunnable);
                 } else {
                     // Start recurring ad requests
+                    visibilityMonitor.start();
                     final int msPeriod = periodMillis; // refresh periodMillis
                     final long stall; // delay millis for the initial request
                     if (timePausedAt != -1 && lastFetchTime != -1) {
@@ -96,7 +173,7 @@ class DemandFetcher {
                     } else {
                         stall = 0;
                     }
-                    fetcherHandler.postDelayed(requestRunnable, stall * 1000);
+                    fetcherHandler.postDelayed(requestRunnable, stall);
                 }
                 state = STATE.RUNNING;
                 break;
@@ -116,8 +193,11 @@ class DemandFetcher {
             this.adObject = null;
             this.listener = null;
             this.requestRunnable.cancelRequest();
-            this.fetcherHandler.removeCallbacks(requestRunnable);
+            this.requestRunnable.removeCallbacks();
             this.requestRunnable = null;
+            this.visibilityMonitor.stop();
+            mainHandler.removeCallbacks(pauseIfUnseen);
+            ConnectivityMonitor.getInstance().removeListener(connectivityListener);
             state = STATE.DESTROYED;
         }
     }
@@ -126,8 +206,14 @@ class DemandFetcher {
     private void notifyListener(final ResultCode resultCode) {
         LogUtil.d("notifyListener:" + resultCode);
 
+        final OnCompleteListener listener = this.listener;
         if (listener != null) {
-            listener.onComplete(resultCode);
+            AuctionExecutors.executeCallback(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onComplete(resultCode);
+                }
+            });
         }
         // for single request, if done, finish current fetcher,
         // let ad unit create a new fetcher for next request
@@ -139,13 +225,10 @@ class DemandFetcher {
     class RequestRunnable implements Runnable {
         private DemandAdapter demandAdapter;
         private String auctionId;
-        private Handler demandHandler;
+        @Nullable
+        private Runnable demandRunnable;
 
         RequestRunnable() {
-            // Using a separate thread for making demand request so that waiting on currently thread doesn't block actual fetching
-            HandlerThread demandThread = new HandlerThread("DemandThread");
-            demandThread.start();
-            this.demandHandler = new Handler(demandThread.getLooper());
             this.demandAdapter = new PrebidServerAdapter();
             auctionId = UUID.randomUUID().toString();
         }
@@ -154,13 +237,25 @@ class DemandFetcher {
             this.demandAdapter.stopRequest(auctionId);
         }
 
+        void removeCallbacks() {
+            fetcherHandler.removeCallbacks(this);
+            if (demandRunnable != null) {
+                fetcherHandler.removeCallbacks(demandRunnable);
+            }
+        }
+
         @Override
         public void run() {
+            if (periodMillis > 0 && (!visibilityMonitor.isVisible() || !ConnectivityMonitor.getInstance().getState().connected)) {
+                // the state only changes on the main thread, the refresh goes on from there if it can
+                mainHandler.post(pauseIfUnseen);
+                return;
+            }
             // reset state
             auctionId = UUID.randomUUID().toString();
             lastFetchTime = System.currentTimeMillis();
-            // check input values
-            demandHandler.post(new Runnable() {
+            // the demand request goes in a task of its own, after this one
+            demandRunnable = new Runnable() {
 
                 @Override
                 public void run() {
@@ -186,7 +281,8 @@ class DemandFetcher {
                         }
                     }, auctionId);
                 }
-            });
+            };
+            fetcherHandler.post(demandRunnable);
             if (periodMillis > 0) {
                 fetcherHandler.postDelayed(this, periodMillis);
             }
@@ -198,12 +294,6 @@ class DemandFetcher {
     Handler getHandler() {
         return this.fetcherHandler;
     }
-
-    @VisibleForTesting
-    Handler getDemandHandler() {
-        RequestRunnable runnable = this.requestRunnable;
-        return runnable.demandHandler;
-    }
     //endregion
 }
 
@@ -0,0 +1,255 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.prebid.mobile;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps the app version and name, the carrier and MCC/MNC in the shared preferences, so the requests after a
+ * restart are built from them without waiting for the package manager or the telephony service.
+ * <p>
+ * The stored values are restored in the background at start, as long as they were written by the same
+ * {@link #VERSION} of this cache for the same installation of the app. Then all of them are read again, the requests
+ * use the new values as soon as they are there and the stored ones are replaced if anything changed. The
+ * advertising id is not stored, only one freshly retrieved from Play Services may be sent.
+ */
+final class DeviceMetadataCache {
+
+    static final int VERSION = 1;
+    static final int RESTORE_TIMEOUT_MILLIS = 100;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_INSTALLATION = "installation";
+    private static final String KEY_PKG_VERSION = "pkgVersion";
+    private static final String KEY_APP_NAME = "appName";
+    private static final String KEY_CARRIER = "carrier";
+    private static final String KEY_MCC = "mcc";
+    private static final String KEY_MNC = "mnc";
+
+    private static FutureTask<Void> restoreTask;
+
+    private DeviceMetadataCache() {
+    }
+
+    /**
+     * Starts restoring the stored metadata and revalidating it afterwards, does nothing once it has been started.
+     *
+     * @return the restoring, done once the stored values are set
+     */
+    @NonNull
+    static synchronized Future<?> load(@NonNull Context context) {
+        if (restoreTask != null) {
+            return restoreTask;
+        }
+        final Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        restoreTask = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                final String stored = restore(applicationContext);
+                AuctionExecutors.getBackgroundExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        revalidate(applicationContext, stored);
+                    }
+                });
+            }
+        }, null);
+        AuctionExecutors.getBackgroundExecutor().execute(restoreTask);
+        return restoreTask;
+    }
+
+    /**
+     * Waits shortly for the stored values, reading the shared preferences is usually done before the first request.
+     */
+    static void awaitRestore(@NonNull Future<?> restore) {
+        if (restore.isDone()) {
+            return;
+        }
+        try {
+            restore.get(RESTORE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // continue without the stored values
+        } catch (ExecutionException e) {
+            LogUtil.w("Unable to restore the device metadata: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the stored metadata, null if there is none
+     */
+    @WorkerThread
+    @Nullable
+    private static String restore(@NonNull Context context) {
+        String stored;
+        try {
+            stored = StorageUtils.getPbDeviceMetadata();
+        } catch (PbContextNullException e) {
+            return null;
+        }
+        if (TextUtils.isEmpty(stored)) {
+            return null;
+        }
+        try {
+            JSONObject metadata = new JSONObject(stored);
+            if (metadata.optInt(KEY_VERSION) != VERSION || !getInstallation(context).equals(metadata.optString(KEY_INSTALLATION))) {
+                return null;
+            }
+            apply(metadata);
+        } catch (JSONException e) {
+            return null;
+        }
+        return stored;
+    }
+
+    // values read in the meantime are newer than the stored ones
+    private static void apply(@NonNull JSONObject metadata) {
+        synchronized (PrebidServerSettings.class) {
+            if (TextUtils.isEmpty(PrebidServerSettings.pkgVersion)) {
+                PrebidServerSettings.pkgVersion = metadata.optString(KEY_PKG_VERSION);
+            }
+            if (TextUtils.isEmpty(PrebidServerSettings.appName)) {
+                PrebidServerSettings.appName = metadata.optString(KEY_APP_NAME);
+            }
+            if (PrebidServerSettings.getCarrierName() == null && metadata.has(KEY_CARRIER)) {
+                PrebidServerSettings.setCarrierName(metadata.optString(KEY_CARRIER));
+            }
+            if (PrebidServerSettings.getMCC() < 0 || PrebidServerSettings.getMNC() < 0) {
+                PrebidServerSettings.setMCC(metadata.optInt(KEY_MCC, -1));
+                PrebidServerSettings.setMNC(metadata.optInt(KEY_MNC, -1));
+            }
+        }
+        RequestSnapshot.invalidate();
+    }
+
+    @WorkerThread
+    private static void revalidate(@NonNull Context context, @Nullable String stored) {
+        boolean changed = false;
+
+        String pkgVersion = PrebidServerSettings.readPkgVersion(context);
+        String appName = PrebidServerSettings.readAppName(context);
+        String carrier = null;
+        int mcc = -1;
+        int mnc = -1;
+        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        if (telephonyManager != null) {
+            try {
+                carrier = telephonyManager.getNetworkOperatorName();
+            } catch (SecurityException ex) {
+                // Some phones require READ_PHONE_STATE permission just ignore name
+                carrier = "";
+            }
+            String networkOperator = telephonyManager.getNetworkOperator();
+            if (!TextUtils.isEmpty(networkOperator)) {
+                try {
+                    mcc = Integer.parseInt(networkOperator.substring(0, 3));
+                    mnc = Integer.parseInt(networkOperator.substring(3));
+                } catch (Exception e) {
+                    // Catches NumberFormatException and StringIndexOutOfBoundsException
+                    mcc = -1;
+                    mnc = -1;
+                }
+            }
+        }
+        synchronized (PrebidServerSettings.class) {
+            if (!TextUtils.isEmpty(pkgVersion) && !pkgVersion.equals(PrebidServerSettings.pkgVersion)) {
+                PrebidServerSettings.pkgVersion = pkgVersion;
+                changed = true;
+            }
+            if (!TextUtils.isEmpty(appName) && !appName.equals(PrebidServerSettings.appName)) {
+                PrebidServerSettings.appName = appName;
+                changed = true;
+            }
+            if (carrier != null && !carrier.equals(PrebidServerSettings.getCarrierName())) {
+                PrebidServerSettings.setCarrierName(carrier);
+                changed = true;
+            }
+            if (mcc > 0 && mnc > 0 && (mcc != PrebidServerSettings.getMCC() || mnc != PrebidServerSettings.getMNC())) {
+                PrebidServerSettings.setMCC(mcc);
+                PrebidServerSettings.setMNC(mnc);
+                changed = true;
+            }
+        }
+        if (changed) {
+            RequestSnapshot.invalidate();
+        }
+
+        String metadata = write(context);
+        if (metadata == null || metadata.equals(stored)) {
+            return;
+        }
+        try {
+            StorageUtils.setPbDeviceMetadata(metadata);
+        } catch (PbContextNullException e) {
+            // kept for this session only
+        }
+    }
+
+    @Nullable
+    private static String write(@NonNull Context context) {
+        try {
+            JSONObject metadata = new JSONObject();
+            metadata.put(KEY_VERSION, VERSION);
+            metadata.put(KEY_INSTALLATION, getInstallation(context));
+            metadata.put(KEY_PKG_VERSION, PrebidServerSettings.pkgVersion);
+            metadata.put(KEY_APP_NAME, PrebidServerSettings.appName);
+            metadata.put(KEY_CARRIER, PrebidServerSettings.getCarrierName());
+            metadata.put(KEY_MCC, PrebidServerSettings.getMCC());
+            metadata.put(KEY_MNC, PrebidServerSettings.getMNC());
+            return metadata.toString();
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the path and modification time of the app's apk, both change with every update of the app
+     */
+    @VisibleForTesting
+    @NonNull
+    static String getInstallation(@NonNull Context context) {
+        ApplicationInfo applicationInfo = context.getApplicationInfo();
+        if (applicationInfo == null || applicationInfo.sourceDir == null) {
+            return "";
+        }
+        return applicationInfo.sourceDir + "|" + new File(applicationInfo.sourceDir).lastModified();
+    }
+
+    @VisibleForTesting
+    static synchronized void reset() {
+        restoreTask = null;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sets the targeting as custom targeting on a DFP {@code PublisherAdRequest}.
+ * <p>
+ * Google Mobile Ads is not a dependency of the SDK, the class and {@code getCustomTargeting()} are resolved
+ * once when the adapter is created.
+ */
+final class DfpCustomTargetingAdapter implements AdServerAdapter {
+
+    @Nullable
+    private final Class<?> adObjectClass;
+    @Nullable
+    private final Method getCustomTargeting;
+
+    DfpCustomTargetingAdapter() {
+        Class<?> cls = Util.getClassFromString(Util.DFP_AD_REQUEST_CLASS);
+        Method getter = null;
+        if (cls != null) {
+            try {
+                getter = cls.getMethod("getCustomTargeting");
+            } catch (NoSuchMethodException e) {
+                LogUtil.e("Unsupported version of " + Util.DFP_AD_REQUEST_CLASS);
+                cls = null;
+            }
+        }
+        this.adObjectClass = cls;
+        this.getCustomTargeting = getter;
+    }
+
+    @Override
+    public boolean supports(@NonNull Class<?> adObjectClass) {
+        return this.adObjectClass != null && this.adObjectClass == adObjectClass;
+    }
+
+    @Override
+    public void removeTargeting(@NonNull Object adObject, @NonNull Set<String> keys) {
+        Bundle bundle = (Bundle) Util.invokeMethod(getCustomTargeting, adObject);
+        if (bundle != null) {
+            for (String key : keys) {
+                bundle.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void addTargeting(@NonNull Object adObject, @NonNull Map<String, String> targeting) {
+        Bundle bundle = (Bundle) Util.invokeMethod(getCustomTargeting, adObject);
+        if (bundle != null) {
+            for (Map.Entry<String, String> entry : targeting.entrySet()) {
+                bundle.putString(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
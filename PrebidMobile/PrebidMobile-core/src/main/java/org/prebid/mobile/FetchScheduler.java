@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+/**
+ * Single background thread shared by all {@link DemandFetcher}s for refresh timing and for dispatching
+ * the demand requests, so the number of threads does not grow with the number of ad units.
+ * <p>
+ * Nothing posted here may block, the network work itself runs in the {@link PrebidServerAdapter.ServerConnector} tasks.
+ */
+final class FetchScheduler {
+
+    private static final String THREAD_NAME = "PrebidFetchScheduler";
+
+    private static FetchScheduler instance;
+
+    private HandlerThread thread;
+    private Handler handler;
+
+    static synchronized FetchScheduler getInstance() {
+        if (instance == null) {
+            instance = new FetchScheduler();
+        }
+        return instance;
+    }
+
+    private FetchScheduler() {
+    }
+
+    /**
+     * @return handler of the scheduler thread, the thread is started again if it has been quit
+     */
+    @NonNull
+    synchronized Handler getHandler() {
+        if (thread == null || !thread.isAlive()) {
+            thread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+}
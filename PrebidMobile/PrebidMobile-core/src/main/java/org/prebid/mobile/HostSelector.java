@@ -0,0 +1,284 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Picks the Prebid Server endpoint for each auction from {@link PrebidMobile#getPrebidServerHost()} and the
+ * fallbacks set with {@link PrebidMobile#setFallbackHostUrls(String...)}.
+ * <p>
+ * Health is tracked passively from the auctions themselves, as moving averages of the latency and error rate
+ * of every endpoint. After {@link #FAILURES_TO_OPEN} failures in a row an endpoint gets no traffic for a
+ * cooldown, which doubles every time it trips again. Then a single auction probes it, the others keep avoiding it
+ * until the probe reports back or {@link #PROBE_TIMEOUT_MILLIS} passed without a report. Of the available
+ * endpoints the first one in order is used, unless another one has proven faster once its errors are
+ * accounted for. Every {@link #EXPLORE_EVERY}th auction goes to the available endpoint that was measured least
+ * recently instead, one never measured first, so that a fallback gets the chance to prove faster and the
+ * latencies stay current.
+ */
+final class HostSelector {
+
+    static final int FAILURES_TO_OPEN = 3;
+    static final long COOLDOWN_MILLIS = 30_000;
+    static final long MAX_COOLDOWN_MILLIS = 5 * 60_000;
+    static final int EXPLORE_EVERY = 20;
+    // a probe that was cancelled never reports back
+    static final long PROBE_TIMEOUT_MILLIS = 10_000;
+
+    // weight of the latest sample in the moving averages
+    private static final double EWMA_ALPHA = 0.3;
+
+    private static HostSelector instance;
+
+    private final HashMap<String, Health> healthByUrl = new HashMap<>();
+    private List<String> fallbackUrls = Collections.emptyList();
+    private int selections;
+
+    static synchronized HostSelector getInstance() {
+        if (instance == null) {
+            instance = new HostSelector();
+        }
+        return instance;
+    }
+
+    private HostSelector() {
+    }
+
+    synchronized void setFallbackUrls(@NonNull List<String> fallbackUrls) {
+        this.fallbackUrls = new ArrayList<>(fallbackUrls);
+    }
+
+    @NonNull
+    synchronized List<String> getFallbackUrls() {
+        return Collections.unmodifiableList(fallbackUrls);
+    }
+
+    /**
+     * @return URL of the endpoint the next auction should go to
+     */
+    @NonNull
+    synchronized String selectHost() {
+        List<String> candidates = getCandidates();
+        if (candidates.isEmpty()) {
+            return "";
+        }
+        long now = SystemClock.elapsedRealtime();
+        boolean explore = ++selections % EXPLORE_EVERY == 0;
+
+        String selected = null;
+        Health selectedHealth = null;
+        for (String url : candidates) {
+            Health health = healthByUrl.get(url);
+            if (health != null && !health.isAvailable(now)) {
+                continue;
+            }
+            if (selected == null || (health != null && health.isFasterThan(selectedHealth))) {
+                selected = url;
+                selectedHealth = health;
+            }
+        }
+        if (selected != null && explore) {
+            String explored = selectLeastRecentlyMeasured(candidates, selected, now);
+            if (explored != null) {
+                selected = explored;
+                selectedHealth = healthByUrl.get(explored);
+            }
+        }
+        if (selected != null) {
+            if (selectedHealth != null) {
+                selectedHealth.onSelected(now);
+            }
+            return selected;
+        }
+
+        // every endpoint is cooling down or failing, try the one that recovers first
+        String soonest = candidates.get(0);
+        for (String url : candidates) {
+            Health health = healthByUrl.get(url);
+            if (health.openUntil < healthByUrl.get(soonest).openUntil) {
+                soonest = url;
+            }
+        }
+        return soonest;
+    }
+
+    /**
+     * @return the available endpoint other than the given one that was measured least recently, one that was never
+     * measured first, or null if there is none
+     */
+    @Nullable
+    private String selectLeastRecentlyMeasured(List<String> candidates, String exclude, long now) {
+        String selected = null;
+        Health selectedHealth = null;
+        for (String url : candidates) {
+            Health health = healthByUrl.get(url);
+            if (url.equals(exclude) || (health != null && !health.isAvailable(now))) {
+                continue;
+            }
+            if (health == null) {
+                return url;
+            }
+            if (selected == null || health.measuredAt < selectedHealth.measuredAt) {
+                selected = url;
+                selectedHealth = health;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return URL of the endpoint a hedged auction should send its second request to, the best available one other
+     * than the given one, or the given one itself if there is no other
+     */
+    @NonNull
+    synchronized String selectHedgeHost(@NonNull String exclude) {
+        long now = SystemClock.elapsedRealtime();
+        String selected = null;
+        Health selectedHealth = null;
+        for (String url : getCandidates()) {
+            Health health = healthByUrl.get(url);
+            if (url.equals(exclude) || (health != null && !health.isAvailable(now))) {
+                continue;
+            }
+            if (selected == null || (health != null && health.isFasterThan(selectedHealth))) {
+                selected = url;
+                selectedHealth = health;
+            }
+        }
+        if (selectedHealth != null) {
+            selectedHealth.onSelected(now);
+        }
+        return selected != null ? selected : exclude;
+    }
+
+    synchronized void onSuccess(@NonNull String url, int latencyMillis) {
+        getHealth(url).onSuccess(latencyMillis, SystemClock.elapsedRealtime());
+    }
+
+    synchronized void onFailure(@NonNull String url) {
+        Health health = getHealth(url);
+        long openUntil = health.openUntil;
+        health.onFailure(SystemClock.elapsedRealtime());
+        if (health.openUntil != openUntil) {
+            LogUtil.w("Prebid Server " + url + " keeps failing, no auctions go there for " + health.cooldownMillis + " ms");
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void clear() {
+        healthByUrl.clear();
+        fallbackUrls = Collections.emptyList();
+        selections = 0;
+    }
+
+    private List<String> getCandidates() {
+        ArrayList<String> candidates = new ArrayList<>(fallbackUrls.size() + 1);
+        String primary = PrebidMobile.getPrebidServerHost().getHostUrl();
+        if (!TextUtils.isEmpty(primary)) {
+            candidates.add(primary);
+        }
+        for (String url : fallbackUrls) {
+            if (!TextUtils.isEmpty(url) && !candidates.contains(url)) {
+                candidates.add(url);
+            }
+        }
+        return candidates;
+    }
+
+    private Health getHealth(String url) {
+        Health health = healthByUrl.get(url);
+        if (health == null) {
+            health = new Health();
+            healthByUrl.put(url, health);
+        }
+        return health;
+    }
+
+    private static final class Health {
+        private double latencyEwma = -1;
+        private double errorRateEwma;
+        private int consecutiveFailures;
+        private long cooldownMillis = COOLDOWN_MILLIS;
+        private long openUntil;
+        // when the auction probing the endpoint after the cooldown was sent, 0 if none is out
+        private long probeSentAt;
+        // when the last auction sent to the endpoint reported back
+        private long measuredAt;
+
+        void onSuccess(int latencyMillis, long now) {
+            measuredAt = now;
+            latencyEwma = latencyEwma < 0 ? latencyMillis : EWMA_ALPHA * latencyMillis + (1 - EWMA_ALPHA) * latencyEwma;
+            errorRateEwma = (1 - EWMA_ALPHA) * errorRateEwma;
+            consecutiveFailures = 0;
+            cooldownMillis = COOLDOWN_MILLIS;
+            openUntil = 0;
+            probeSentAt = 0;
+        }
+
+        void onFailure(long now) {
+            measuredAt = now;
+            errorRateEwma = EWMA_ALPHA + (1 - EWMA_ALPHA) * errorRateEwma;
+            consecutiveFailures++;
+            if (openUntil > 0 && now >= openUntil) {
+                // the probe after the cooldown failed as well
+                cooldownMillis = Math.min(cooldownMillis * 2, MAX_COOLDOWN_MILLIS);
+                openUntil = now + cooldownMillis;
+                probeSentAt = 0;
+            } else if (openUntil == 0 && consecutiveFailures >= FAILURES_TO_OPEN) {
+                openUntil = now + cooldownMillis;
+            }
+        }
+
+        boolean isAvailable(long now) {
+            if (now < openUntil) {
+                return false;
+            }
+            return !isHalfOpen(now) || probeSentAt == 0 || now - probeSentAt >= PROBE_TIMEOUT_MILLIS;
+        }
+
+        void onSelected(long now) {
+            if (isHalfOpen(now)) {
+                probeSentAt = now;
+            }
+        }
+
+        // the cooldown is over, but no auction has succeeded since
+        private boolean isHalfOpen(long now) {
+            return openUntil > 0 && now >= openUntil;
+        }
+
+        // only endpoints with a latency can be compared, an unmeasured endpoint keeps its place in the order
+        boolean isFasterThan(Health other) {
+            return other != null && latencyEwma >= 0 && other.latencyEwma >= 0 && getExpectedLatency() < other.getExpectedLatency();
+        }
+
+        // a failed auction costs about as much as a retry
+        private double getExpectedLatency() {
+            return latencyEwma / Math.max(0.1, 1 - errorRateEwma);
+        }
+    }
+}
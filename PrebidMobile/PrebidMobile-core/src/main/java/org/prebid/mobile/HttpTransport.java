@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide HTTP transport shared by every Prebid Server request.
+ * <p>
+ * Sockets come from the platform {@link HttpURLConnection} keep-alive pool. The transport caps how many
+ * of them the SDK keeps busy at once and makes sure every response body is drained and closed, so the
+ * socket goes back to the pool and the next auction skips DNS, TCP and TLS set up.
+ */
+final class HttpTransport {
+
+    static final int MAX_CONCURRENT_CONNECTIONS = 4;
+
+    // bodies larger than this are not worth draining, the socket is dropped instead
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static HttpTransport sInstance;
+
+    private final Semaphore connectionPermits;
+    private final Set<HttpURLConnection> leasedConnections;
+
+    static synchronized HttpTransport getInstance() {
+        if (sInstance == null) {
+            sInstance = new HttpTransport(MAX_CONCURRENT_CONNECTIONS);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    HttpTransport(int maxConcurrentConnections) {
+        this.connectionPermits = new Semaphore(maxConcurrentConnections, true);
+        this.leasedConnections = Collections.newSetFromMap(new ConcurrentHashMap<HttpURLConnection, Boolean>());
+    }
+
+    /**
+     * Opens a keep-alive connection once a slot is free.
+     *
+     * @param url        endpoint to connect to
+     * @param waitMillis how long to wait for a free slot before giving up
+     * @return connection that must be handed back with {@link #release(HttpURLConnection, InputStream)}
+     * or {@link #discard(HttpURLConnection)}
+     * @throws SocketTimeoutException if no slot became free in time
+     */
+    @WorkerThread
+    @NonNull
+    HttpURLConnection openConnection(@NonNull URL url, int waitMillis) throws IOException {
+        try {
+            if (!connectionPermits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("No free connection after " + waitMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection");
+        }
+
+        HttpURLConnection conn;
+        try {
+            conn = (HttpURLConnection) url.openConnection();
+        } catch (IOException e) {
+            connectionPermits.release();
+            throw e;
+        }
+        conn.setUseCaches(false);
+        conn.setRequestProperty("Connection", "keep-alive");
+        leasedConnections.add(conn);
+        return conn;
+    }
+
+    /**
+     * Returns the socket to the keep-alive pool. Whatever is left of the body is drained first,
+     * the platform only reuses sockets whose response was fully consumed.
+     *
+     * @param conn connection obtained from {@link #openConnection(URL, int)}
+     * @param body response stream, may be null if it was never opened
+     */
+    void release(@NonNull HttpURLConnection conn, @Nullable InputStream body) {
+        if (!leasedConnections.remove(conn)) {
+            return;
+        }
+        try {
+            if (body != null) {
+                drain(body);
+                body.close();
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        } finally {
+            connectionPermits.release();
+        }
+    }
+
+    /**
+     * Closes the socket instead of pooling it, used after errors and cancellations.
+     */
+    void discard(@NonNull HttpURLConnection conn) {
+        if (!leasedConnections.remove(conn)) {
+            return;
+        }
+        try {
+            conn.disconnect();
+        } finally {
+            connectionPermits.release();
+        }
+    }
+
+    /**
+     * Resolves the host and completes the TCP and TLS handshakes with a {@code HEAD} request, the socket is
+     * then parked in the keep-alive pool for the next request to the same host. Nothing is done if every
+     * slot is in use, those connections are warm already.
+     *
+     * @return true if the connection was pooled
+     */
+    @WorkerThread
+    boolean preconnect(@NonNull URL url, int timeoutMillis) {
+        HttpURLConnection conn;
+        try {
+            conn = openConnection(url, 0);
+        } catch (IOException e) {
+            return false;
+        }
+        InputStream body = null;
+        try {
+            conn.setRequestMethod("HEAD");
+            conn.setConnectTimeout(timeoutMillis);
+            conn.setReadTimeout(timeoutMillis);
+            // any status will do, the handshakes are done once there is one
+            int status = conn.getResponseCode();
+            body = status >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+        } catch (IOException e) {
+            LogUtil.d("Preconnecting to " + url.getHost() + " failed: " + e.getMessage());
+            discard(conn);
+            return false;
+        }
+        release(conn, body);
+        return true;
+    }
+
+    @VisibleForTesting
+    int getAvailableConnections() {
+        return connectionPermits.availablePermits();
+    }
+
+    private static void drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[1024];
+        int drained = 0;
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            drained += read;
+            if (drained > MAX_DRAIN_BYTES) {
+                throw new IOException("Response body too large to drain");
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.prebid.mobile;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the last known location of the device for {@code device.geo} while
+ * {@link PrebidMobile#isShareGeoLocation()} is on, so that requests don't ask {@link LocationManager} each time.
+ * <p>
+ * Reading the {@link Geo} never calls into the system. When it is older than
+ * {@link PrebidMobile#getLocationRefreshMillis()} the providers are read again on the background executor, and
+ * fixes other apps obtain come in through the passive provider in between. The calls into {@link LocationManager}
+ * are made without holding the lock {@link #update(Context, boolean)} takes.
+ */
+final class LocationProvider {
+
+    /**
+     * One location fix, never changes.
+     */
+    static final class Geo {
+        final double latitude;
+        final double longitude;
+        // meters
+        final int accuracy;
+        // wall clock time of the fix
+        final long time;
+
+        Geo(@NonNull Location location) {
+            this.latitude = location.getLatitude();
+            this.longitude = location.getLongitude();
+            this.accuracy = Math.round(location.getAccuracy());
+            this.time = location.getTime();
+        }
+
+        /**
+         * @return milliseconds since the fix, 0 for fixes from the future
+         */
+        int getAgeMillis() {
+            return (int) Math.max(0, System.currentTimeMillis() - time);
+        }
+    }
+
+    private static LocationProvider instance;
+
+    private volatile Geo geo;
+    @Nullable
+    private volatile Context context;
+    // elapsed realtime of the last refresh, -1 if there was none
+    private volatile long refreshedAt = -1;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    // guarded by this
+    private boolean passiveUpdates;
+    private boolean permissionWarned;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                refresh();
+            } finally {
+                refreshing.set(false);
+            }
+        }
+    };
+
+    private final LocationListener passiveListener = new LocationListener() {
+        @Override
+        public void onLocationChanged(Location location) {
+            offer(context, location);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+        }
+    };
+
+    static synchronized LocationProvider getInstance() {
+        if (instance == null) {
+            instance = new LocationProvider();
+        }
+        return instance;
+    }
+
+    private LocationProvider() {
+    }
+
+    /**
+     * Starts keeping the location of the application the context belongs to if sharing it is enabled, stops
+     * and forgets the location if it isn't.
+     */
+    void update(@Nullable Context context, boolean enabled) {
+        Context applicationContext = enabled && context != null ? context.getApplicationContext() : null;
+        Context stopped;
+        boolean stopPassiveUpdates;
+        synchronized (this) {
+            if (applicationContext == this.context) {
+                return;
+            }
+            stopped = this.context;
+            stopPassiveUpdates = passiveUpdates;
+            passiveUpdates = false;
+            permissionWarned = false;
+            refreshedAt = -1;
+            geo = null;
+            this.context = applicationContext;
+        }
+        if (stopped != null && stopPassiveUpdates) {
+            removeUpdates(stopped);
+        }
+        if (applicationContext != null) {
+            refreshIfStale();
+        }
+    }
+
+    /**
+     * @return the most recent location fix, null if there is none or the location isn't shared
+     */
+    @Nullable
+    Geo getGeo() {
+        refreshIfStale();
+        return geo;
+    }
+
+    private void refreshIfStale() {
+        if (context == null || (refreshedAt >= 0 && SystemClock.elapsedRealtime() - refreshedAt < PrebidMobile.getLocationRefreshMillis())
+                || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refreshedAt = SystemClock.elapsedRealtime();
+        AuctionExecutors.getBackgroundExecutor().execute(refreshRunnable);
+    }
+
+    private void removeUpdates(@NonNull Context context) {
+        LocationManager lm = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        if (lm != null) {
+            lm.removeUpdates(passiveListener);
+        }
+    }
+
+    @WorkerThread
+    private void refresh() {
+        Context context = this.context;
+        if (context == null) {
+            return;
+        }
+        boolean fineLocation = context.checkCallingOrSelfPermission("android.permission.ACCESS_FINE_LOCATION") == PackageManager.PERMISSION_GRANTED;
+        if (!fineLocation && context.checkCallingOrSelfPermission("android.permission.ACCESS_COARSE_LOCATION") != PackageManager.PERMISSION_GRANTED) {
+            synchronized (this) {
+                if (!permissionWarned) {
+                    permissionWarned = true;
+                    LogUtil.w("Location permissions ACCESS_COARSE_LOCATION and/or ACCESS_FINE_LOCATION aren\\'t set in the host app. This may affect demand.");
+                }
+            }
+            geo = null;
+            return;
+        }
+        LocationManager lm = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        if (lm == null) {
+            return;
+        }
+        boolean startingPassiveUpdates = false;
+        try {
+            for (String providerName : lm.getProviders(true)) {
+                offer(context, lm.getLastKnownLocation(providerName));
+            }
+            // the passive provider needs the fine location permission
+            if (fineLocation && startPassiveUpdates(context)) {
+                startingPassiveUpdates = true;
+                lm.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, PrebidMobile.getLocationRefreshMillis(), 0, passiveListener,
+                        Looper.getMainLooper());
+                if (this.context != context) {
+                    // stopped in the meantime, maybe before the updates were requested
+                    lm.removeUpdates(passiveListener);
+                }
+            }
+        } catch (SecurityException e) {
+            // the permission was revoked
+            onReadFailed(context, startingPassiveUpdates, e);
+        } catch (IllegalArgumentException e) {
+            // there is no passive provider on this device
+            onReadFailed(context, startingPassiveUpdates, e);
+        }
+    }
+
+    private void onReadFailed(@NonNull Context context, boolean startingPassiveUpdates, @NonNull RuntimeException e) {
+        LogUtil.w("Unable to read the location: " + e.getMessage());
+        if (startingPassiveUpdates) {
+            synchronized (this) {
+                if (this.context == context) {
+                    passiveUpdates = false;
+                }
+            }
+        }
+    }
+
+    private synchronized boolean startPassiveUpdates(@NonNull Context context) {
+        if (this.context != context || passiveUpdates) {
+            return false;
+        }
+        passiveUpdates = true;
+        return true;
+    }
+
+    // keeps the newest fix
+    private synchronized void offer(@Nullable Context context, @Nullable Location location) {
+        if (location == null || context == null || context != this.context) {
+            return;
+        }
+        Geo current = geo;
+        if (current == null || (location.getTime() > 0 && current.time > 0 && location.getTime() > current.time)) {
+            geo = new Geo(location);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sets the targeting as keywords on {@code MoPubView} or {@code MoPubInterstitial}.
+ * <p>
+ * MoPub is not a dependency of the SDK, the class and its keyword accessors are resolved once when the
+ * adapter is created.
+ */
+final class MoPubKeywordsAdapter implements AdServerAdapter {
+
+    private static final int MOPUB_QUERY_STRING_LIMIT = 4000;
+
+    @Nullable
+    private final Class<?> adObjectClass;
+    @Nullable
+    private final Method getKeywords;
+    @Nullable
+    private final Method setKeywords;
+
+    MoPubKeywordsAdapter(@NonNull String className) {
+        Class<?> cls = Util.getClassFromString(className);
+        Method getter = null;
+        Method setter = null;
+        if (cls != null) {
+            try {
+                getter = cls.getMethod("getKeywords");
+                setter = cls.getMethod("setKeywords", String.class);
+            } catch (NoSuchMethodException e) {
+                LogUtil.e("Unsupported version of " + className);
+                cls = null;
+            }
+        }
+        this.adObjectClass = cls;
+        this.getKeywords = getter;
+        this.setKeywords = setter;
+    }
+
+    @Override
+    public boolean supports(@NonNull Class<?> adObjectClass) {
+        return this.adObjectClass != null && this.adObjectClass == adObjectClass;
+    }
+
+    @Override
+    public void removeTargeting(@NonNull Object adObject, @NonNull Set<String> keys) {
+        String adViewKeywords = (String) Util.invokeMethod(getKeywords, adObject);
+        if (TextUtils.isEmpty(adViewKeywords) || keys.isEmpty()) {
+            return;
+        }
+        ArrayList<String> remaining = new ArrayList<>();
+        for (String keyword : adViewKeywords.split(",")) {
+            if (!TextUtils.isEmpty(keyword) && keyword.contains(":")) {
+                String[] keywordArray = keyword.split(":");
+                if (keywordArray.length > 0 && keys.contains(keywordArray[0])) {
+                    continue;
+                }
+            }
+            remaining.add(keyword);
+        }
+        Util.invokeMethod(setKeywords, adObject, TextUtils.join(",", remaining));
+    }
+
+    @Override
+    public void addTargeting(@NonNull Object adObject, @NonNull Map<String, String> targeting) {
+        StringBuilder keywordsBuilder = new StringBuilder();
+        for (Map.Entry<String, String> entry : targeting.entrySet()) {
+            keywordsBuilder.append(entry.getKey()).append(":").append(entry.getValue()).append(",");
+        }
+        String adViewKeywords = (String) Util.invokeMethod(getKeywords, adObject);
+        if (!TextUtils.isEmpty(adViewKeywords)) {
+            keywordsBuilder.append(adViewKeywords);
+        }
+        // only set keywords if less than mopub query string limit
+        if (keywordsBuilder.length() <= MOPUB_QUERY_STRING_LIMIT) {
+            Util.invokeMethod(setKeywords, adObject, keywordsBuilder.toString());
+        }
+    }
+}
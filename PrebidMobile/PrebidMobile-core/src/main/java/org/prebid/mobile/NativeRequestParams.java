@@ -149,4 +149,22 @@ class NativeRequestParams {
     ArrayList<NativeAsset> getAssets() {
         return assets;
     }
+
+    // the copy gets its own asset and tracker lists, the assets and trackers themselves are shared, the app sets
+    // them up before adding them to the ad unit
+    NativeRequestParams copy() {
+        NativeRequestParams copy = new NativeRequestParams();
+        copy.contextType = contextType;
+        copy.contextsubtype = contextsubtype;
+        copy.placementtype = placementtype;
+        copy.placementCount = placementCount;
+        copy.seq = seq;
+        copy.aUrlSupport = aUrlSupport;
+        copy.dUrlSupport = dUrlSupport;
+        copy.privacy = privacy;
+        copy.ext = ext;
+        copy.trackers = new ArrayList<>(trackers);
+        copy.assets = new ArrayList<>(assets);
+        return copy;
+    }
 }
@@ -21,15 +21,23 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class PrebidMobile {
 
     private static final int TIMEOUT_MILLIS = 2_000;
 
+    private static final int TIMEOUT_PERCENTILE = 90;
+    private static final int TIMEOUT_MARGIN_MILLIS = 200;
+
     private static int timeoutMillis = TIMEOUT_MILLIS; // by default use 2000 milliseconds as timeout
-    static boolean timeoutMillisUpdated = false;
+    private static int timeoutPercentile = TIMEOUT_PERCENTILE;
+    private static int timeoutMarginMillis = TIMEOUT_MARGIN_MILLIS;
 
     @Nullable
     private static String storedAuctionResponse = "";
@@ -41,13 +49,160 @@ public class PrebidMobile {
         return timeoutMillis;
     }
 
+    /**
+     * Sets the longest an auction may take. Once a few auctions have completed, the timeout is derived from
+     * their latencies on the current host and network, see {@link #setTimeoutPercentile(int)}.
+     */
     public static void setTimeoutMillis(int timeoutMillis) {
         PrebidMobile.timeoutMillis = timeoutMillis;
     }
 
+    /**
+     * Sets the percentile of the recent auction latencies used as timeout, 90 by default.
+     */
+    public static void setTimeoutPercentile(int timeoutPercentile) {
+        PrebidMobile.timeoutPercentile = Math.max(1, Math.min(timeoutPercentile, 100));
+    }
+
+    public static int getTimeoutPercentile() {
+        return timeoutPercentile;
+    }
+
+    /**
+     * Sets the safety margin added to the latency percentile, 200 milliseconds by default.
+     */
+    public static void setTimeoutMarginMillis(int timeoutMarginMillis) {
+        PrebidMobile.timeoutMarginMillis = Math.max(0, timeoutMarginMillis);
+    }
+
+    public static int getTimeoutMarginMillis() {
+        return timeoutMarginMillis;
+    }
+
+    private static int connectTimeoutMillis = 0;
+    private static int firstByteTimeoutMillis = 0;
+    private static int readIdleTimeoutMillis = 0;
+
+    /**
+     * Sets the longest connecting to Prebid Server may take, 0, the default, allows the whole auction timeout.
+     */
+    public static void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        PrebidMobile.connectTimeoutMillis = Math.max(0, connectTimeoutMillis);
+    }
+
+    public static int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * Sets the longest Prebid Server may take to start its response once the request is sent, 0, the default,
+     * allows the whole auction timeout.
+     */
+    public static void setFirstByteTimeoutMillis(int firstByteTimeoutMillis) {
+        PrebidMobile.firstByteTimeoutMillis = Math.max(0, firstByteTimeoutMillis);
+    }
+
+    public static int getFirstByteTimeoutMillis() {
+        return firstByteTimeoutMillis;
+    }
+
+    /**
+     * Sets the longest the response may stall once it has started, 0, the default, allows the whole auction timeout.
+     */
+    public static void setReadIdleTimeoutMillis(int readIdleTimeoutMillis) {
+        PrebidMobile.readIdleTimeoutMillis = Math.max(0, readIdleTimeoutMillis);
+    }
+
+    public static int getReadIdleTimeoutMillis() {
+        return readIdleTimeoutMillis;
+    }
+
     private PrebidMobile() {
     }
 
+    private static int auctionBatchWindowMillis = 0;
+
+    /**
+     * Sends the banner, video and native ad units that fetch demand within the given window of each other
+     * in a single request. 0, the default, sends one request per ad unit.
+     */
+    public static void setAuctionBatchWindowMillis(int auctionBatchWindowMillis) {
+        PrebidMobile.auctionBatchWindowMillis = Math.max(0, auctionBatchWindowMillis);
+    }
+
+    public static int getAuctionBatchWindowMillis() {
+        return auctionBatchWindowMillis;
+    }
+
+    /**
+     * Adds an adapter for ad objects of an ad server the SDK doesn't support out of the box.
+     * Adapters added later take precedence over the ones added before them and the built in ones.
+     */
+    public static void registerAdServerAdapter(@NonNull AdServerAdapter adapter) {
+        AdServerAdapters.register(adapter);
+    }
+
+    private static int requestCompressionThreshold = -1;
+
+    /**
+     * Gzips request bodies of at least the given size in bytes, the Prebid Server host has to accept
+     * {@code Content-Encoding: gzip}. -1, the default, never compresses requests. Responses are always
+     * requested gzipped.
+     */
+    public static void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        PrebidMobile.requestCompressionThreshold = requestCompressionThreshold < 0 ? -1 : requestCompressionThreshold;
+    }
+
+    public static int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    private static int hedgingPercentile = 0;
+
+    /**
+     * Sends an auction a second time, to a fallback host if there is one available, when it has no answer after
+     * the given percentile of the recent auction latencies. The first answer is used and the other request is
+     * cancelled. 0, the default, never sends a second request.
+     */
+    public static void setHedgingPercentile(int hedgingPercentile) {
+        PrebidMobile.hedgingPercentile = Math.max(0, Math.min(hedgingPercentile, 100));
+    }
+
+    public static int getHedgingPercentile() {
+        return hedgingPercentile;
+    }
+
+    /**
+     * Runs the auctions on the given executor instead of the pool of {@value AuctionExecutors#AUCTION_THREADS} threads
+     * the SDK owns, null restores the default. The auctions block while they wait for Prebid Server.
+     */
+    public static void setAuctionExecutor(@Nullable Executor executor) {
+        AuctionExecutors.setAuctionExecutor(executor);
+    }
+
+    /**
+     * Calls the listeners of the fetches on the given executor instead of the main thread, null restores the default.
+     * The bids are still set on the ad objects on the main thread, before the listener is called.
+     */
+    public static void setCallbackExecutor(@Nullable Executor executor) {
+        AuctionExecutors.setCallbackExecutor(executor);
+    }
+
+    private static int auctionDeduplicationWindowMillis = -1;
+
+    /**
+     * Runs fetches for identical ad units that overlap as one auction, and shares its result for the given time
+     * afterwards. 0 only shares auctions that are still running, -1, the default, runs every fetch on its own.
+     * The ad units share the winning bid, so leave this off if the same bid must not fill two slots.
+     */
+    public static void setAuctionDeduplicationWindowMillis(int auctionDeduplicationWindowMillis) {
+        PrebidMobile.auctionDeduplicationWindowMillis = auctionDeduplicationWindowMillis < 0 ? -1 : auctionDeduplicationWindowMillis;
+    }
+
+    public static int getAuctionDeduplicationWindowMillis() {
+        return auctionDeduplicationWindowMillis;
+    }
+
     private static String accountId = "";
 
     public static void setPrebidServerAccountId(String accountId) {
@@ -62,28 +217,87 @@ public class PrebidMobile {
 
     public static void setPrebidServerHost(Host host) {
         PrebidMobile.host = host;
-        timeoutMillisUpdated = false; // each time a developer sets a new Host for the SDK, we should re-calculate the time out millis
-        timeoutMillis = TIMEOUT_MILLIS;
+        Preconnector.getInstance().onHostChanged();
     }
 
     public static Host getPrebidServerHost() {
         return host;
     }
 
+    /**
+     * Sets Prebid Server endpoints to move to, in order, when the host set with {@link #setPrebidServerHost(Host)}
+     * keeps failing. A fallback that proves faster than the host takes over its traffic as well.
+     *
+     * @param hostUrls auction endpoint URLs, e.g. {@code https://pbs-eu.example.com/openrtb2/auction}
+     */
+    public static void setFallbackHostUrls(String... hostUrls) {
+        HostSelector.getInstance().setFallbackUrls(hostUrls != null ? Arrays.asList(hostUrls) : Collections.<String>emptyList());
+    }
+
+    public static List<String> getFallbackHostUrls() {
+        return HostSelector.getInstance().getFallbackUrls();
+    }
+
+    /**
+     * Opens a connection to the Prebid Server host now, so the first auction doesn't wait for DNS, TCP and TLS.
+     * Once called, the connection is opened again whenever the host is changed or the device connects to a network.
+     */
+    public static void preconnect() {
+        Preconnector.getInstance().enable();
+    }
+
     private static boolean shareGeoLocation = false;
 
     public static void setShareGeoLocation(boolean share) {
         PrebidMobile.shareGeoLocation = share;
+        LocationProvider.getInstance().update(getApplicationContext(), share);
     }
 
     public static boolean isShareGeoLocation() {
         return shareGeoLocation;
     }
 
+    private static final int LOCATION_REFRESH_MILLIS = 60_000;
+
+    private static int locationRefreshMillis = LOCATION_REFRESH_MILLIS;
+
+    /**
+     * Sets how old the shared location may get before auctions have it read again in the background, 60 seconds
+     * by default. Locations other apps obtain are picked up in between.
+     */
+    public static void setLocationRefreshMillis(int locationRefreshMillis) {
+        PrebidMobile.locationRefreshMillis = Math.max(1000, locationRefreshMillis);
+    }
+
+    public static int getLocationRefreshMillis() {
+        return locationRefreshMillis;
+    }
+
     private static WeakReference<Context> applicationContextWeak;
 
     public static void setApplicationContext(Context context) {
         applicationContextWeak = new WeakReference<Context>(context);
+        if (context != null) {
+            AppLifecycle.getInstance().register(context);
+            ConnectivityMonitor.getInstance().register(context);
+            RequestSnapshot.register(context);
+            LocationProvider.getInstance().update(context, shareGeoLocation);
+            DeviceMetadataCache.load(context);
+        }
+    }
+
+    /**
+     * Sets the application context and loads everything the requests are built from in the background: the
+     * advertising id, the user agent, the app and carrier metadata and the consent, and opens a connection to the
+     * Prebid Server host. Demand fetched before the listener is called works as well, it may just miss some of
+     * these values. Call it once the account id and host are set, e.g. in {@code Application.onCreate()}.
+     *
+     * @param listener called once done, may be null
+     */
+    public static void initialize(@NonNull Context context, @Nullable OnInitializationCompleteListener listener) {
+        Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        setApplicationContext(applicationContext);
+        SdkInitializer.initialize(applicationContext, listener);
     }
 
     public static Context getApplicationContext() {
@@ -17,19 +17,13 @@
 package org.prebid.mobile;
 
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.location.Location;
-import android.location.LocationManager;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.os.AsyncTask;
 import android.os.Build;
-import android.os.CountDownTimer;
-import android.support.annotation.MainThread;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
-import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.webkit.CookieManager;
 import android.webkit.CookieSyncManager;
@@ -39,342 +33,996 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 class PrebidServerAdapter implements DemandAdapter {
-    private ArrayList<ServerConnector> serverConnectors;
+    // changed from the FetchScheduler thread and the main thread
+    private final List<ServerConnector> serverConnectors = new CopyOnWriteArrayList<>();
 
     PrebidServerAdapter() {
-        serverConnectors = new ArrayList<>();
     }
 
     @Override
     public void requestDemand(RequestParams params, DemandAdapterListener listener, String auctionId) {
-        ServerConnector connector = new ServerConnector(this, listener, params, auctionId);
+        requestDemand(new ImpRequest(this, listener, params, auctionId, null));
+    }
+
+    /**
+     * Runs an auction whose winning bid goes to the {@link BidCache} under the given key instead of a listener.
+     */
+    void requestDemandForCache(RequestParams params, String auctionId, String cacheKey) {
+        requestDemand(new ImpRequest(this, null, params, auctionId, cacheKey));
+    }
+
+    private void requestDemand(ImpRequest impRequest) {
+        RequestParams params = impRequest.requestParams;
+        if (impRequest.cacheKey == null && PrebidMobile.getAuctionDeduplicationWindowMillis() >= 0) {
+            String key = SingleFlight.getKey(params);
+            if (key != null && SingleFlight.getInstance().join(key, impRequest)) {
+                LogUtil.d("Auction " + impRequest.getAuctionId() + " joined an identical auction");
+                return;
+            }
+        }
+        AuctionBatch batch = AuctionBatch.getInstance();
+        if (batch.canBatch(params)) {
+            batch.enqueue(impRequest);
+            return;
+        }
+        ServerConnector connector = new ServerConnector(Collections.singletonList(impRequest));
         serverConnectors.add(connector);
         connector.execute();
     }
 
     @Override
     public void stopRequest(String auctionId) {
+        SingleFlight.getInstance().leave(auctionId);
+        for (ImpRequest impRequest : AuctionBatch.getInstance().remove(auctionId)) {
+            // the first fetch that joined the dropped one runs the auction instead, the others join it again
+            for (ImpRequest follower : SingleFlight.getInstance().abandon(impRequest)) {
+                PrebidServerAdapter adapter = follower.getPrebidServerAdapter();
+                if (adapter != null) {
+                    adapter.requestDemand(follower);
+                }
+            }
+        }
+
         ArrayList<ServerConnector> toRemove = new ArrayList<>();
         for (ServerConnector connector : serverConnectors) {
-            if (connector.getAuctionId().equals(auctionId)) {
-                connector.destroy();
+            if (connector.hasAuctionId(auctionId)) {
                 toRemove.add(connector);
             }
         }
         serverConnectors.removeAll(toRemove);
+        // a connector that keeps running for the fetches that joined it is added to their adapters again
+        for (ServerConnector connector : toRemove) {
+            connector.destroy(auctionId);
+        }
     }
 
-    static class ServerConnector extends AsyncTask<Object, Object, ServerConnector.AsyncTaskResult<JSONObject>> {
-
-        private static final int TIMEOUT_COUNT_DOWN_INTERVAL = 500;
+    void addServerConnector(ServerConnector connector) {
+        serverConnectors.add(connector);
+    }
 
+    /**
+     * One ad unit fetch, sent as an imp of a {@link ServerConnector} request.
+     */
+    static final class ImpRequest {
         private final WeakReference<PrebidServerAdapter> prebidServerAdapter;
-        private final TimeoutCountDownTimer timeoutCountDownTimer;
-
         private final RequestParams requestParams;
         private final String auctionId;
+        // BidCache key of a prefetch
+        @Nullable
+        private final String cacheKey;
 
-        private DemandAdapterListener listener;
-        private boolean timeoutFired;
-
-        private final AdType adType;
+        @Nullable
+        private volatile DemandAdapterListener listener;
 
-        ServerConnector(PrebidServerAdapter prebidServerAdapter, DemandAdapterListener listener, RequestParams requestParams, String auctionId) {
+        ImpRequest(PrebidServerAdapter prebidServerAdapter, @Nullable DemandAdapterListener listener, RequestParams requestParams, String auctionId, @Nullable String cacheKey) {
             this.prebidServerAdapter = new WeakReference<>(prebidServerAdapter);
             this.listener = listener;
             this.requestParams = requestParams;
             this.auctionId = auctionId;
-            timeoutCountDownTimer = new TimeoutCountDownTimer(PrebidMobile.getTimeoutMillis(), TIMEOUT_COUNT_DOWN_INTERVAL);
+            this.cacheKey = cacheKey;
+        }
 
-            adType = requestParams.getAdType();
+        private boolean isWaiting() {
+            return cacheKey != null || listener != null || SingleFlight.getInstance().hasFollowers(this);
         }
 
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
+        /**
+         * Hands the targeting to the listener, or the result code if there is none.
+         */
+        void notifyListener(@Nullable HashMap<String, String> keywords, @Nullable ResultCode resultCode) {
+            DemandAdapterListener listener = this.listener;
+            if (listener == null) {
+                return;
+            }
+            if (keywords != null) {
+                listener.onDemandReady(keywords, auctionId);
+            } else {
+                listener.onDemandFailed(resultCode, auctionId);
+            }
+        }
 
-            timeoutCountDownTimer.start();
+        @Nullable
+        PrebidServerAdapter getPrebidServerAdapter() {
+            return prebidServerAdapter.get();
+        }
+
+        String getAuctionId() {
+            return auctionId;
+        }
+    }
+
+    /**
+     * Sends one request to Prebid Server on the {@link AuctionExecutors#getAuctionExecutor() auction executor} and
+     * reports the outcome to the fetches of its imps on the {@link AuctionExecutors#getMainThreadExecutor() main
+     * thread}.
+     */
+    static class ServerConnector implements Runnable {
+
+        private static final String IMP_ID = "PrebidMobile";
+
+        private final List<ImpRequest> impRequests;
+        private final String auctionId;
+        // id of the OpenRTB request, a hedged request is the same one sent again
+        private final String requestId = UUID.randomUUID().toString();
+
+        // the latency of the request is recorded for this host and network class
+        private final String host;
+        private final String networkClass;
+        private final int timeoutMillis;
+
+        // elapsed realtime by which the auction must be over
+        private volatile long deadline;
+        private volatile boolean timeoutFired;
+        private final Runnable deadlineRunnable = new Runnable() {
+            @Override
+            public void run() {
+                onDeadline();
+            }
+        };
+
+        // fetches that joined a stopped imp, they keep the auction running and can stop it
+        private final List<ImpRequest> handedOverTo = new CopyOnWriteArrayList<>();
+
+        // round trips in flight, closed when the auction is aborted
+        private final Set<Exchange> exchanges = Collections.newSetFromMap(new ConcurrentHashMap<Exchange, Boolean>());
+        private volatile boolean cancelled;
+        // the outcome is handed to the main thread only once, either the result or the cancellation
+        private final AtomicBoolean finished = new AtomicBoolean();
+        @Nullable
+        private Thread worker;
+
+        /**
+         * @param impRequests ad unit fetches sent together in one request, one imp each
+         */
+        ServerConnector(@NonNull List<ImpRequest> impRequests) {
+            this.impRequests = new ArrayList<>(impRequests);
+            this.auctionId = impRequests.get(0).getAuctionId();
+            this.host = HostSelector.getInstance().selectHost();
+            this.networkClass = ConnectivityMonitor.getInstance().getState().networkClass;
+            this.timeoutMillis = AdaptiveTimeout.getInstance().getTimeoutMillis(host, networkClass);
+        }
+
+        /**
+         * Sets the deadline and queues the request on the auction executor. The deadline is enforced on the
+         * {@link FetchScheduler} thread, the request is aborted if it isn't over by then.
+         */
+        void execute() {
+            deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+            FetchScheduler.getInstance().getHandler().postDelayed(deadlineRunnable, timeoutMillis);
+            AuctionExecutors.getAuctionExecutor().execute(this);
+        }
+
+        private void onDeadline() {
+            if (cancelled) {
+                return;
+            }
+            timeoutFired = true;
+            abort();
+        }
+
+        private void cancelDeadline() {
+            FetchScheduler.getInstance().getHandler().removeCallbacks(deadlineRunnable);
+        }
+
+        /**
+         * @return time left until the deadline, at least 1 ms so that it can be used as a socket timeout
+         */
+        private int getRemainingMillis() {
+            if (deadline == 0) {
+                // not started yet
+                return timeoutMillis;
+            }
+            return (int) Math.max(1, Math.min(deadline - SystemClock.elapsedRealtime(), timeoutMillis));
+        }
+
+        /**
+         * @return the configured budget of a phase of the request, capped at the time left until the deadline
+         */
+        private int getBudgetMillis(int phaseTimeoutMillis) {
+            int remainingMillis = getRemainingMillis();
+            return phaseTimeoutMillis > 0 ? Math.min(phaseTimeoutMillis, remainingMillis) : remainingMillis;
         }
 
         @Override
         @WorkerThread
-        protected AsyncTaskResult<JSONObject> doInBackground(Object... objects) {
+        public void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                worker = Thread.currentThread();
+            }
+            TaskResult<BidResponseParser.Result> result;
             try {
-                long demandFetchStartTime = System.currentTimeMillis();
-
-                BidLog.BidLogEntry entry = new BidLog.BidLogEntry();
-
-                URL url = new URL(getHost());
-                entry.setRequestUrl(getHost());
-
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setDoOutput(true);
-                conn.setDoInput(true);
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setRequestProperty("Accept", "application/json");
-                String existingCookie = getExistingCookie();
-                if (existingCookie != null) {
-                    conn.setRequestProperty(PrebidServerSettings.COOKIE_HEADER, existingCookie);
-                } // todo still pass cookie if limit ad tracking?
-
-                conn.setRequestMethod("POST");
-                conn.setConnectTimeout(PrebidMobile.getTimeoutMillis());
-
-                // Add post data
-                OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream(), "UTF-8");
-                JSONObject postData = getPostData();
-                String postString = postData.toString();
-                LogUtil.d("Sending request for auction " + auctionId + " with post data: " + postString);
-                wr.write(postString);
-                wr.flush();
-
-                entry.setRequestBody(postString);
-
-                // Start the connection
-                conn.connect();
-
-                // Read request response
-                int httpResult = conn.getResponseCode();
-                long demandFetchEndTime = System.currentTimeMillis();
-
-                entry.setResponseCode(httpResult);
-
-                if (httpResult == HttpURLConnection.HTTP_OK) {
-                    StringBuilder builder = new StringBuilder();
-                    InputStream is = conn.getInputStream();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(is, "utf-8"));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        builder.append(line);
+                result = sendRequest();
+            } finally {
+                synchronized (this) {
+                    worker = null;
+                    // an abort must not interrupt the next task of the executor
+                    Thread.interrupted();
+                }
+            }
+            if (finished.compareAndSet(false, true)) {
+                postResult(result);
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void postResult(@Nullable final TaskResult<BidResponseParser.Result> result) {
+            AuctionExecutors.getMainThreadExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled || result == null) {
+                        onCancelled();
+                    } else {
+                        onResult(result);
                     }
-                    reader.close();
-                    is.close();
-                    String result = builder.toString();
-                    entry.setResponse(result);
-                    JSONObject response = new JSONObject(result);
-                    httpCookieSync(conn.getHeaderFields());
-                    // in the future, this can be improved to parse response base on request versions
-                    if (!PrebidMobile.timeoutMillisUpdated) {
-                        int tmaxRequest = -1;
-                        try {
-                            tmaxRequest = response.getJSONObject("ext").getInt("tmaxrequest");
-                        } catch (JSONException e) {
-                            // ignore this
-                        }
-                        if (tmaxRequest >= 0) {
-                            PrebidMobile.setTimeoutMillis(Math.min((int) (demandFetchEndTime - demandFetchStartTime) + tmaxRequest + 200, 2000)); // adding 200ms as safe time
-                            PrebidMobile.timeoutMillisUpdated = true;
-                        }
+                }
+            });
+        }
+
+        @WorkerThread
+        private TaskResult<BidResponseParser.Result> sendRequest() {
+            prepareRequest();
+            if (cancelled) {
+                return new TaskResult<>(new InterruptedIOException("Auction cancelled"));
+            }
+
+            int hedgeDelayMillis = getHedgeDelayMillis();
+            if (hedgeDelayMillis < 0) {
+                Exchange exchange = new Exchange(host, null);
+                exchange.run();
+                return finish(exchange);
+            }
+            return runHedged(hedgeDelayMillis);
+        }
+
+        /**
+         * Records the latency of the exchange whose result the auction uses, the other one of a hedged auction
+         * doesn't count.
+         */
+        private TaskResult<BidResponseParser.Result> finish(Exchange exchange) {
+            if (exchange.latencyMillis >= 0) {
+                AdaptiveTimeout.getInstance().addSample(exchange.host, networkClass, exchange.latencyMillis);
+            }
+            return exchange.result;
+        }
+
+        /**
+         * @return how long to wait for an answer before the request is sent a second time, -1 to not hedge
+         */
+        private int getHedgeDelayMillis() {
+            int percentile = PrebidMobile.getHedgingPercentile();
+            if (percentile <= 0) {
+                return -1;
+            }
+            int hedgeDelayMillis = AdaptiveTimeout.getInstance().getLatencyPercentile(host, networkClass, percentile);
+            // no point in a second request that can't finish before the timeout
+            return hedgeDelayMillis < timeoutMillis / 2 ? hedgeDelayMillis : -1;
+        }
+
+        /**
+         * Sends the request and, if there is no answer after the hedge delay, sends it once more to another
+         * endpoint, or on a new connection to the same one. The first answer wins, the other request is aborted.
+         */
+        @WorkerThread
+        private TaskResult<BidResponseParser.Result> runHedged(int hedgeDelayMillis) {
+            BlockingQueue<Exchange> completed = new LinkedBlockingQueue<>();
+            Exchange primary = new Exchange(host, completed);
+            Exchange hedge = null;
+            try {
+                AuctionExecutors.getNetworkExecutor().execute(primary);
+                Exchange first = completed.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    return finish(first);
+                }
+
+                String hedgeHost = HostSelector.getInstance().selectHedgeHost(host);
+                LogUtil.d("No answer for auction " + auctionId + " after " + hedgeDelayMillis + " ms, hedging on " + hedgeHost);
+                // the hedge writes the request again, tmax is the time left now rather than before the hedge delay
+                hedge = new Exchange(hedgeHost, completed);
+                AuctionExecutors.getNetworkExecutor().execute(hedge);
+
+                first = completed.take();
+                if (!first.isAnswer()) {
+                    // a failed request doesn't win, as long as the other one may still answer
+                    first = completed.take();
+                }
+                return finish(first);
+            } catch (InterruptedException e) {
+                // the auction was cancelled
+                Thread.currentThread().interrupt();
+                return new TaskResult<>(new InterruptedIOException("Auction cancelled"));
+            } finally {
+                primary.abort();
+                if (hedge != null) {
+                    hedge.abort();
+                }
+            }
+        }
+
+        /**
+         * Writes the request straight into the connection, up to {@link BidLog#MAX_BODY_LENGTH} characters of it are
+         * copied as well if the {@link BidLog} keeps the bodies.
+         */
+        @WorkerThread
+        private void writeRequest(HttpURLConnection conn, @Nullable StringBuilder copy) throws IOException, NoContextException {
+            Writer out = new BufferedWriter(new OutputStreamWriter(new RequestBodyStream(conn), "UTF-8"));
+            if (copy != null) {
+                out = copying(out, copy, BidLog.MAX_BODY_LENGTH);
+            }
+            writePostData(out);
+            // a request that failed halfway is never completed, the connection is discarded
+            out.close();
+        }
+
+        /**
+         * Keeps up to the given number of characters of what is written for the {@link BidLog}.
+         */
+        private static Writer copying(Writer out, final StringBuilder copy, final int limit) {
+            return new FilterWriter(out) {
+                @Override
+                public void write(int c) throws IOException {
+                    super.write(c);
+                    if (copy.length() < limit) {
+                        copy.append((char) c);
                     }
+                }
 
-                    BidLog.getInstance().setLastEntry(entry);
+                @Override
+                public void write(@NonNull char[] cbuf, int off, int len) throws IOException {
+                    super.write(cbuf, off, len);
+                    copy.append(cbuf, off, Math.min(len, limit - copy.length()));
+                }
 
-                    return new AsyncTaskResult<>(response);
-                } else if (httpResult >= HttpURLConnection.HTTP_BAD_REQUEST) {
-                    StringBuilder builder = new StringBuilder();
-                    InputStream is = conn.getErrorStream();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(is, "utf-8"));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        builder.append(line);
+                @Override
+                public void write(@NonNull String str, int off, int len) throws IOException {
+                    super.write(str, off, len);
+                    copy.append(str, off, off + Math.min(len, limit - copy.length()));
+                }
+            };
+        }
+
+        /**
+         * Asking for gzip explicitly turns off the transparent decompression of HttpURLConnection.
+         */
+        private static InputStream decode(HttpURLConnection conn, InputStream is) throws IOException {
+            return "gzip".equalsIgnoreCase(conn.getContentEncoding()) ? new GZIPInputStream(is) : is;
+        }
+
+        /**
+         * Keeps up to the given number of bytes of what the parser reads for the {@link BidLog}.
+         */
+        private static InputStream copying(InputStream is, final ByteArrayOutputStream copy, final int limit) {
+            return new FilterInputStream(is) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0 && copy.size() < limit) {
+                        copy.write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(@NonNull byte[] b, int off, int len) throws IOException {
+                    int count = super.read(b, off, len);
+                    if (count > 0) {
+                        copy.write(b, off, Math.min(count, limit - copy.size()));
+                    }
+                    return count;
+                }
+            };
+        }
+
+        private void onHostTimedOut() {
+            AdaptiveTimeout.getInstance().addSample(host, networkClass, timeoutMillis);
+            HostSelector.getInstance().onFailure(host);
+        }
+
+        /**
+         * One round trip of the auction request to one endpoint. Hedged auctions run two of them side by side.
+         */
+        private final class Exchange implements Runnable {
+            private final String host;
+            @Nullable
+            private final BlockingQueue<Exchange> completed;
+
+            private volatile HttpURLConnection conn;
+            private volatile boolean aborted;
+            private long startTime;
+            // until the answer, or until the exchange timed out, -1 if it failed otherwise
+            private int latencyMillis = -1;
+
+            // bytes received so far, the watchdog aborts the exchange if they don't grow within the budget
+            private volatile long progress;
+            private volatile long watchedProgress;
+            private volatile int idleBudgetMillis;
+            private volatile boolean stalled;
+            private final Runnable stallWatchdog = new Runnable() {
+                @Override
+                public void run() {
+                    if (aborted) {
+                        return;
                     }
-                    reader.close();
-                    is.close();
-                    String result = builder.toString();
-                    entry.setResponse(result);
-                    LogUtil.d("Getting response for auction " + getAuctionId() + ": " + result);
-                    Pattern storedRequestNotFound = Pattern.compile("^Invalid request: Stored Request with ID=\".*\" not found.");
-                    Pattern storedImpNotFound = Pattern.compile("^Invalid request: Stored Imp with ID=\".*\" not found.");
-                    Pattern invalidBannerSize = Pattern.compile("^Invalid request: Request imp\\[\\d\\].banner.format\\[\\d\\] must define non-zero \"h\" and \"w\" properties.");
-                    Pattern invalidInterstitialSize = Pattern.compile("Invalid request: Unable to set interstitial size list");
-                    Matcher m = storedRequestNotFound.matcher(result);
-                    Matcher m2 = invalidBannerSize.matcher(result);
-                    Matcher m3 = storedImpNotFound.matcher(result);
-                    Matcher m4 = invalidInterstitialSize.matcher(result);
-
-                    BidLog.getInstance().setLastEntry(entry);
-
-                    if (m.find() || result.contains("No stored request")) {
-                        return new AsyncTaskResult<>(ResultCode.INVALID_ACCOUNT_ID);
-                    } else if (m3.find() || result.contains("No stored imp")) {
-                        return new AsyncTaskResult<>(ResultCode.INVALID_CONFIG_ID);
-                    } else if (m2.find() || m4.find() || result.contains("Request imp[0].banner.format")) {
-                        return new AsyncTaskResult<>(ResultCode.INVALID_SIZE);
+                    if (progress == watchedProgress) {
+                        LogUtil.d("No data for auction " + auctionId + " from " + host + " in " + idleBudgetMillis + " ms");
+                        stalled = true;
+                        abort();
                     } else {
-                        return new AsyncTaskResult<>(ResultCode.PREBID_SERVER_ERROR);
+                        watch(idleBudgetMillis);
                     }
                 }
+            };
 
-            } catch (MalformedURLException e) {
-                return new AsyncTaskResult<>(e);
-            } catch (UnsupportedEncodingException e) {
-                return new AsyncTaskResult<>(e);
-            } catch (SocketTimeoutException ex) {
-                return new AsyncTaskResult<>(ResultCode.TIMEOUT);
-            } catch (IOException e) {
-                return new AsyncTaskResult<>(e);
-            } catch (JSONException e) {
-                return new AsyncTaskResult<>(e);
-            } catch (NoContextException ex) {
-                return new AsyncTaskResult<>(ResultCode.INVALID_CONTEXT);
-            } catch (Exception e) {
-                return new AsyncTaskResult<>(e);
+            private TaskResult<BidResponseParser.Result> result;
+
+            Exchange(String host, @Nullable BlockingQueue<Exchange> completed) {
+                this.host = host;
+                this.completed = completed;
+            }
+
+            @Override
+            @WorkerThread
+            public void run() {
+                startTime = System.currentTimeMillis();
+                exchanges.add(this);
+                try {
+                    result = execute();
+                } finally {
+                    exchanges.remove(this);
+                }
+                if (completed != null) {
+                    completed.add(this);
+                }
+            }
+
+            /**
+             * Closes the connection, which ends a request that is still waiting for its answer.
+             */
+            void abort() {
+                aborted = true;
+                HttpURLConnection conn = this.conn;
+                if (conn != null) {
+                    conn.disconnect();
+                }
+            }
+
+            /**
+             * @return true if the server answered, even if with an error
+             */
+            boolean isAnswer() {
+                return result.getError() == null && result.getResultCode() != ResultCode.TIMEOUT;
+            }
+
+            /**
+             * Fails the read as soon as the exchange is aborted, even if the rest of the response is buffered already,
+             * and reports the progress to the watchdog.
+             */
+            private InputStream abortable(InputStream is) {
+                return new FilterInputStream(is) {
+                    @Override
+                    public int read() throws IOException {
+                        checkAborted();
+                        int b = super.read();
+                        progress++;
+                        return b;
+                    }
+
+                    @Override
+                    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+                        checkAborted();
+                        int count = super.read(b, off, len);
+                        if (count > 0) {
+                            progress += count;
+                        }
+                        return count;
+                    }
+                };
+            }
+
+            /**
+             * Aborts the exchange unless data arrives within the given time, an idle connection is found within
+             * twice that time at the latest. The deadline of the auction applies if the budget is 0.
+             */
+            private void watch(int budgetMillis) {
+                Handler handler = FetchScheduler.getInstance().getHandler();
+                handler.removeCallbacks(stallWatchdog);
+                if (budgetMillis <= 0) {
+                    return;
+                }
+                idleBudgetMillis = budgetMillis;
+                watchedProgress = progress;
+                handler.postDelayed(stallWatchdog, budgetMillis);
+            }
+
+            private TaskResult<BidResponseParser.Result> onTimedOut() {
+                // the server took at least this long
+                latencyMillis = (int) (System.currentTimeMillis() - startTime);
+                HostSelector.getInstance().onFailure(host);
+                return new TaskResult<>(ResultCode.TIMEOUT);
+            }
+
+            private void checkAborted() throws InterruptedIOException {
+                if (aborted) {
+                    throw new InterruptedIOException("Request aborted");
+                }
+            }
+
+            @WorkerThread
+            private TaskResult<BidResponseParser.Result> execute() {
+                HttpTransport transport = HttpTransport.getInstance();
+                HttpURLConnection conn = null;
+                InputStream is = null;
+                boolean reusable = false;
+                try {
+                    BidLog.BidLogEntry entry = new BidLog.BidLogEntry();
+
+                    URL url = new URL(host);
+                    entry.setRequestUrl(host);
+
+                    conn = transport.openConnection(url, getRemainingMillis());
+                    this.conn = conn;
+                    if (aborted || cancelled) {
+                        throw new InterruptedIOException("Request aborted");
+                    }
+                    conn.setDoOutput(true);
+                    conn.setDoInput(true);
+                    conn.setRequestProperty("Content-Type", "application/json");
+                    conn.setRequestProperty("Accept", "application/json");
+                    conn.setRequestProperty("Accept-Encoding", "gzip");
+                    String existingCookie = getExistingCookie();
+                    if (existingCookie != null) {
+                        conn.setRequestProperty(PrebidServerSettings.COOKIE_HEADER, existingCookie);
+                    } // todo still pass cookie if limit ad tracking?
+
+                    conn.setRequestMethod("POST");
+                    conn.setConnectTimeout(getBudgetMillis(PrebidMobile.getConnectTimeoutMillis()));
+                    // the read timeout can't change once connected, the socket is only limited by the looser of the
+                    // read budgets, the watchdog enforces them in turn
+                    int firstByteTimeoutMillis = PrebidMobile.getFirstByteTimeoutMillis();
+                    int readIdleTimeoutMillis = PrebidMobile.getReadIdleTimeoutMillis();
+                    if (firstByteTimeoutMillis > 0 && readIdleTimeoutMillis > 0) {
+                        conn.setReadTimeout(getBudgetMillis(Math.max(firstByteTimeoutMillis, readIdleTimeoutMillis)));
+                    } else {
+                        conn.setReadTimeout(getRemainingMillis());
+                    }
+
+                    // Add post data
+                    LogUtil.d("Sending request for auction " + auctionId);
+                    StringBuilder requestBody = BidLog.getInstance().isRecordingBodies() ? new StringBuilder() : null;
+                    writeRequest(conn, requestBody);
+                    if (requestBody != null) {
+                        entry.setRequestBody(requestBody.toString());
+                    }
+                    if (firstByteTimeoutMillis > 0) {
+                        watch(getBudgetMillis(firstByteTimeoutMillis));
+                    }
+
+                    // Start the connection
+                    conn.connect();
+
+                    // Read request response
+                    int httpResult = conn.getResponseCode();
+                    int latencyMillis = (int) (System.currentTimeMillis() - startTime);
+                    watch(readIdleTimeoutMillis > 0 ? getBudgetMillis(readIdleTimeoutMillis) : 0);
+
+                    entry.setResponseCode(httpResult);
+
+                    if (httpResult == HttpURLConnection.HTTP_OK) {
+                        is = conn.getInputStream();
+                        InputStream body = decode(conn, abortable(is));
+                        ByteArrayOutputStream responseBody = null;
+                        if (BidLog.getInstance().isRecordingBodies()) {
+                            responseBody = new ByteArrayOutputStream();
+                            body = copying(body, responseBody, BidLog.MAX_BODY_LENGTH);
+                        }
+                        BidResponseParser.Result response = BidResponseParser.parse(body);
+                        reusable = true;
+                        if (responseBody != null) {
+                            entry.setResponse(responseBody.toString("UTF-8"));
+                        }
+                        httpCookieSync(conn.getHeaderFields());
+                        this.latencyMillis = latencyMillis;
+                        HostSelector.getInstance().onSuccess(host, latencyMillis);
+
+                        BidLog.getInstance().setLastEntry(entry);
+
+                        return new TaskResult<>(response);
+                    } else if (httpResult >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                        if (httpResult >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                            HostSelector.getInstance().onFailure(host);
+                        } else {
+                            // the request was rejected, but the server is fine
+                            HostSelector.getInstance().onSuccess(host, latencyMillis);
+                        }
+                        is = conn.getErrorStream();
+                        String result = is != null ? readBody(decode(conn, abortable(is))) : "";
+                        reusable = true;
+                        entry.setResponse(result);
+                        LogUtil.d("Getting response for auction " + getAuctionId() + ": " + result);
+                        Pattern storedRequestNotFound = Pattern.compile("^Invalid request: Stored Request with ID=\".*\" not found.");
+                        Pattern storedImpNotFound = Pattern.compile("^Invalid request: Stored Imp with ID=\".*\" not found.");
+                        Pattern invalidBannerSize = Pattern.compile("^Invalid request: Request imp\\[\\d\\].banner.format\\[\\d\\] must define non-zero \"h\" and \"w\" properties.");
+                        Pattern invalidInterstitialSize = Pattern.compile("Invalid request: Unable to set interstitial size list");
+                        Matcher m = storedRequestNotFound.matcher(result);
+                        Matcher m2 = invalidBannerSize.matcher(result);
+                        Matcher m3 = storedImpNotFound.matcher(result);
+                        Matcher m4 = invalidInterstitialSize.matcher(result);
+
+                        BidLog.getInstance().setLastEntry(entry);
+
+                        ResultCode resultCode;
+                        if (m.find() || result.contains("No stored request")) {
+                            resultCode = ResultCode.INVALID_ACCOUNT_ID;
+                        } else if (m3.find() || result.contains("No stored imp")) {
+                            resultCode = ResultCode.INVALID_CONFIG_ID;
+                        } else if (m2.find() || m4.find() || result.contains("Request imp[0].banner.format")) {
+                            resultCode = ResultCode.INVALID_SIZE;
+                        } else {
+                            resultCode = ResultCode.PREBID_SERVER_ERROR;
+                        }
+                        TaskResult<BidResponseParser.Result> rejection = new TaskResult<>(resultCode);
+                        rejection.rejected = httpResult < HttpURLConnection.HTTP_INTERNAL_ERROR;
+                        return rejection;
+                    }
+
+                } catch (NoContextException e) {
+                    return new TaskResult<>(ResultCode.INVALID_CONTEXT);
+                } catch (MalformedURLException e) {
+                    return new TaskResult<>(e);
+                } catch (UnsupportedEncodingException e) {
+                    return new TaskResult<>(e);
+                } catch (SocketTimeoutException ex) {
+                    return onTimedOut();
+                } catch (IOException e) {
+                    if (stalled) {
+                        return onTimedOut();
+                    } else if (!aborted && !cancelled) {
+                        HostSelector.getInstance().onFailure(host);
+                    }
+                    return new TaskResult<>(e);
+                } catch (Exception e) {
+                    return new TaskResult<>(e);
+                } finally {
+                    watch(0);
+                    if (conn != null) {
+                        if (reusable) {
+                            transport.release(conn, is);
+                        } else {
+                            transport.discard(conn);
+                        }
+                    }
+                }
+                return new TaskResult<>(new RuntimeException("ServerConnector exception"));
             }
-            return new AsyncTaskResult<>(new RuntimeException("ServerConnector exception"));
         }
 
-        @Override
-        @MainThread
-        protected void onPostExecute(AsyncTaskResult<JSONObject> asyncTaskResult) {
-            super.onPostExecute(asyncTaskResult);
+        @WorkerThread
+        private static String readBody(InputStream is) throws IOException {
+            StringBuilder builder = new StringBuilder();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is, "utf-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                builder.append(line);
+            }
+            return builder.toString();
+        }
 
-            timeoutCountDownTimer.cancel();
+        private void onResult(TaskResult<BidResponseParser.Result> taskResult) {
+            cancelDeadline();
 
-            if (asyncTaskResult.getError() != null) {
-                asyncTaskResult.getError().printStackTrace();
+            if (taskResult.getError() != null) {
+                taskResult.getError().printStackTrace();
 
                 //Default error
                 notifyDemandFailed(ResultCode.PREBID_SERVER_ERROR);
 
                 removeThisTask();
                 return;
-            } else if (asyncTaskResult.getResultCode() != null) {
-                notifyDemandFailed(asyncTaskResult.getResultCode());
+            } else if (taskResult.getResultCode() != null) {
+                if (taskResult.isRejected() && impRequests.size() > 1 && taskResult.getResultCode() != ResultCode.INVALID_ACCOUNT_ID) {
+                    // the whole request is rejected for a single imp, only the ad unit it belongs to must fail
+                    sendSeparately();
+                } else {
+                    notifyDemandFailed(taskResult.getResultCode());
+                }
 
                 removeThisTask();
                 return;
             }
 
-            JSONObject jsonObject = asyncTaskResult.getResult();
+            BidResponseParser.Result response = taskResult.getResult();
+            if (response != null) {
+                LogUtil.d("Getting response for auction " + getAuctionId() + ": " + response.toString());
+            }
 
-            HashMap<String, String> keywords = new HashMap<>();
+            int impCount = impRequests.size();
+            ArrayList<HashMap<String, String>> impKeywords = new ArrayList<>(impCount);
+            int[] impExp = new int[impCount];
             boolean containTopBid = false;
-            if (jsonObject != null) {
-                LogUtil.d("Getting response for auction " + getAuctionId() + ": " + jsonObject.toString());
-                try {
-                    JSONArray seatbid = jsonObject.getJSONArray("seatbid");
-                    if (seatbid != null) {
-                        for (int i = 0; i < seatbid.length(); i++) {
-                            JSONObject seat = seatbid.getJSONObject(i);
-                            JSONArray bids = seat.getJSONArray("bid");
-                            if (bids != null) {
-                                for (int j = 0; j < bids.length(); j++) {
-                                    JSONObject bid = bids.getJSONObject(j);
-                                    JSONObject hb_key_values = null;
-                                    try {
-                                        hb_key_values = bid.getJSONObject("ext").getJSONObject("prebid").getJSONObject("targeting");
-                                    } catch (JSONException e) {
-                                        // this can happen if lower bids exist on the same seat
-                                    }
-                                    if (hb_key_values != null) {
-                                        Iterator it = hb_key_values.keys();
-                                        boolean containBids = false;
-                                        while (it.hasNext()) {
-                                            String key = (String) it.next();
-                                            if (key.equals("hb_cache_id")) {
-                                                containTopBid = true;
-                                            }
-                                            if (key.startsWith("hb_cache_id")) {
-                                                containBids = true;
-                                            }
-                                        }
-                                        it = hb_key_values.keys();
-                                        if (containBids) {
-                                            while (it.hasNext()) {
-                                                String key = (String) it.next();
-                                                keywords.put(key, hb_key_values.getString(key));
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
+            for (int i = 0; i < impCount; i++) {
+                HashMap<String, String> keywords = new HashMap<>();
+                boolean impContainsTopBid = false;
+                impExp[i] = -1;
+                if (response != null) {
+                    if (impCount == 1) {
+                        keywords = response.getTargeting();
+                        impContainsTopBid = response.containsTopBid();
+                        impExp[i] = response.getExp();
+                    } else {
+                        keywords = response.getTargeting(getImpId(i));
+                        impContainsTopBid = response.containsTopBid(getImpId(i));
+                        impExp[i] = response.getExp(getImpId(i));
                     }
-                } catch (JSONException e) {
-                    LogUtil.e("Error processing JSON response.");
                 }
+                if (keywords.isEmpty() || !impContainsTopBid) {
+                    keywords = null;
+                } else {
+                    containTopBid = true;
+                }
+                impKeywords.add(keywords);
             }
 
-            if (!keywords.isEmpty() && containTopBid) {
-                notifyContainsTopBid(true);
-                notifyDemandReady(keywords);
-            } else {
-                notifyContainsTopBid(false);
-                notifyDemandFailed(ResultCode.NO_BIDS);
+            notifyContainsTopBid(containTopBid);
+            for (int i = 0; i < impCount; i++) {
+                HashMap<String, String> keywords = impKeywords.get(i);
+                if (keywords != null) {
+                    notifyDemandReady(impRequests.get(i), keywords, impExp[i]);
+                } else {
+                    notifyDemandFailed(impRequests.get(i), ResultCode.NO_BIDS);
+                }
             }
 
             removeThisTask();
         }
 
-        @Override
-        @MainThread
-        protected void onCancelled() {
-            super.onCancelled();
+        /**
+         * Sends an auction of its own for each imp that is still waiting for the result.
+         */
+        private void sendSeparately() {
+            LogUtil.d("Request for auction " + auctionId + " was rejected, sending its ad units separately");
+            for (ImpRequest impRequest : impRequests) {
+                if (!impRequest.isWaiting()) {
+                    continue;
+                }
+                ServerConnector connector = new ServerConnector(Collections.singletonList(impRequest));
+                PrebidServerAdapter adapter = impRequest.getPrebidServerAdapter();
+                if (adapter != null) {
+                    adapter.addServerConnector(connector);
+                }
+                for (ImpRequest follower : SingleFlight.getInstance().getFollowers(impRequest)) {
+                    if (handedOverTo.contains(follower)) {
+                        connector.handOver(follower);
+                    }
+                }
+                connector.execute();
+            }
+        }
 
+        private void onCancelled() {
             if (timeoutFired) {
+                onHostTimedOut();
                 notifyDemandFailed(ResultCode.TIMEOUT);
             } else {
-                timeoutCountDownTimer.cancel();
+                cancelDeadline();
+                for (ImpRequest impRequest : impRequests) {
+                    // fetches that joined after the auction was stopped
+                    for (ImpRequest follower : SingleFlight.getInstance().abandon(impRequest)) {
+                        follower.notifyListener(null, ResultCode.NO_BIDS);
+                    }
+                }
             }
             removeThisTask();
         }
 
         private void removeThisTask() {
-            @Nullable
-            PrebidServerAdapter prebidServerAdapter = this.prebidServerAdapter.get();
-            if (prebidServerAdapter == null) {
-                return;
+            for (ImpRequest impRequest : impRequests) {
+                @Nullable
+                PrebidServerAdapter prebidServerAdapter = impRequest.getPrebidServerAdapter();
+                if (prebidServerAdapter != null) {
+                    prebidServerAdapter.serverConnectors.remove(this);
+                }
+            }
+            for (ImpRequest follower : handedOverTo) {
+                @Nullable
+                PrebidServerAdapter prebidServerAdapter = follower.getPrebidServerAdapter();
+                if (prebidServerAdapter != null) {
+                    prebidServerAdapter.serverConnectors.remove(this);
+                }
             }
-
-            prebidServerAdapter.serverConnectors.remove(this);
         }
 
+        /**
+         * @return auction id of the first imp, identifies the request in logs
+         */
         String getAuctionId() {
             return auctionId;
         }
 
-        void destroy() {
-            this.cancel(true);
-            this.listener = null;
+        boolean hasAuctionId(String auctionId) {
+            for (ImpRequest impRequest : impRequests) {
+                if (impRequest.getAuctionId().equals(auctionId)) {
+                    return true;
+                }
+            }
+            for (ImpRequest follower : handedOverTo) {
+                if (follower.getAuctionId().equals(auctionId)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        @MainThread
-        void notifyDemandReady(HashMap<String, String> keywords) {
-            if (this.listener == null) {
+        /**
+         * Stops reporting to the fetch with the given auction id, the request itself is cancelled once no imp
+         * and no fetch that joined one is waiting for it anymore.
+         */
+        void destroy(String auctionId) {
+            for (ImpRequest follower : handedOverTo) {
+                if (follower.getAuctionId().equals(auctionId)) {
+                    handedOverTo.remove(follower);
+                }
+            }
+            boolean waiting = false;
+            for (ImpRequest impRequest : impRequests) {
+                if (impRequest.getAuctionId().equals(auctionId)) {
+                    impRequest.listener = null;
+                    for (ImpRequest follower : SingleFlight.getInstance().getFollowers(impRequest)) {
+                        handOver(follower);
+                        waiting = true;
+                    }
+                } else if (impRequest.isWaiting()) {
+                    waiting = true;
+                }
+            }
+            if (!waiting) {
+                abort();
+            }
+        }
+
+        // registers the connector with the adapter of the fetch, so that stopping it also stops the auction
+        private void handOver(ImpRequest follower) {
+            if (handedOverTo.contains(follower)) {
                 return;
             }
+            handedOverTo.add(follower);
+            @Nullable
+            PrebidServerAdapter prebidServerAdapter = follower.getPrebidServerAdapter();
+            if (prebidServerAdapter != null) {
+                prebidServerAdapter.addServerConnector(this);
+                if (finished.get()) {
+                    // the result may have been handed out already, removeThisTask won't see the adapter then
+                    prebidServerAdapter.serverConnectors.remove(this);
+                }
+            }
+        }
 
-            listener.onDemandReady(keywords, getAuctionId());
+        /**
+         * Cancels the auction and closes its connections, so that neither the response nor its parsing keep the
+         * worker busy.
+         */
+        void abort() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (worker != null) {
+                    // wakes up a hedged auction waiting for its requests
+                    worker.interrupt();
+                }
+            }
+            if (!exchanges.isEmpty()) {
+                final ArrayList<Exchange> toAbort = new ArrayList<>(exchanges);
+                // closing a TLS socket may write to it, which is not allowed on the main thread
+                AuctionExecutors.getNetworkExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Exchange exchange : toAbort) {
+                            exchange.abort();
+                        }
+                    }
+                });
+            }
+            if (finished.compareAndSet(false, true)) {
+                postResult(null);
+            }
+        }
+
+        /**
+         * Imp ids are only numbered when several ad units share the request.
+         */
+        private String getImpId(int index) {
+            return impRequests.size() == 1 ? IMP_ID : IMP_ID + "-" + (index + 1);
         }
 
-        @MainThread
         void notifyDemandFailed(ResultCode code) {
-            if (this.listener == null) {
-                return;
+            for (ImpRequest impRequest : impRequests) {
+                notifyDemandFailed(impRequest, code);
+            }
+        }
+
+        private void notifyDemandReady(ImpRequest impRequest, HashMap<String, String> keywords, int expSeconds) {
+            if (impRequest.cacheKey != null) {
+                BidCache.getInstance().put(impRequest.cacheKey, keywords, expSeconds);
             }
 
-            listener.onDemandFailed(code, getAuctionId());
+            impRequest.notifyListener(keywords, null);
+            for (ImpRequest follower : SingleFlight.getInstance().complete(impRequest, keywords, null)) {
+                follower.notifyListener(new HashMap<>(keywords), null);
+            }
+        }
+
+        private void notifyDemandFailed(ImpRequest impRequest, ResultCode code) {
+            if (impRequest.cacheKey != null) {
+                BidCache.getInstance().onPrefetchFailed(impRequest.cacheKey);
+            }
+
+            impRequest.notifyListener(null, code);
+            for (ImpRequest follower : SingleFlight.getInstance().complete(impRequest, null, code)) {
+                follower.notifyListener(null, code);
+            }
         }
 
         private void notifyContainsTopBid(boolean contains) {
@@ -384,10 +1032,6 @@ class PrebidServerAdapter implements DemandAdapter {
             }
         }
 
-        private String getHost() {
-            return PrebidMobile.getPrebidServerHost().getHostUrl();
-        }
-
         /**
          * Synchronize the uuid2 cookie to the Webview Cookie Jar
          * This is only done if there is no present cookie.
@@ -458,569 +1102,543 @@ class PrebidServerAdapter implements DemandAdapter {
         }
 
 
+        /**
+         * Builds the request the same way {@link #writePostData(Writer)} sends it.
+         * Only used by tests, the auction streams the request with
+         * {@link #writeRequest(HttpURLConnection, StringBuilder)}.
+         */
+        @VisibleForTesting
         private JSONObject getPostData() throws NoContextException {
+            StringWriter out = new StringWriter();
+            JSONObject postData = new JSONObject();
+            try {
+                prepareRequest();
+                writePostData(out);
+                postData = new JSONObject(out.toString());
+            } catch (IOException e) {
+                LogUtil.e("PrebidServerAdapter getPostData() " + e.getMessage());
+            } catch (JSONException e) {
+                LogUtil.e("PrebidServerAdapter getPostData() " + e.getMessage());
+            }
+            return postData;
+        }
+
+        /**
+         * Updates the advertising id and the app metadata the request is written with, once per auction.
+         */
+        @WorkerThread
+        private void prepareRequest() {
             Context context = PrebidMobile.getApplicationContext();
             if (context != null) {
                 AdvertisingIDUtil.retrieveAndSetAAID(context);
                 PrebidServerSettings.update(context);
             }
-            JSONObject postData = new JSONObject();
-            try {
-                String id = UUID.randomUUID().toString();
-                postData.put("id", id);
-                JSONObject source = new JSONObject();
-                source.put("tid", id);
-                postData.put("source", source);
-                // add ad units
-                JSONArray imp = getImp();
-                if (imp != null && imp.length() > 0) {
-                    postData.put("imp", imp);
-                }
-                // add device
-                JSONObject device = getDeviceObject();
-                if (device != null && device.length() > 0) {
-                    postData.put(PrebidServerSettings.REQUEST_DEVICE, device);
-                }
-                // add app
-                JSONObject app = getAppObject();
-                if (device != null && device.length() > 0) {
-                    postData.put(PrebidServerSettings.REQUEST_APP, app);
-                }
-                // add user
-                JSONObject user = getUserObject();
-                if (user != null && user.length() > 0) {
-                    postData.put(PrebidServerSettings.REQUEST_USER, user);
-                }
-                // add regs
-                JSONObject regs = getRegsObject();
-                if (regs != null && regs.length() > 0) {
-                    postData.put("regs", regs);
-                }
-                // add targeting keywords request
-                JSONObject ext = getRequestExtData();
-                if (ext != null && ext.length() > 0) {
-                    postData.put("ext", ext);
-                }
-
-                JSONObject objectWithoutEmptyValues = Util.getObjectWithoutEmptyValues(postData);
-
-                if (objectWithoutEmptyValues != null) {
-                    postData = objectWithoutEmptyValues;
-
-                    JSONObject prebid = postData.getJSONObject("ext").getJSONObject("prebid");
-
-                    JSONObject cache = new JSONObject();
-                    JSONObject bids = new JSONObject();
-                    cache.put("bids", bids);
-
-                    if (adType.equals(AdType.VIDEO) || adType.equals(AdType.VIDEO_INTERSTITIAL)) {
-                        cache.put("vastxml", bids);
-                    }
+        }
 
-                    prebid.put("cache", cache);
+        /**
+         * Writes the OpenRTB request in a single pass, leaving out empty values on the way.
+         */
+        @WorkerThread
+        private void writePostData(Writer out) throws IOException, NoContextException {
+            RequestSnapshot snapshot = RequestSnapshot.get();
+            PrunedJsonWriter writer = new PrunedJsonWriter(out);
+            writer.beginObject();
+
+            writer.name("id").value(requestId);
+            writer.name("source").beginObject()
+                    .name("tid").value(requestId)
+                    .endObject();
+            // the server doesn't need to wait for bidders longer than the SDK waits for the server
+            writer.name("tmax").value(getRemainingMillis());
+            // add ad units
+            writer.name("imp").beginArray();
+            for (int i = 0; i < impRequests.size(); i++) {
+                writeImp(writer, impRequests.get(i).requestParams, getImpId(i));
+            }
+            writer.endArray();
+            // add device
+            writer.name(PrebidServerSettings.REQUEST_DEVICE);
+            writeDeviceObject(writer, snapshot);
+            // add app
+            writer.name(PrebidServerSettings.REQUEST_APP);
+            writeAppObject(writer, snapshot);
+            // add user
+            writer.name(PrebidServerSettings.REQUEST_USER);
+            writeUserObject(writer, snapshot);
+            // add regs
+            writer.name("regs");
+            writeRegsObject(writer);
+            // add targeting keywords request
+            writer.name("ext");
+            writeRequestExtData(writer, snapshot);
+
+            writer.endObject();
+            writer.flush();
+        }
 
-                    JSONObject targetingEmpty = new JSONObject();
-                    prebid.put("targeting", targetingEmpty);
+        private void writeRequestExtData(PrunedJsonWriter writer, RequestSnapshot snapshot) throws IOException {
+            writer.beginObject();
+            writer.name("prebid").beginObject();
+
+            writer.name("storedrequest").beginObject()
+                    .name("id").value(PrebidMobile.getPrebidServerAccountId())
+                    .endObject();
+            writer.name("data").beginObject()
+                    .name("bidders").values(snapshot.accessControlList)
+                    .endObject();
+
+            writer.name("cache").beginObject();
+            writer.name("bids").emptyObject();
+            for (ImpRequest impRequest : impRequests) {
+                AdType adType = impRequest.requestParams.getAdType();
+                if (adType.equals(AdType.VIDEO) || adType.equals(AdType.VIDEO_INTERSTITIAL)) {
+                    writer.name("vastxml").emptyObject();
+                    break;
                 }
-
-            } catch (JSONException e) {
             }
+            writer.endObject();
 
-            return postData;
-        }
+            writer.name("targeting").emptyObject();
 
-        private JSONObject getRequestExtData() {
-            JSONObject ext = new JSONObject();
-            JSONObject prebid = new JSONObject();
-            try {
-                JSONObject storedRequest = new JSONObject();
-                storedRequest.put("id", PrebidMobile.getPrebidServerAccountId());
-                prebid.put("storedrequest", storedRequest);
-
-                JSONObject data = new JSONObject().put("bidders", new JSONArray(TargetingParams.getAccessControlList()));
-                prebid.put("data", data);
-                ext.put("prebid", prebid);
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
-            return ext;
+            writer.endObject();
+            writer.endObject();
         }
 
-        private JSONArray getImp() throws NoContextException {
-            JSONArray impConfigs = new JSONArray();
+        private void writeImp(PrunedJsonWriter writer, RequestParams requestParams, String impId) throws IOException, NoContextException {
             // takes information from the ad units
             // look up the configuration of the ad unit
-            try {
-                JSONObject imp = new JSONObject();
-                JSONObject ext = new JSONObject();
-                imp.put("id", "PrebidMobile");
-                imp.put("secure", 1);
-                if (adType.equals(AdType.INTERSTITIAL) || adType.equals(AdType.VIDEO_INTERSTITIAL)) {
-                    imp.put("instl", 1);
-                }
+            AdType adType = requestParams.getAdType();
+            writer.beginObject();
 
-                if (adType.equals(AdType.INTERSTITIAL)) {
-                    imp.put("instl", 1);
-                    JSONObject banner = new JSONObject();
-                    JSONArray format = new JSONArray();
-                    Context context = PrebidMobile.getApplicationContext();
-                    if (context != null) {
-                        format.put(new JSONObject().put("w", context.getResources().getConfiguration().screenWidthDp).put("h", context.getResources().getConfiguration().screenHeightDp));
-                    } else {
-                        // Unlikely this is being called, if so, please check if you've set up the SDK properly
-                        throw new NoContextException();
-                    }
-                    banner.put("format", format);
-                    imp.put("banner", banner);
-                } else if (adType.equals(AdType.BANNER)) {
-                    JSONObject banner = new JSONObject();
-                    JSONArray format = new JSONArray();
-                    for (AdSize size : requestParams.getAdSizes()) {
-                        format.put(new JSONObject().put("w", size.getWidth()).put("h", size.getHeight()));
-                    }
-                    banner.put("format", format);
-                    imp.put("banner", banner);
-                } else if (adType.equals(AdType.NATIVE)) {
-                    // add native request
-                    JSONObject nativeObj = new JSONObject();
-                    JSONObject request = new JSONObject();
-                    JSONArray assets = new JSONArray();
-                    NativeRequestParams params = requestParams.getNativeRequestParams();
-                    if (params.getContextType() != null) {
-                        request.put(NativeRequestParams.CONTEXT, params.getContextType().getID());
-                    }
-                    if (params.getContextsubtype() != null) {
-                        request.put(NativeRequestParams.CONTEXT_SUB_TYPE, params.getContextsubtype().getID());
-                    }
-                    if (params.getPlacementType() != null) {
-                        request.put(NativeRequestParams.PLACEMENT_TYPE, params.getPlacementType().getID());
-                    }
-                    request.put(NativeRequestParams.PLACEMENT_COUNT, params.getPlacementCount());
-                    request.put(NativeRequestParams.SEQ, params.getSeq());
-                    request.put(NativeRequestParams.A_URL_SUPPORT, params.isAUrlSupport() ? 1 : 0);
-                    request.put(NativeRequestParams.D_URL_SUPPORT, params.isDUrlSupport() ? 1 : 0);
-                    if (!params.getEventTrackers().isEmpty()) {
-                        JSONArray trackers = new JSONArray();
-                        for (NativeEventTracker tracker : params.getEventTrackers()) {
-                            JSONObject trackerObject = new JSONObject();
-                            trackerObject.put(NativeRequestParams.EVENT, tracker.getEvent().getID());
-                            JSONArray methodsArray = new JSONArray();
-                            for (NativeEventTracker.EVENT_TRACKING_METHOD method : tracker.getMethods()) {
-                                methodsArray.put(method.getID());
-                            }
-                            trackerObject.put(NativeRequestParams.METHODS, methodsArray);
-                            trackerObject.put(NativeRequestParams.EXT, tracker.getExtObject());
-                            trackers.put(trackerObject);
-                        }
-                        request.put(NativeRequestParams.EVENT_TRACKERS, trackers);
-                    }
-                    request.put(NativeRequestParams.PRIVACY, params.isPrivacy() ? 1 : 0);
-                    request.put(NativeRequestParams.EXT, params.getExt());
-                    if (!params.getAssets().isEmpty()) {
-                        for (NativeAsset asset : params.getAssets()) {
-                            JSONObject assetObj;
-                            switch (asset.getType()) {
-                                case TITLE:
-                                    NativeTitleAsset titleAsset = (NativeTitleAsset) asset;
-                                    assetObj = new JSONObject();
-                                    JSONObject title = new JSONObject();
-                                    title.put(NativeRequestParams.LENGTH, titleAsset.getLen());
-                                    if (titleAsset.getTitleExt() != null) {
-                                        title.put(NativeRequestParams.EXT, titleAsset.getTitleExt());
-                                    }
-                                    assetObj.put(NativeRequestParams.TITLE, title);
-                                    assetObj.put(NativeRequestParams.REQUIRED, titleAsset.isRequired() ? 1 : 0);
-                                    assetObj.put(NativeRequestParams.EXT, titleAsset.getAssetExt());
-                                    assets.put(assetObj);
-                                    break;
-                                case IMAGE:
-                                    NativeImageAsset imageAsset = (NativeImageAsset) asset;
-                                    assetObj = new JSONObject();
-                                    JSONObject image = new JSONObject();
-                                    image.put(NativeRequestParams.TYPE, imageAsset.getImageType().getID());
-                                    if (imageAsset.getImageExt() != null) {
-                                        image.put(NativeRequestParams.EXT, imageAsset.getImageExt());
-                                    }
-                                    if (imageAsset.getHMin() > 0 && imageAsset.getWMin() > 0) {
-                                        image.put(NativeRequestParams.WIDTH_MIN, imageAsset.getWMin());
-                                        image.put(NativeRequestParams.HEIGHT_MIN, imageAsset.getHMin());
-                                    }
-                                    if (imageAsset.getH() > 0 && imageAsset.getW() > 0) {
-                                        image.put(NativeRequestParams.WIDTH, imageAsset.getW());
-                                        image.put(NativeRequestParams.HEIGHT, imageAsset.getH());
-                                    }
-                                    if (!imageAsset.getMimes().isEmpty()) {
-                                        JSONArray imageMimesArray = new JSONArray();
-                                        for (String mime : imageAsset.getMimes()) {
-                                            imageMimesArray.put(mime);
-                                        }
-                                        image.put(NativeRequestParams.MIMES, imageMimesArray);
-                                    }
-                                    assetObj.put(NativeRequestParams.IMAGE, image);
-                                    assetObj.put(NativeRequestParams.REQUIRED, imageAsset.isRequired() ? 1 : 0);
-                                    assetObj.put(NativeRequestParams.EXT, imageAsset.getAssetExt());
-                                    assets.put(assetObj);
-                                    break;
-                                case DATA:
-                                    NativeDataAsset dataAsset = (NativeDataAsset) asset;
-                                    assetObj = new JSONObject();
-                                    JSONObject data = new JSONObject();
-                                    data.put(NativeRequestParams.TYPE, dataAsset.getDataType().getID());
-                                    if (dataAsset.getLen() > 0) {
-                                        data.put(NativeRequestParams.LENGTH, dataAsset.getLen());
-                                    }
-                                    if (dataAsset.getDataExt() != null) {
-                                        data.put(NativeRequestParams.EXT, dataAsset.getDataExt());
-                                    }
-                                    assetObj.put(NativeRequestParams.DATA, data);
-                                    assetObj.put(NativeRequestParams.REQUIRED, dataAsset.isRequired() ? 1 : 0);
-                                    assetObj.put(NativeRequestParams.EXT, dataAsset.getAssetExt());
-                                    assets.put(assetObj);
+            writer.name("id").value(impId);
+            writer.name("secure").value(1);
+            if (adType.equals(AdType.INTERSTITIAL) || adType.equals(AdType.VIDEO_INTERSTITIAL)) {
+                writer.name("instl").value(1);
+            }
 
-                                    break;
-                            }
-                        }
+            if (adType.equals(AdType.INTERSTITIAL)) {
+                Context context = PrebidMobile.getApplicationContext();
+                if (context == null) {
+                    // Unlikely this is being called, if so, please check if you've set up the SDK properly
+                    throw new NoContextException();
+                }
+                writer.name("banner").beginObject();
+                writer.name("format").beginArray();
+                writer.beginObject()
+                        .name("w").value(context.getResources().getConfiguration().screenWidthDp)
+                        .name("h").value(context.getResources().getConfiguration().screenHeightDp)
+                        .endObject();
+                writer.endArray();
+                writer.endObject();
+            } else if (adType.equals(AdType.BANNER)) {
+                writer.name("banner").beginObject();
+                writer.name("format").beginArray();
+                for (AdSize size : requestParams.getAdSizes()) {
+                    writer.beginObject()
+                            .name("w").value(size.getWidth())
+                            .name("h").value(size.getHeight())
+                            .endObject();
+                }
+                writer.endArray();
+                writer.endObject();
+            } else if (adType.equals(AdType.NATIVE)) {
+                // add native request
+                String request;
+                try {
+                    request = getNativeRequest(requestParams).toString();
+                } catch (JSONException e) {
+                    throw new IOException("Unable to build native request: " + e.getMessage());
+                }
+                writer.name(NativeRequestParams.NATIVE).beginObject()
+                        .name(NativeRequestParams.REQUEST).value(request)
+                        .name(NativeRequestParams.VERSION).value(NativeRequestParams.SUPPORTED_VERSION)
+                        .endObject();
+            } else if (adType.equals(AdType.VIDEO) || adType.equals(AdType.VIDEO_INTERSTITIAL)) {
+                Integer width = null;
+                Integer height = null;
+                Integer placement = null;
+
+                if (adType.equals(AdType.VIDEO)) {
+                    for (AdSize size : requestParams.getAdSizes()) {
+                        width = size.getWidth();
+                        height = size.getHeight();
                     }
-                    request.put(NativeRequestParams.ASSETS, assets);
-                    request.put(NativeRequestParams.VERSION, NativeRequestParams.SUPPORTED_VERSION);
-                    nativeObj.put(NativeRequestParams.REQUEST, request.toString());
-                    nativeObj.put(NativeRequestParams.VERSION, NativeRequestParams.SUPPORTED_VERSION);
-                    imp.put(NativeRequestParams.NATIVE, nativeObj);
-                } else if (adType.equals(AdType.VIDEO) || adType.equals(AdType.VIDEO_INTERSTITIAL)) {
-
-                    JSONObject video = new JSONObject();
-                    video.put("mimes", new JSONArray().put("video/mp4"));
-                    video.put("linearity", 1);
-                    video.put("playbackmethod", new JSONArray().put(2));
-
-                    Integer placement = null;
-
-                    if (adType.equals(AdType.VIDEO)) {
-                        for (AdSize size : requestParams.getAdSizes()) {
-                            video.put("w", size.getWidth());
-                            video.put("h", size.getHeight());
-                        }
 
-                        placement = requestParams.getVideoPlacement();
+                    placement = requestParams.getVideoPlacement();
 
-                    } else if (adType.equals(AdType.VIDEO_INTERSTITIAL)) {
-                        Context context = PrebidMobile.getApplicationContext();
-
-                        if (context != null) {
-                            video.put("w", context.getResources().getConfiguration().screenWidthDp);
-                            video.put("h", context.getResources().getConfiguration().screenHeightDp);
-                        }
+                } else if (adType.equals(AdType.VIDEO_INTERSTITIAL)) {
+                    Context context = PrebidMobile.getApplicationContext();
 
-                        placement = 5;
+                    if (context != null) {
+                        width = context.getResources().getConfiguration().screenWidthDp;
+                        height = context.getResources().getConfiguration().screenHeightDp;
                     }
 
-                    video.put("placement", placement);
-
-                    imp.put("video", video);
+                    placement = 5;
                 }
 
-                JSONObject prebid = new JSONObject();
-                ext.put("prebid", prebid);
-                JSONObject context = new JSONObject();
-                context.put("data", Util.toJson(requestParams.getContextDataDictionary()));
-                context.put("keywords", TextUtils.join(",", requestParams.getContextKeywordsSet()));
-                ext.put("context", context);
-                JSONObject storedrequest = new JSONObject();
-                prebid.put("storedrequest", storedrequest);
-                storedrequest.put("id", requestParams.getConfigId());
-
-                if (!TextUtils.isEmpty(PrebidMobile.getStoredAuctionResponse())) {
-                    JSONObject storedAuctionResponse = new JSONObject();
-                    prebid.put("storedauctionresponse", storedAuctionResponse);
-                    storedAuctionResponse.put("id", PrebidMobile.getStoredAuctionResponse());
-                }
+                writer.name("video").beginObject();
+                writer.name("mimes").beginArray().value("video/mp4").endArray();
+                writer.name("linearity").value(1);
+                writer.name("playbackmethod").beginArray().value(2).endArray();
+                writer.name("w").value(width);
+                writer.name("h").value(height);
+                writer.name("placement").value(placement);
+                writer.endObject();
+            }
 
-                if (!PrebidMobile.getStoredBidResponses().isEmpty()) {
-                    JSONArray bidResponseArray = new JSONArray();
-                    prebid.put("storedbidresponse", bidResponseArray);
-
-                    for (String bidder : PrebidMobile.getStoredBidResponses().keySet()) {
-                        String bidId = PrebidMobile.getStoredBidResponses().get(bidder);
-                        if (!TextUtils.isEmpty(bidder) && !TextUtils.isEmpty(bidId)) {
-                            JSONObject storedBid = new JSONObject();
-                            storedBid.put("bidder", bidder);
-                            storedBid.put("id", bidId);
-                            bidResponseArray.put(storedBid);
-                        }
-                    }
-                }
+            writer.name("ext").beginObject();
 
-                imp.put("ext", ext);
+            writer.name("prebid").beginObject();
+            writer.name("storedrequest").beginObject()
+                    .name("id").value(requestParams.getConfigId())
+                    .endObject();
 
-                impConfigs.put(imp);
-            } catch (JSONException e) {
+            if (!TextUtils.isEmpty(PrebidMobile.getStoredAuctionResponse())) {
+                writer.name("storedauctionresponse").beginObject()
+                        .name("id").value(PrebidMobile.getStoredAuctionResponse())
+                        .endObject();
             }
 
-            return impConfigs;
-        }
-
-        private JSONObject getDeviceObject() {
-            JSONObject device = new JSONObject();
-            try {
-                // Device make
-                if (!TextUtils.isEmpty(PrebidServerSettings.deviceMake))
-                    device.put(PrebidServerSettings.REQUEST_DEVICE_MAKE, PrebidServerSettings.deviceMake);
-                // Device model
-                if (!TextUtils.isEmpty(PrebidServerSettings.deviceModel))
-                    device.put(PrebidServerSettings.REQUEST_DEVICE_MODEL, PrebidServerSettings.deviceModel);
-                // Default User Agent
-                if (!TextUtils.isEmpty(PrebidServerSettings.userAgent)) {
-                    device.put(PrebidServerSettings.REQUEST_USERAGENT, PrebidServerSettings.userAgent);
-                }
-                // limited ad tracking
-                device.put(PrebidServerSettings.REQUEST_LMT, AdvertisingIDUtil.isLimitAdTracking() ? 1 : 0);
-                if (!AdvertisingIDUtil.isLimitAdTracking() && !TextUtils.isEmpty(AdvertisingIDUtil.getAAID())) {
-                    // put ifa
-                    device.put(PrebidServerSettings.REQUEST_IFA, AdvertisingIDUtil.getAAID());
-                }
-
-                // os
-                device.put(PrebidServerSettings.REQUEST_OS, PrebidServerSettings.os);
-                device.put(PrebidServerSettings.REQUEST_OS_VERSION, String.valueOf(Build.VERSION.SDK_INT));
-                // language
-                if (!TextUtils.isEmpty(Locale.getDefault().getLanguage())) {
-                    device.put(PrebidServerSettings.REQUEST_LANGUAGE, Locale.getDefault().getLanguage());
+            if (!PrebidMobile.getStoredBidResponses().isEmpty()) {
+                writer.name("storedbidresponse").beginArray();
+                for (Map.Entry<String, String> storedBidResponse : PrebidMobile.getStoredBidResponses().entrySet()) {
+                    String bidder = storedBidResponse.getKey();
+                    String bidId = storedBidResponse.getValue();
+                    if (!TextUtils.isEmpty(bidder) && !TextUtils.isEmpty(bidId)) {
+                        writer.beginObject()
+                                .name("bidder").value(bidder)
+                                .name("id").value(bidId)
+                                .endObject();
+                    }
                 }
+                writer.endArray();
+            }
+            writer.endObject();
 
-                if (adType.equals(AdType.INTERSTITIAL)) {
+            writer.name("context").beginObject();
+            writer.name("data").values(requestParams.getContextDataDictionary());
+            writer.name("keywords").value(TextUtils.join(",", requestParams.getContextKeywordsSet()));
+            writer.endObject();
 
-                    Integer minSizePercWidth = null;
-                    Integer minSizePercHeight = null;
+            writer.endObject();
 
-                    AdSize minSizePerc = requestParams.getMinSizePerc();
-                    if (minSizePerc != null) {
+            writer.endObject();
+        }
 
-                        minSizePercWidth = minSizePerc.getWidth();
-                        minSizePercHeight = minSizePerc.getHeight();
+        private JSONObject getNativeRequest(RequestParams requestParams) throws JSONException {
+            JSONObject request = new JSONObject();
+            JSONArray assets = new JSONArray();
+            NativeRequestParams params = requestParams.getNativeRequestParams();
+            if (params.getContextType() != null) {
+                request.put(NativeRequestParams.CONTEXT, params.getContextType().getID());
+            }
+            if (params.getContextsubtype() != null) {
+                request.put(NativeRequestParams.CONTEXT_SUB_TYPE, params.getContextsubtype().getID());
+            }
+            if (params.getPlacementType() != null) {
+                request.put(NativeRequestParams.PLACEMENT_TYPE, params.getPlacementType().getID());
+            }
+            request.put(NativeRequestParams.PLACEMENT_COUNT, params.getPlacementCount());
+            request.put(NativeRequestParams.SEQ, params.getSeq());
+            request.put(NativeRequestParams.A_URL_SUPPORT, params.isAUrlSupport() ? 1 : 0);
+            request.put(NativeRequestParams.D_URL_SUPPORT, params.isDUrlSupport() ? 1 : 0);
+            if (!params.getEventTrackers().isEmpty()) {
+                JSONArray trackers = new JSONArray();
+                for (NativeEventTracker tracker : params.getEventTrackers()) {
+                    JSONObject trackerObject = new JSONObject();
+                    trackerObject.put(NativeRequestParams.EVENT, tracker.getEvent().getID());
+                    JSONArray methodsArray = new JSONArray();
+                    for (NativeEventTracker.EVENT_TRACKING_METHOD method : tracker.getMethods()) {
+                        methodsArray.put(method.getID());
                     }
-
-                    JSONObject deviceExt = new JSONObject();
-                    JSONObject deviceExtPrebid = new JSONObject();
-                    JSONObject deviceExtPrebidInstl = new JSONObject();
-
-                    device.put("ext", deviceExt);
-                    deviceExt.put("prebid", deviceExtPrebid);
-                    deviceExtPrebid.put("interstitial", deviceExtPrebidInstl);
-                    deviceExtPrebidInstl.put("minwidthperc", minSizePercWidth);
-                    deviceExtPrebidInstl.put("minheightperc", minSizePercHeight);
-
-                    device.put("ext", deviceExt);
+                    trackerObject.put(NativeRequestParams.METHODS, methodsArray);
+                    trackerObject.put(NativeRequestParams.EXT, tracker.getExtObject());
+                    trackers.put(trackerObject);
                 }
-
-                // POST data that requires context
-                Context context = PrebidMobile.getApplicationContext();
-                if (context != null) {
-                    device.put(PrebidServerSettings.REQUEST_DEVICE_WIDTH, context.getResources().getConfiguration().screenWidthDp);
-                    device.put(PrebidServerSettings.REQUEST_DEVICE_HEIGHT, context.getResources().getConfiguration().screenHeightDp);
-
-                    device.put(PrebidServerSettings.REQUEST_DEVICE_PIXEL_RATIO, context.getResources().getDisplayMetrics().density);
-
-                    TelephonyManager telephonyManager = (TelephonyManager) context
-                            .getSystemService(Context.TELEPHONY_SERVICE);
-                    // Get mobile country codes
-                    if (PrebidServerSettings.getMCC() < 0 || PrebidServerSettings.getMNC() < 0) {
-                        String networkOperator = telephonyManager.getNetworkOperator();
-                        if (!TextUtils.isEmpty(networkOperator)) {
-                            try {
-                                PrebidServerSettings.setMCC(Integer.parseInt(networkOperator.substring(0, 3)));
-                                PrebidServerSettings.setMNC(Integer.parseInt(networkOperator.substring(3)));
-                            } catch (Exception e) {
-                                // Catches NumberFormatException and StringIndexOutOfBoundsException
-                                PrebidServerSettings.setMCC(-1);
-                                PrebidServerSettings.setMNC(-1);
+                request.put(NativeRequestParams.EVENT_TRACKERS, trackers);
+            }
+            request.put(NativeRequestParams.PRIVACY, params.isPrivacy() ? 1 : 0);
+            request.put(NativeRequestParams.EXT, params.getExt());
+            if (!params.getAssets().isEmpty()) {
+                for (NativeAsset asset : params.getAssets()) {
+                    JSONObject assetObj;
+                    switch (asset.getType()) {
+                        case TITLE:
+                            NativeTitleAsset titleAsset = (NativeTitleAsset) asset;
+                            assetObj = new JSONObject();
+                            JSONObject title = new JSONObject();
+                            title.put(NativeRequestParams.LENGTH, titleAsset.getLen());
+                            if (titleAsset.getTitleExt() != null) {
+                                title.put(NativeRequestParams.EXT, titleAsset.getTitleExt());
                             }
-                        }
-                    }
-                    if (PrebidServerSettings.getMCC() > 0 && PrebidServerSettings.getMNC() > 0) {
-                        device.put(PrebidServerSettings.REQUEST_MCC_MNC, String.format(Locale.ENGLISH, "%d-%d", PrebidServerSettings.getMCC(), PrebidServerSettings.getMNC()));
-                    }
-
-                    // Get carrier
-                    if (PrebidServerSettings.getCarrierName() == null) {
-                        try {
-                            PrebidServerSettings.setCarrierName(telephonyManager.getNetworkOperatorName());
-                        } catch (SecurityException ex) {
-                            // Some phones require READ_PHONE_STATE permission just ignore name
-                            PrebidServerSettings.setCarrierName("");
-                        }
-                    }
-                    if (!TextUtils.isEmpty(PrebidServerSettings.getCarrierName()))
-                        device.put(PrebidServerSettings.REQUEST_CARRIER, PrebidServerSettings.getCarrierName());
-
-                    // check connection type
-                    int connection_type = 0;
-                    ConnectivityManager cm = (ConnectivityManager) context
-                            .getSystemService(Context.CONNECTIVITY_SERVICE);
-                    NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
-                    if (activeNetwork != null && activeNetwork.isConnected()) {
-                        NetworkInfo wifi = cm.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
-                        if (wifi != null) {
-                            connection_type = wifi.isConnected() ? 1 : 2;
-                        }
-                    }
-                    device.put(PrebidServerSettings.REQUEST_CONNECTION_TYPE, connection_type);
-
-                    // get location
-                    // Do we have access to location?
-                    if (PrebidMobile.isShareGeoLocation()) {
-                        // get available location through Android LocationManager
-                        if (context.checkCallingOrSelfPermission("android.permission.ACCESS_FINE_LOCATION") == PackageManager.PERMISSION_GRANTED
-                                || context.checkCallingOrSelfPermission("android.permission.ACCESS_COARSE_LOCATION") == PackageManager.PERMISSION_GRANTED) {
-                            Location lastLocation = null;
-                            LocationManager lm = (LocationManager) context
-                                    .getSystemService(Context.LOCATION_SERVICE);
-
-                            for (String provider_name : lm.getProviders(true)) {
-                                Location l = lm.getLastKnownLocation(provider_name);
-                                if (l == null) {
-                                    continue;
-                                }
-
-                                if (lastLocation == null) {
-                                    lastLocation = l;
-                                } else {
-                                    if (l.getTime() > 0 && lastLocation.getTime() > 0) {
-                                        if (l.getTime() > lastLocation.getTime()) {
-                                            lastLocation = l;
-                                        }
-                                    }
+                            assetObj.put(NativeRequestParams.TITLE, title);
+                            assetObj.put(NativeRequestParams.REQUIRED, titleAsset.isRequired() ? 1 : 0);
+                            assetObj.put(NativeRequestParams.EXT, titleAsset.getAssetExt());
+                            assets.put(assetObj);
+                            break;
+                        case IMAGE:
+                            NativeImageAsset imageAsset = (NativeImageAsset) asset;
+                            assetObj = new JSONObject();
+                            JSONObject image = new JSONObject();
+                            image.put(NativeRequestParams.TYPE, imageAsset.getImageType().getID());
+                            if (imageAsset.getImageExt() != null) {
+                                image.put(NativeRequestParams.EXT, imageAsset.getImageExt());
+                            }
+                            if (imageAsset.getHMin() > 0 && imageAsset.getWMin() > 0) {
+                                image.put(NativeRequestParams.WIDTH_MIN, imageAsset.getWMin());
+                                image.put(NativeRequestParams.HEIGHT_MIN, imageAsset.getHMin());
+                            }
+                            if (imageAsset.getH() > 0 && imageAsset.getW() > 0) {
+                                image.put(NativeRequestParams.WIDTH, imageAsset.getW());
+                                image.put(NativeRequestParams.HEIGHT, imageAsset.getH());
+                            }
+                            if (!imageAsset.getMimes().isEmpty()) {
+                                JSONArray imageMimesArray = new JSONArray();
+                                for (String mime : imageAsset.getMimes()) {
+                                    imageMimesArray.put(mime);
                                 }
+                                image.put(NativeRequestParams.MIMES, imageMimesArray);
                             }
-                            JSONObject geo = new JSONObject();
-                            if (lastLocation != null) {
-                                Double lat = lastLocation.getLatitude();
-                                Double lon = lastLocation.getLongitude();
-                                geo.put(PrebidServerSettings.REQEUST_GEO_LAT, lat);
-                                geo.put(PrebidServerSettings.REQUEST_GEO_LON, lon);
-                                Integer locDataPrecision = Math.round(lastLocation.getAccuracy());
-                                //Don't report location data from the future
-                                Integer locDataAge = (int) Math.max(0, (System.currentTimeMillis() - lastLocation.getTime()));
-                                geo.put(PrebidServerSettings.REQUEST_GEO_AGE, locDataAge);
-                                geo.put(PrebidServerSettings.REQUEST_GEO_ACCURACY, locDataPrecision);
-                                device.put(PrebidServerSettings.REQUEST_GEO, geo);
+                            assetObj.put(NativeRequestParams.IMAGE, image);
+                            assetObj.put(NativeRequestParams.REQUIRED, imageAsset.isRequired() ? 1 : 0);
+                            assetObj.put(NativeRequestParams.EXT, imageAsset.getAssetExt());
+                            assets.put(assetObj);
+                            break;
+                        case DATA:
+                            NativeDataAsset dataAsset = (NativeDataAsset) asset;
+                            assetObj = new JSONObject();
+                            JSONObject data = new JSONObject();
+                            data.put(NativeRequestParams.TYPE, dataAsset.getDataType().getID());
+                            if (dataAsset.getLen() > 0) {
+                                data.put(NativeRequestParams.LENGTH, dataAsset.getLen());
                             }
-                        } else {
-                            LogUtil.w("Location permissions ACCESS_COARSE_LOCATION and/or ACCESS_FINE_LOCATION aren\\'t set in the host app. This may affect demand.");
-                        }
+                            if (dataAsset.getDataExt() != null) {
+                                data.put(NativeRequestParams.EXT, dataAsset.getDataExt());
+                            }
+                            assetObj.put(NativeRequestParams.DATA, data);
+                            assetObj.put(NativeRequestParams.REQUIRED, dataAsset.isRequired() ? 1 : 0);
+                            assetObj.put(NativeRequestParams.EXT, dataAsset.getAssetExt());
+                            assets.put(assetObj);
+
+                            break;
                     }
                 }
-            } catch (JSONException e) {
-                LogUtil.d("PrebidServerAdapter getDeviceObject() " + e.getMessage());
             }
-            return device;
+            request.put(NativeRequestParams.ASSETS, assets);
+            request.put(NativeRequestParams.VERSION, NativeRequestParams.SUPPORTED_VERSION);
+            return request;
         }
 
-        private JSONObject getAppObject() {
-            JSONObject app = new JSONObject();
-            try {
-                if (!TextUtils.isEmpty(TargetingParams.getBundleName())) {
-                    app.put("bundle", TargetingParams.getBundleName());
-                }
-                if (!TextUtils.isEmpty(PrebidServerSettings.pkgVersion)) {
-                    app.put("ver", PrebidServerSettings.pkgVersion);
-                }
-                if (!TextUtils.isEmpty(PrebidServerSettings.appName)) {
-                    app.put("name", PrebidServerSettings.appName);
-                }
-                if (!TextUtils.isEmpty(TargetingParams.getDomain())) {
-                    app.put("domain", TargetingParams.getDomain());
-                }
-                if (!TextUtils.isEmpty(TargetingParams.getStoreUrl())) {
-                    app.put("storeurl", TargetingParams.getStoreUrl());
+        private void writeDeviceObject(PrunedJsonWriter writer, RequestSnapshot snapshot) throws IOException {
+            writer.beginObject();
+            // Device make
+            writer.name(PrebidServerSettings.REQUEST_DEVICE_MAKE).value(PrebidServerSettings.deviceMake);
+            // Device model
+            writer.name(PrebidServerSettings.REQUEST_DEVICE_MODEL).value(PrebidServerSettings.deviceModel);
+            // Default User Agent
+            writer.name(PrebidServerSettings.REQUEST_USERAGENT).value(PrebidServerSettings.userAgent);
+            // limited ad tracking
+            writer.name(PrebidServerSettings.REQUEST_LMT).value(AdvertisingIDUtil.isLimitAdTracking() ? 1 : 0);
+            if (!AdvertisingIDUtil.isLimitAdTracking()) {
+                // put ifa
+                writer.name(PrebidServerSettings.REQUEST_IFA).value(AdvertisingIDUtil.getAAID());
+            }
+
+            // os
+            writer.name(PrebidServerSettings.REQUEST_OS).value(PrebidServerSettings.os);
+            writer.name(PrebidServerSettings.REQUEST_OS_VERSION).value(String.valueOf(Build.VERSION.SDK_INT));
+            // language
+            writer.name(PrebidServerSettings.REQUEST_LANGUAGE).value(snapshot.language);
+
+            // interstitials are never batched, so there is at most one of them
+            RequestParams interstitialParams = null;
+            for (ImpRequest impRequest : impRequests) {
+                if (impRequest.requestParams.getAdType().equals(AdType.INTERSTITIAL)) {
+                    interstitialParams = impRequest.requestParams;
                 }
-                JSONObject publisher = new JSONObject();
-                publisher.put("id", PrebidMobile.getPrebidServerAccountId());
-                app.put("publisher", publisher);
-                JSONObject prebid = new JSONObject();
-                prebid.put("source", "prebid-mobile");
-                prebid.put("version", PrebidServerSettings.sdk_version);
-                JSONObject ext = new JSONObject();
-                ext.put("prebid", prebid);
-                ext.put("data", Util.toJson(TargetingParams.getContextDataDictionary()));
-                app.put("ext", ext);
-                app.put("keywords", TextUtils.join(",", TargetingParams.getContextKeywordsSet()));
-            } catch (JSONException e) {
-                LogUtil.d("PrebidServerAdapter getAppObject() " + e.getMessage());
             }
-            return app;
+            if (interstitialParams != null) {
 
-        }
+                Integer minSizePercWidth = null;
+                Integer minSizePercHeight = null;
 
-        private JSONObject getUserObject() {
-            JSONObject user = new JSONObject();
-            try {
-                if (TargetingParams.getYearOfBirth() > 0) {
-                    user.put("yob", TargetingParams.getYearOfBirth());
-                }
-                TargetingParams.GENDER gender = TargetingParams.getGender();
-                String g = "O";
-                switch (gender) {
-                    case FEMALE:
-                        g = "F";
-                        break;
-                    case MALE:
-                        g = "M";
-                        break;
-                    case UNKNOWN:
-                        g = "O";
-                        break;
+                AdSize minSizePerc = interstitialParams.getMinSizePerc();
+                if (minSizePerc != null) {
+
+                    minSizePercWidth = minSizePerc.getWidth();
+                    minSizePercHeight = minSizePerc.getHeight();
                 }
-                user.put("gender", g);
 
-                String globalUserKeywordString = TextUtils.join(",", TargetingParams.getUserKeywordsSet());
-                user.put("keywords", globalUserKeywordString);
+                writer.name("ext").beginObject();
+                writer.name("prebid").beginObject();
+                writer.name("interstitial").beginObject()
+                        .name("minwidthperc").value(minSizePercWidth)
+                        .name("minheightperc").value(minSizePercHeight)
+                        .endObject();
+                writer.endObject();
+                writer.endObject();
+            }
+
+            // POST data that requires context
+            if (snapshot.hasContext) {
+                writer.name(PrebidServerSettings.REQUEST_DEVICE_WIDTH).value(snapshot.screenWidthDp);
+                writer.name(PrebidServerSettings.REQUEST_DEVICE_HEIGHT).value(snapshot.screenHeightDp);
 
-                JSONObject ext = new JSONObject();
-                ext.put("consent", TargetingParams.getGDPRConsentString());
-                ext.put("data", Util.toJson(TargetingParams.getUserDataDictionary()));
-                user.put("ext", ext);
+                writer.name(PrebidServerSettings.REQUEST_DEVICE_PIXEL_RATIO).value(snapshot.pixelRatio);
 
-            } catch (JSONException e) {
-                LogUtil.d("PrebidServerAdapter getUserObject() " + e.getMessage());
+                writer.name(PrebidServerSettings.REQUEST_MCC_MNC).value(snapshot.mccMnc);
+                writer.name(PrebidServerSettings.REQUEST_CARRIER).value(snapshot.carrier);
+                writer.name(PrebidServerSettings.REQUEST_CONNECTION_TYPE).value(snapshot.connectionType);
             }
-            return user;
+            if (PrebidMobile.isShareGeoLocation()) {
+                LocationProvider.Geo geo = LocationProvider.getInstance().getGeo();
+                if (geo != null) {
+                    writer.name(PrebidServerSettings.REQUEST_GEO).beginObject()
+                            .name(PrebidServerSettings.REQEUST_GEO_LAT).value(geo.latitude)
+                            .name(PrebidServerSettings.REQUEST_GEO_LON).value(geo.longitude)
+                            .name(PrebidServerSettings.REQUEST_GEO_AGE).value(geo.getAgeMillis())
+                            .name(PrebidServerSettings.REQUEST_GEO_ACCURACY).value(geo.accuracy)
+                            .endObject();
+                }
+            }
+            writer.endObject();
         }
 
-        private JSONObject getRegsObject() {
-            JSONObject regs = new JSONObject();
-            try {
-                JSONObject ext = new JSONObject();
-                Boolean isSubjectToGDPR = TargetingParams.isSubjectToGDPR();
+        private void writeAppObject(PrunedJsonWriter writer, RequestSnapshot snapshot) throws IOException {
+            writer.beginObject();
+            writer.name("bundle").value(snapshot.bundle);
+            writer.name("ver").value(snapshot.appVersion);
+            writer.name("name").value(snapshot.appName);
+            writer.name("domain").value(snapshot.domain);
+            writer.name("storeurl").value(snapshot.storeUrl);
+            writer.name("publisher").beginObject()
+                    .name("id").value(PrebidMobile.getPrebidServerAccountId())
+                    .endObject();
+            writer.name("ext").beginObject();
+            writer.name("prebid").beginObject()
+                    .name("source").value("prebid-mobile")
+                    .name("version").value(PrebidServerSettings.sdk_version)
+                    .endObject();
+            writer.name("data").values(snapshot.contextData);
+            writer.endObject();
+            writer.name("keywords").value(snapshot.contextKeywords);
+            writer.endObject();
+        }
 
-                if (TargetingParams.isSubjectToCOPPA()) {
-                    regs.put("coppa", 1);
-                }
+        private void writeUserObject(PrunedJsonWriter writer, RequestSnapshot snapshot) throws IOException {
+            writer.beginObject();
+            if (snapshot.yob > 0) {
+                writer.name("yob").value(snapshot.yob);
+            }
+            writer.name("gender").value(snapshot.gender);
+            writer.name("keywords").value(snapshot.userKeywords);
 
-                if (isSubjectToGDPR != null && isSubjectToGDPR) {
-                    ext.put("gdpr", 1);
+            writer.name("ext").beginObject();
+            writer.name("consent").value(TargetingParams.getGDPRConsentString());
+            writer.name("data").values(snapshot.userData);
+            writer.endObject();
 
-                }
+            writer.endObject();
+        }
 
-                ext.put("us_privacy", StorageUtils.getIabCcpa());
+        private void writeRegsObject(PrunedJsonWriter writer) throws IOException {
+            writer.beginObject();
+            Boolean isSubjectToGDPR = TargetingParams.isSubjectToGDPR();
 
-                regs.put("ext", ext);
+            if (TargetingParams.isSubjectToCOPPA()) {
+                writer.name("coppa").value(1);
+            }
 
-            } catch (JSONException e) {
-                LogUtil.d("PrebidServerAdapter getRegsObject() " + e.getMessage());
+            writer.name("ext").beginObject();
+            if (isSubjectToGDPR != null && isSubjectToGDPR) {
+                writer.name("gdpr").value(1);
             }
-            return regs;
+
+            writer.name("us_privacy").value(StorageUtils.getIabCcpa());
+            writer.endObject();
+
+            writer.endObject();
         }
 
         private static class NoContextException extends Exception {
         }
 
-        private static class AsyncTaskResult<T> {
+        /**
+         * Streams the request body into the connection. The start of the body is held back until it is known
+         * whether the body reaches {@link PrebidMobile#getRequestCompressionThreshold()}: shorter bodies are sent as
+         * they are with their length, longer ones are gzipped on the way. Without a threshold, bodies of
+         * {@link #BUFFER_BYTES} or more are streamed in chunks.
+         */
+        private static final class RequestBodyStream extends OutputStream {
+            private static final int BUFFER_BYTES = 16 * 1024;
+
+            private final HttpURLConnection conn;
+            private final boolean compress;
+            // bytes held back at most
+            private final int limit;
+            @Nullable
+            private ByteArrayOutputStream pending;
+            @Nullable
+            private OutputStream out;
+
+            RequestBodyStream(HttpURLConnection conn) {
+                this.conn = conn;
+                int threshold = PrebidMobile.getRequestCompressionThreshold();
+                this.compress = threshold >= 0;
+                this.limit = compress ? threshold : BUFFER_BYTES;
+                this.pending = new ByteArrayOutputStream(Math.max(32, Math.min(limit, BUFFER_BYTES)));
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                if (out == null) {
+                    if (pending.size() + len < limit) {
+                        pending.write(b, off, len);
+                        return;
+                    }
+                    open();
+                }
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (out == null) {
+                    conn.setFixedLengthStreamingMode(pending.size());
+                    out = conn.getOutputStream();
+                    pending.writeTo(out);
+                    pending = null;
+                }
+                out.close();
+            }
+
+            private void open() throws IOException {
+                if (compress) {
+                    conn.setRequestProperty("Content-Encoding", "gzip");
+                }
+                conn.setChunkedStreamingMode(0);
+                OutputStream os = conn.getOutputStream();
+                out = compress ? new GZIPOutputStream(os) : os;
+                pending.writeTo(out);
+                pending = null;
+            }
+        }
+
+        private static class TaskResult<T> {
             @Nullable
             private T result;
             @Nullable
             private ResultCode resultCode;
             @Nullable
             private Exception error;
+            // refused with a 4xx status
+            private boolean rejected;
 
             @Nullable
             public T getResult() {
@@ -1037,51 +1655,21 @@ class PrebidServerAdapter implements DemandAdapter {
                 return error;
             }
 
-            private AsyncTaskResult(@NonNull T result) {
+            public boolean isRejected() {
+                return rejected;
+            }
+
+            private TaskResult(@NonNull T result) {
                 this.result = result;
             }
 
-            private AsyncTaskResult(@NonNull ResultCode resultCode) {
+            private TaskResult(@NonNull ResultCode resultCode) {
                 this.resultCode = resultCode;
             }
 
-            private AsyncTaskResult(@NonNull Exception error) {
+            private TaskResult(@NonNull Exception error) {
                 this.error = error;
             }
         }
-
-        class TimeoutCountDownTimer extends CountDownTimer {
-
-            /**
-             * @param millisInFuture    The number of millis in the future from the call
-             *                          to {@link #start()} until the countdown is done and {@link #onFinish()}
-             *                          is called.
-             * @param countDownInterval The interval along the way to receive
-             *                          {@link #onTick(long)} callbacks.
-             */
-            public TimeoutCountDownTimer(long millisInFuture, long countDownInterval) {
-                super(millisInFuture, countDownInterval);
-
-            }
-
-            @Override
-            public void onTick(long millisUntilFinished) {
-                if (ServerConnector.this.isCancelled()) {
-                    TimeoutCountDownTimer.this.cancel();
-                }
-            }
-
-            @Override
-            public void onFinish() {
-
-                if (ServerConnector.this.isCancelled()) {
-                    return;
-                }
-
-                timeoutFired = true;
-                ServerConnector.this.cancel(true);
-
-            }
-        }
     }
 }
@@ -21,11 +21,10 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
-import android.util.AndroidRuntimeException;
-import android.webkit.WebView;
+
+import java.util.concurrent.Future;
 
 class PrebidServerSettings {
     static final String AN_UUID = "uuid2";
@@ -63,50 +62,64 @@ class PrebidServerSettings {
     static final String deviceMake = Build.MANUFACTURER;
     static final String deviceModel = Build.MODEL;
     static final String os = "android";
-    static String userAgent = null;
+    static volatile String userAgent = null;
     static String sdk_version = "1.4";
-    static String pkgVersion = "";
-    static String appName = "";
+    static volatile String pkgVersion = "";
+    static volatile String appName = "";
     private static int mnc = -1;
     private static int mcc = -1;
     private static String carrierName = null;
 
 
-    static synchronized void update(final Context context) {
-        if (userAgent == null) {
-            // todo update this to latest method in API 0.5.1
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        WebView wv = new WebView(context);
-                        userAgent = wv.getSettings().getUserAgentString();
-                    } catch (AndroidRuntimeException e) {
-                        userAgent = "unavailable";
-                    }
-                }
-            });
+    static void update(final Context context) {
+        UserAgentProvider.load(context);
+        Future<?> restore = DeviceMetadataCache.load(context);
+        if (TextUtils.isEmpty(pkgVersion) || TextUtils.isEmpty(appName)) {
+            // only ask the package manager when nothing was stored by an earlier start
+            DeviceMetadataCache.awaitRestore(restore);
+            updateAppMetadata(context);
         }
+    }
+
+    private static synchronized void updateAppMetadata(final Context context) {
         if (TextUtils.isEmpty(pkgVersion)) {
-            try {
-                PackageInfo pInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
-                pkgVersion = pInfo.versionName;
-            } catch (PackageManager.NameNotFoundException e) {
-                e.printStackTrace();
+            String value = readPkgVersion(context);
+            if (!TextUtils.isEmpty(value)) {
+                pkgVersion = value;
+                RequestSnapshot.invalidate();
             }
         }
         if (TextUtils.isEmpty(appName)) {
-            ApplicationInfo applicationInfo = context.getApplicationInfo();
-            int stringId = applicationInfo.labelRes;
-            if (stringId == 0) {
-                if (applicationInfo.nonLocalizedLabel != null) {
-                    appName = applicationInfo.nonLocalizedLabel.toString();
-                }
-            } else {
-                appName = context.getString(stringId);
+            String value = readAppName(context);
+            if (!TextUtils.isEmpty(value)) {
+                appName = value;
+                RequestSnapshot.invalidate();
+            }
+        }
+    }
+
+    @Nullable
+    static String readPkgVersion(final Context context) {
+        try {
+            PackageInfo pInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return pInfo.versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Nullable
+    static String readAppName(final Context context) {
+        ApplicationInfo applicationInfo = context.getApplicationInfo();
+        int stringId = applicationInfo.labelRes;
+        if (stringId == 0) {
+            if (applicationInfo.nonLocalizedLabel != null) {
+                return applicationInfo.nonLocalizedLabel.toString();
             }
+            return null;
         }
+        return context.getString(stringId);
     }
 
 
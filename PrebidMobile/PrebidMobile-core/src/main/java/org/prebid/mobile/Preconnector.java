@@ -0,0 +1,121 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a connection to the Prebid Server host open ahead of the auctions once
+ * {@link PrebidMobile#preconnect()} was called, so the first auction doesn't pay for DNS, TCP and TLS.
+ * <p>
+ * The connection is opened again when the host changes and when the device connects to a network, a
+ * pooled socket doesn't survive a network switch.
+ */
+final class Preconnector implements ConnectivityMonitor.Listener {
+
+    private static Preconnector instance;
+
+    private final AtomicBoolean inFlight = new AtomicBoolean();
+
+    private volatile boolean enabled;
+
+    static synchronized Preconnector getInstance() {
+        if (instance == null) {
+            instance = new Preconnector();
+        }
+        return instance;
+    }
+
+    private Preconnector() {
+    }
+
+    void enable() {
+        enabled = true;
+        ConnectivityMonitor.getInstance().addListener(this);
+        preconnect();
+    }
+
+    /**
+     * Opens a connection to the current host if preconnecting is enabled.
+     */
+    void onHostChanged() {
+        if (enabled) {
+            preconnect();
+        }
+    }
+
+    @Override
+    public void onConnectivityChanged(@NonNull ConnectivityMonitor.State state) {
+        if (enabled && state.connected) {
+            preconnect();
+        }
+    }
+
+    /**
+     * Opens a connection to the current host once, whether preconnecting is enabled or not.
+     *
+     * @return the connection attempt, null if there is no valid host or one is already being made
+     */
+    @Nullable
+    Future<?> warmUp() {
+        return preconnect();
+    }
+
+    @Nullable
+    private Future<?> preconnect() {
+        final URL url = getHostUrl();
+        if (url == null || !inFlight.compareAndSet(false, true)) {
+            return null;
+        }
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (HttpTransport.getInstance().preconnect(url, PrebidMobile.getTimeoutMillis())) {
+                        LogUtil.d("Preconnected to " + url.getHost());
+                    }
+                } finally {
+                    inFlight.set(false);
+                }
+            }
+        }, null);
+        AuctionExecutors.getNetworkExecutor().execute(task);
+        return task;
+    }
+
+    @Nullable
+    private static URL getHostUrl() {
+        String hostUrl = PrebidMobile.getPrebidServerHost().getHostUrl();
+        if (TextUtils.isEmpty(hostUrl)) {
+            return null;
+        }
+        try {
+            return new URL(hostUrl);
+        } catch (MalformedURLException e) {
+            LogUtil.e("Invalid Prebid Server host " + hostUrl);
+            return null;
+        }
+    }
+}
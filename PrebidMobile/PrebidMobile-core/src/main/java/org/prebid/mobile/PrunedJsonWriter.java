@@ -0,0 +1,203 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.JsonWriter;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Streaming JSON writer that leaves out empty values while it writes.
+ * <p>
+ * Empty strings and null values are dropped, and objects and arrays are only opened in the output once
+ * something is written into them, so empty containers never reach the stream. This gives the same
+ * result as building the whole tree and pruning it afterwards, in one pass and without the tree.
+ * Use {@link #emptyObject()} where an empty object is required.
+ */
+final class PrunedJsonWriter implements Closeable, Flushable {
+
+    private final JsonWriter writer;
+
+    // names and types of the containers opened so far, the ones at index >= writtenDepth are not in the output yet
+    private final ArrayList<String> scopeNames = new ArrayList<>();
+    private final ArrayList<Boolean> scopeIsArray = new ArrayList<>();
+    private int writtenDepth;
+
+    @Nullable
+    private String pendingName;
+
+    PrunedJsonWriter(@NonNull Writer out) {
+        this.writer = new JsonWriter(out);
+    }
+
+    PrunedJsonWriter name(@NonNull String name) {
+        pendingName = name;
+        return this;
+    }
+
+    PrunedJsonWriter beginObject() {
+        return open(false);
+    }
+
+    PrunedJsonWriter endObject() throws IOException {
+        return close(false);
+    }
+
+    PrunedJsonWriter beginArray() {
+        return open(true);
+    }
+
+    PrunedJsonWriter endArray() throws IOException {
+        return close(true);
+    }
+
+    /**
+     * Writes an empty object even though it has no values.
+     */
+    PrunedJsonWriter emptyObject() throws IOException {
+        materialize();
+        writer.beginObject();
+        writer.endObject();
+        return this;
+    }
+
+    PrunedJsonWriter value(@Nullable String value) throws IOException {
+        if (value == null || value.length() == 0) {
+            pendingName = null;
+            return this;
+        }
+        materialize();
+        writer.value(value);
+        return this;
+    }
+
+    PrunedJsonWriter value(@Nullable Number value) throws IOException {
+        if (value == null) {
+            pendingName = null;
+            return this;
+        }
+        materialize();
+        writer.value(value);
+        return this;
+    }
+
+    PrunedJsonWriter value(long value) throws IOException {
+        materialize();
+        writer.value(value);
+        return this;
+    }
+
+    PrunedJsonWriter value(double value) throws IOException {
+        materialize();
+        writer.value(value);
+        return this;
+    }
+
+    PrunedJsonWriter value(boolean value) throws IOException {
+        materialize();
+        writer.value(value);
+        return this;
+    }
+
+    PrunedJsonWriter values(@Nullable Collection<String> values) throws IOException {
+        beginArray();
+        if (values != null) {
+            for (String value : values) {
+                value(value);
+            }
+        }
+        return endArray();
+    }
+
+    /**
+     * Writes a key to values map as an object of string arrays, e.g. {@code {"key":["value"]}}.
+     */
+    PrunedJsonWriter values(@Nullable Map<String, ? extends Collection<String>> map) throws IOException {
+        beginObject();
+        if (map != null) {
+            for (Map.Entry<String, ? extends Collection<String>> entry : map.entrySet()) {
+                name(entry.getKey()).values(entry.getValue());
+            }
+        }
+        return endObject();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private PrunedJsonWriter open(boolean isArray) {
+        scopeNames.add(pendingName);
+        scopeIsArray.add(isArray);
+        pendingName = null;
+        return this;
+    }
+
+    private PrunedJsonWriter close(boolean isArray) throws IOException {
+        int depth = scopeNames.size();
+        if (depth == 0 || scopeIsArray.get(depth - 1) != isArray) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        if (writtenDepth == depth) {
+            if (isArray) {
+                writer.endArray();
+            } else {
+                writer.endObject();
+            }
+            writtenDepth--;
+        }
+        scopeNames.remove(depth - 1);
+        scopeIsArray.remove(depth - 1);
+        pendingName = null;
+        return this;
+    }
+
+    // opens the containers that were postponed, then writes the pending name
+    private void materialize() throws IOException {
+        for (int i = writtenDepth; i < scopeNames.size(); i++) {
+            String name = scopeNames.get(i);
+            if (name != null) {
+                writer.name(name);
+            }
+            if (scopeIsArray.get(i)) {
+                writer.beginArray();
+            } else {
+                writer.beginObject();
+            }
+        }
+        writtenDepth = scopeNames.size();
+
+        if (pendingName != null) {
+            writer.name(pendingName);
+            pendingName = null;
+        }
+    }
+}
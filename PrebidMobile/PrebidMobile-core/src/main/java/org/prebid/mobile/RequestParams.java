@@ -19,16 +19,23 @@ package org.prebid.mobile;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * What an ad unit asks for, captured when demand is fetched.
+ * <p>
+ * The sizes, the ad unit targeting and the native request params are copied here, so that auctions can read
+ * them on any thread while the app keeps changing the ad unit.
+ */
 class RequestParams {
 
     private String configId = "";
     private AdType adType = AdType.BANNER;
-    private HashSet<AdSize> sizes = new HashSet<>();
+    @Nullable
+    private Set<AdSize> sizes;
     private NativeRequestParams nativeParams = null;
 
     @Nullable
@@ -45,20 +52,21 @@ class RequestParams {
     RequestParams(String configId, AdType adType, HashSet<AdSize> sizes) {
         this.configId = configId;
         this.adType = adType;
-        this.sizes = sizes; // for Interstitial this will be null, will use screen width & height in the request
+        // for Interstitial this will be null, will use screen width & height in the request
+        this.sizes = sizes != null ? Collections.unmodifiableSet(new HashSet<>(sizes)) : null;
     }
 
     RequestParams(String configId, AdType adType, HashSet<AdSize> sizes, @Nullable Map<String, Set<String>> contextDataDictionary, @Nullable Set<String> contextKeywordsSet, @Nullable AdSize minSizePerc, @Nullable Integer videoPlacement) {
         this(configId, adType, sizes);
-        this.contextDataDictionary = contextDataDictionary;
-        this.contextKeywordsSet = contextKeywordsSet;
+        this.contextDataDictionary = contextDataDictionary != null ? Util.immutableCopy(contextDataDictionary) : null;
+        this.contextKeywordsSet = contextKeywordsSet != null ? Collections.unmodifiableSet(new HashSet<>(contextKeywordsSet)) : null;
         this.minSizePerc = minSizePerc;
         this.videoPlacement = videoPlacement;
     }
 
 
-    void setNativeRequestParams(NativeRequestParams params) {
-        this.nativeParams = params;
+    void setNativeRequestParams(@Nullable NativeRequestParams params) {
+        this.nativeParams = params != null ? params.copy() : null;
     }
 
     NativeRequestParams getNativeRequestParams() {
@@ -73,18 +81,19 @@ class RequestParams {
         return this.adType;
     }
 
-    HashSet<AdSize> getAdSizes() {
+    @Nullable
+    Set<AdSize> getAdSizes() {
         return this.sizes;
     }
 
     @NonNull
     public Map<String, Set<String>> getContextDataDictionary() {
-        return contextDataDictionary != null ? contextDataDictionary : new HashMap<String, Set<String>>();
+        return contextDataDictionary != null ? contextDataDictionary : Collections.<String, Set<String>>emptyMap();
     }
 
     @NonNull
     public Set<String> getContextKeywordsSet() {
-        return contextKeywordsSet != null ? contextKeywordsSet : new HashSet<String>();
+        return contextKeywordsSet != null ? contextKeywordsSet : Collections.<String>emptySet();
     }
 
     @Nullable
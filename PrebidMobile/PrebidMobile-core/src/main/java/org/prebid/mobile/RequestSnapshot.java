@@ -0,0 +1,217 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable snapshot of the device, app and user values written into every request.
+ * <p>
+ * The snapshot is shared by all auctions and only rebuilt after one of its inputs changed: the
+ * {@link TargetingParams} setters, configuration changes such as the screen size or locale, and connectivity
+ * changes all call {@link #invalidate()}. Values that are cheap to read or change outside of the SDK's
+ * control, like the consent strings or the advertising id, are still read for every request.
+ */
+final class RequestSnapshot {
+
+    private static final AtomicInteger version = new AtomicInteger();
+    private static volatile RequestSnapshot current;
+    private static Context registeredContext;
+    private static final ConnectivityMonitor.Listener connectivityListener = new ConnectivityMonitor.Listener() {
+        @Override
+        public void onConnectivityChanged(@NonNull ConnectivityMonitor.State state) {
+            invalidate();
+        }
+    };
+
+    private final int snapshotVersion;
+
+    // device
+    final boolean hasContext;
+    final int screenWidthDp;
+    final int screenHeightDp;
+    final float pixelRatio;
+    final String language;
+    @Nullable
+    final String mccMnc;
+    @Nullable
+    final String carrier;
+    final int connectionType;
+
+    // app
+    final String bundle;
+    final String appVersion;
+    final String appName;
+    final String domain;
+    final String storeUrl;
+    final Map<String, Set<String>> contextData;
+    final String contextKeywords;
+    final Set<String> accessControlList;
+
+    // user
+    final int yob;
+    final String gender;
+    final String userKeywords;
+    final Map<String, Set<String>> userData;
+
+    /**
+     * @return the current snapshot, rebuilt first if it is out of date
+     */
+    @NonNull
+    static RequestSnapshot get() {
+        // read the version first, a change while building leaves the new snapshot out of date
+        int currentVersion = version.get();
+        RequestSnapshot snapshot = current;
+        if (snapshot == null || snapshot.snapshotVersion != currentVersion) {
+            snapshot = new RequestSnapshot(currentVersion, PrebidMobile.getApplicationContext());
+            current = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return number that changes whenever anything in the snapshot may have
+     */
+    static int getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Marks the snapshot out of date, the next request builds a new one.
+     */
+    static void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Listens to the configuration and connectivity changes of the application the context belongs to.
+     */
+    static synchronized void register(@NonNull Context context) {
+        invalidate();
+        Context applicationContext = context.getApplicationContext();
+        if (applicationContext == null || applicationContext == registeredContext) {
+            return;
+        }
+        registeredContext = applicationContext;
+        applicationContext.registerComponentCallbacks(new ComponentCallbacks() {
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                invalidate();
+            }
+
+            @Override
+            public void onLowMemory() {
+            }
+        });
+        ConnectivityMonitor.getInstance().addListener(connectivityListener);
+    }
+
+    private RequestSnapshot(int snapshotVersion, @Nullable Context context) {
+        this.snapshotVersion = snapshotVersion;
+
+        hasContext = context != null;
+        language = Locale.getDefault().getLanguage();
+        if (context != null) {
+            Configuration configuration = context.getResources().getConfiguration();
+            screenWidthDp = configuration.screenWidthDp;
+            screenHeightDp = configuration.screenHeightDp;
+            pixelRatio = context.getResources().getDisplayMetrics().density;
+            TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+            mccMnc = getMccMnc(telephonyManager);
+            carrier = getCarrier(telephonyManager);
+            connectionType = ConnectivityMonitor.getInstance().getState().connectionType;
+        } else {
+            screenWidthDp = 0;
+            screenHeightDp = 0;
+            pixelRatio = 0;
+            mccMnc = null;
+            carrier = null;
+            connectionType = 0;
+        }
+
+        bundle = TargetingParams.getBundleName();
+        appVersion = PrebidServerSettings.pkgVersion;
+        appName = PrebidServerSettings.appName;
+        domain = TargetingParams.getDomain();
+        storeUrl = TargetingParams.getStoreUrl();
+        // the TargetingParams collections are copy-on-write, they don't change once read
+        contextData = TargetingParams.getContextDataDictionary();
+        contextKeywords = TextUtils.join(",", TargetingParams.getContextKeywordsSet());
+        accessControlList = TargetingParams.getAccessControlList();
+
+        yob = TargetingParams.getYearOfBirth();
+        gender = getGender(TargetingParams.getGender());
+        userKeywords = TextUtils.join(",", TargetingParams.getUserKeywordsSet());
+        userData = TargetingParams.getUserDataDictionary();
+    }
+
+    @Nullable
+    private static String getMccMnc(TelephonyManager telephonyManager) {
+        // Get mobile country codes
+        if (PrebidServerSettings.getMCC() < 0 || PrebidServerSettings.getMNC() < 0) {
+            String networkOperator = telephonyManager.getNetworkOperator();
+            if (!TextUtils.isEmpty(networkOperator)) {
+                try {
+                    PrebidServerSettings.setMCC(Integer.parseInt(networkOperator.substring(0, 3)));
+                    PrebidServerSettings.setMNC(Integer.parseInt(networkOperator.substring(3)));
+                } catch (Exception e) {
+                    // Catches NumberFormatException and StringIndexOutOfBoundsException
+                    PrebidServerSettings.setMCC(-1);
+                    PrebidServerSettings.setMNC(-1);
+                }
+            }
+        }
+        if (PrebidServerSettings.getMCC() > 0 && PrebidServerSettings.getMNC() > 0) {
+            return String.format(Locale.ENGLISH, "%d-%d", PrebidServerSettings.getMCC(), PrebidServerSettings.getMNC());
+        }
+        return null;
+    }
+
+    private static String getCarrier(TelephonyManager telephonyManager) {
+        if (PrebidServerSettings.getCarrierName() == null) {
+            try {
+                PrebidServerSettings.setCarrierName(telephonyManager.getNetworkOperatorName());
+            } catch (SecurityException ex) {
+                // Some phones require READ_PHONE_STATE permission just ignore name
+                PrebidServerSettings.setCarrierName("");
+            }
+        }
+        return PrebidServerSettings.getCarrierName();
+    }
+
+    private static String getGender(TargetingParams.GENDER gender) {
+        switch (gender) {
+            case FEMALE:
+                return "F";
+            case MALE:
+                return "M";
+            default:
+                return "O";
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Loads everything the requests are built from ahead of the first auction, see
+ * {@link PrebidMobile#initialize(Context, OnInitializationCompleteListener)}.
+ * <p>
+ * The advertising id, the user agent and the connection to the host are started in parallel on the background
+ * executors, the app metadata and carrier are restored from {@link DeviceMetadataCache} or read, and the consent is
+ * read meanwhile. The listener is called once all of them are done, or after {@link #TIMEOUT_MILLIS} at the latest,
+ * a missing Play Services connection must not hold it back. Waiting for them takes a thread of its own, a thread of
+ * the background executor would keep the steps queued behind it from running.
+ */
+final class SdkInitializer {
+
+    static final int TIMEOUT_MILLIS = 5_000;
+
+    private static final String THREAD_NAME = "PrebidInit";
+
+    private SdkInitializer() {
+    }
+
+    static void initialize(@NonNull final Context context, @Nullable final OnInitializationCompleteListener listener) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                load(context);
+                if (listener != null) {
+                    AuctionExecutors.getCallbackExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onInitializationComplete();
+                        }
+                    });
+                }
+            }
+        }, THREAD_NAME).start();
+    }
+
+    @WorkerThread
+    private static void load(@NonNull Context context) {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+
+        List<Future<?>> pending = new ArrayList<>();
+        pending.add(DeviceMetadataCache.load(context));
+        pending.add(AdvertisingIDUtil.retrieveAndSetAAID(context));
+        pending.add(UserAgentProvider.load(context));
+        Future<?> connection = Preconnector.getInstance().warmUp();
+        if (connection != null) {
+            pending.add(connection);
+        }
+
+        // app name and version, then carrier and MCC/MNC with the rest of the request snapshot, unless stored earlier
+        PrebidServerSettings.update(context);
+        RequestSnapshot.get();
+        // reading the consent loads the shared preferences, so the first request doesn't wait for the disk
+        TargetingParams.isSubjectToCOPPA();
+        TargetingParams.isSubjectToGDPR();
+        TargetingParams.getGDPRConsentString();
+        try {
+            StorageUtils.getIabCcpa();
+        } catch (PbContextNullException e) {
+            // the application context was released
+        }
+
+        for (Future<?> future : pending) {
+            try {
+                future.get(Math.max(0, deadline - SystemClock.elapsedRealtime()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                LogUtil.w("Initialization is taking long, continuing without waiting for it.");
+                return;
+            } catch (ExecutionException e) {
+                LogUtil.w("Initialization step failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        LogUtil.d("Prebid SDK initialized");
+    }
+}
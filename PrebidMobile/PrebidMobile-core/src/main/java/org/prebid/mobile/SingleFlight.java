@@ -0,0 +1,216 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs identical fetches that overlap as a single auction, if enabled with
+ * {@link PrebidMobile#setAuctionDeduplicationWindowMillis(int)}.
+ * <p>
+ * Fetches are identical if their ad unit parameters, the global targeting and the consent they are sent with are,
+ * see {@link BidCache#getKey(RequestParams)}. The first one runs the auction, the others join it and get its result under
+ * their own auction id. Results are shared for the configured window after the auction, only failures other
+ * than no bids are not. Flights whose window is over are dropped as soon as another fetch joins.
+ */
+final class SingleFlight {
+
+    private static SingleFlight instance;
+
+    private final HashMap<String, Flight> flights = new HashMap<>();
+    private final HashMap<PrebidServerAdapter.ImpRequest, String> leaders = new HashMap<>();
+
+    static synchronized SingleFlight getInstance() {
+        if (instance == null) {
+            instance = new SingleFlight();
+        }
+        return instance;
+    }
+
+    private SingleFlight() {
+    }
+
+    /**
+     * @return canonical key of the request the fetch would send, null if it can't be shared
+     */
+    @Nullable
+    static String getKey(@NonNull RequestParams params) {
+        if (params.getNativeRequestParams() != null) {
+            // the native assets are not compared
+            return null;
+        }
+        return BidCache.getKey(params);
+    }
+
+    /**
+     * Adds the fetch to an identical auction that is in flight or whose result is still shared.
+     *
+     * @return true if the fetch joined, false if it has to run its own auction, which others may join from now on
+     */
+    synchronized boolean join(@NonNull String key, @NonNull final PrebidServerAdapter.ImpRequest impRequest) {
+        evictExpired();
+        Flight flight = flights.get(key);
+        if (flight == null) {
+            flights.put(key, new Flight(impRequest));
+            leaders.put(impRequest, key);
+            return false;
+        }
+        if (flight.completedAt == 0) {
+            flight.followers.add(impRequest);
+            return true;
+        }
+
+        LogUtil.d("Sharing the result of a recent identical auction with auction " + impRequest.getAuctionId());
+        final HashMap<String, String> keywords = flight.keywords != null ? new HashMap<>(flight.keywords) : null;
+        final ResultCode resultCode = flight.resultCode;
+        AuctionExecutors.getMainThreadExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                impRequest.notifyListener(keywords, resultCode);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Records the result of an auction that others may have joined.
+     *
+     * @return the fetches that joined the auction and wait for its result
+     */
+    @NonNull
+    synchronized List<PrebidServerAdapter.ImpRequest> complete(@NonNull PrebidServerAdapter.ImpRequest leader,
+                                                               @Nullable HashMap<String, String> keywords,
+                                                               @Nullable ResultCode resultCode) {
+        String key = leaders.remove(leader);
+        Flight flight = key != null ? flights.get(key) : null;
+        if (flight == null || flight.leader != leader) {
+            return Collections.emptyList();
+        }
+        ArrayList<PrebidServerAdapter.ImpRequest> followers = new ArrayList<>(flight.followers);
+        flight.followers.clear();
+        if (PrebidMobile.getAuctionDeduplicationWindowMillis() > 0 && (keywords != null || resultCode == ResultCode.NO_BIDS)) {
+            // only the result is shared from now on, the fetch that ran the auction isn't kept
+            flight.leader = null;
+            flight.keywords = keywords;
+            flight.resultCode = resultCode;
+            flight.completedAt = SystemClock.elapsedRealtime();
+        } else {
+            flights.remove(key);
+        }
+        return followers;
+    }
+
+    /**
+     * Forgets an auction that was cancelled without a result.
+     *
+     * @return the fetches that joined the auction, they get no result from it
+     */
+    @NonNull
+    synchronized List<PrebidServerAdapter.ImpRequest> abandon(@NonNull PrebidServerAdapter.ImpRequest leader) {
+        String key = leaders.remove(leader);
+        Flight flight = key != null ? flights.get(key) : null;
+        if (flight == null || flight.leader != leader) {
+            return Collections.emptyList();
+        }
+        flights.remove(key);
+        return new ArrayList<>(flight.followers);
+    }
+
+    /**
+     * Stops sharing results with the fetch with the given auction id.
+     */
+    synchronized void leave(@NonNull String auctionId) {
+        for (Flight flight : flights.values()) {
+            Iterator<PrebidServerAdapter.ImpRequest> iterator = flight.followers.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getAuctionId().equals(auctionId)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    synchronized boolean hasFollowers(@NonNull PrebidServerAdapter.ImpRequest leader) {
+        return !getFollowers(leader).isEmpty();
+    }
+
+    /**
+     * @return the fetches that joined the auction and wait for its result
+     */
+    @NonNull
+    synchronized List<PrebidServerAdapter.ImpRequest> getFollowers(@NonNull PrebidServerAdapter.ImpRequest leader) {
+        String key = leaders.get(leader);
+        Flight flight = key != null ? flights.get(key) : null;
+        if (flight == null || flight.leader != leader) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(flight.followers);
+    }
+
+    // results of targeting that has changed since are never joined
+    private void evictExpired() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Flight> iterator = flights.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return flights.size();
+    }
+
+    @VisibleForTesting
+    synchronized void clear() {
+        flights.clear();
+        leaders.clear();
+    }
+
+    private static final class Flight {
+        // null once the result is shared
+        @Nullable
+        private PrebidServerAdapter.ImpRequest leader;
+        private final ArrayList<PrebidServerAdapter.ImpRequest> followers = new ArrayList<>();
+
+        // result shared after the auction
+        private long completedAt;
+        @Nullable
+        private HashMap<String, String> keywords;
+        @Nullable
+        private ResultCode resultCode;
+
+        private Flight(PrebidServerAdapter.ImpRequest leader) {
+            this.leader = leader;
+        }
+
+        boolean isExpired(long now) {
+            return completedAt > 0 && now - completedAt > PrebidMobile.getAuctionDeduplicationWindowMillis();
+        }
+    }
+}
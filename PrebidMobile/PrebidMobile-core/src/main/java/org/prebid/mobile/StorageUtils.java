@@ -38,6 +38,13 @@ final class StorageUtils {
     //CCPA
     static final String IABUSPrivacy_StringKey = "IABUSPrivacy_String";
 
+    //User agent
+    static final String PB_UserAgentKey = "Prebid_UserAgent";
+    static final String PB_UserAgentVersionKey = "Prebid_UserAgent_Version";
+
+    //Device metadata
+    static final String PB_DeviceMetadataKey = "Prebid_DeviceMetadata";
+
     //COPPA
     static boolean getPbCoppa() throws PbContextNullException {
 
@@ -122,6 +129,41 @@ final class StorageUtils {
         return pref.getString(StorageUtils.IABUSPrivacy_StringKey, null);
     }
 
+    //User agent
+    @Nullable
+    static String getPbUserAgent() throws PbContextNullException {
+        SharedPreferences pref = getSharedPreferences();
+        return pref.getString(StorageUtils.PB_UserAgentKey, null);
+    }
+
+    @Nullable
+    static String getPbUserAgentVersion() throws PbContextNullException {
+        SharedPreferences pref = getSharedPreferences();
+        return pref.getString(StorageUtils.PB_UserAgentVersionKey, null);
+    }
+
+    static void setPbUserAgent(String userAgent, String version) throws PbContextNullException {
+        SharedPreferences pref = getSharedPreferences();
+        SharedPreferences.Editor editor = pref.edit();
+        editor.putString(StorageUtils.PB_UserAgentKey, userAgent);
+        editor.putString(StorageUtils.PB_UserAgentVersionKey, version);
+        editor.apply();
+    }
+
+    //Device metadata
+    @Nullable
+    static String getPbDeviceMetadata() throws PbContextNullException {
+        SharedPreferences pref = getSharedPreferences();
+        return pref.getString(StorageUtils.PB_DeviceMetadataKey, null);
+    }
+
+    static void setPbDeviceMetadata(String metadata) throws PbContextNullException {
+        SharedPreferences pref = getSharedPreferences();
+        SharedPreferences.Editor editor = pref.edit();
+        editor.putString(StorageUtils.PB_DeviceMetadataKey, metadata);
+        editor.apply();
+    }
+
     // private zone
 
     /**
@@ -22,6 +22,7 @@ import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -43,11 +44,12 @@ public class TargetingParams {
     public static final String BIDDER_NAME_APP_NEXUS = "appnexus";
     public static final String BIDDER_NAME_RUBICON_PROJECT = "rubicon";
 
-    private static final Set<String> accessControlList = new HashSet<>();
-    private static final Map<String, Set<String>> userDataMap = new HashMap<>();
-    private static final Set<String> userKeywordsSet = new HashSet<>();
-    private static final Map<String, Set<String>> contextDataDictionary = new HashMap<>();
-    private static final Set<String> contextKeywordsSet = new HashSet<>();
+    // copy-on-write: the setters replace these with updated unmodifiable copies, so auctions read them without locking
+    private static volatile Set<String> accessControlList = Collections.emptySet();
+    private static volatile Map<String, Set<String>> userDataMap = Collections.emptyMap();
+    private static volatile Set<String> userKeywordsSet = Collections.emptySet();
+    private static volatile Map<String, Set<String>> contextDataDictionary = Collections.emptyMap();
+    private static volatile Set<String> contextKeywordsSet = Collections.emptySet();
 
     //endregion
 
@@ -152,6 +154,7 @@ public class TargetingParams {
     public static void setYearOfBirth(int yob) throws Exception {
         if (yob >= 1900 && yob < Calendar.getInstance().get(Calendar.YEAR)) {
             TargetingParams.yob = yob;
+            RequestSnapshot.invalidate();
         } else {
             throw new Exception("Year of birth must be between 1900 and " + Calendar.getInstance().get(Calendar.YEAR));
         }
@@ -181,6 +184,7 @@ public class TargetingParams {
      */
     public static void setGender(GENDER gender) {
         TargetingParams.gender = gender;
+        RequestSnapshot.invalidate();
     }
 
     /**
@@ -202,6 +206,7 @@ public class TargetingParams {
      */
     public static synchronized void setBundleName(String bundleName) {
         TargetingParams.bundleName = bundleName;
+        RequestSnapshot.invalidate();
     }
 
     /**
@@ -211,6 +216,7 @@ public class TargetingParams {
      */
     public static synchronized void setDomain(String domain) {
         TargetingParams.domain = domain;
+        RequestSnapshot.invalidate();
     }
 
     /**
@@ -229,6 +235,7 @@ public class TargetingParams {
      */
     public static synchronized void setStoreUrl(String storeUrl) {
         TargetingParams.storeUrl = storeUrl;
+        RequestSnapshot.invalidate();
     }
 
     /**
@@ -246,22 +253,25 @@ public class TargetingParams {
     /**
      * This method obtains a bidder name allowed to receive global targeting
      */
-    public static void addBidderToAccessControlList(String bidderName) {
-        accessControlList.add(bidderName);
+    public static synchronized void addBidderToAccessControlList(String bidderName) {
+        accessControlList = added(accessControlList, Collections.singleton(bidderName));
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove specific bidder name
      */
-    public static void removeBidderFromAccessControlList(String bidderName) {
-        accessControlList.remove(bidderName);
+    public static synchronized void removeBidderFromAccessControlList(String bidderName) {
+        accessControlList = removed(accessControlList, bidderName);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove all the bidder name set
      */
-    public static void clearAccessControlList() {
-        accessControlList.clear();
+    public static synchronized void clearAccessControlList() {
+        accessControlList = Collections.emptySet();
+        RequestSnapshot.invalidate();
     }
 
     static Set<String> getAccessControlList() {
@@ -274,32 +284,34 @@ public class TargetingParams {
      * This method obtains the user data keyword & value for global user targeting
      * if the key already exists the value will be appended to the list. No duplicates will be added
      */
-    public static void addUserData(String key, String value) {
-
-        Util.addValue(userDataMap, key, value);
-
+    public static synchronized void addUserData(String key, String value) {
+        userDataMap = withValue(userDataMap, key, value);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method obtains the user data keyword & values set for global user targeting
      * the values if the key already exist will be replaced with the new set of values
      */
-    public static void updateUserData(String key, Set<String> value) {
-        userDataMap.put(key, value);
+    public static synchronized void updateUserData(String key, Set<String> value) {
+        userDataMap = withValues(userDataMap, key, value);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove specific user data keyword & value set from global user targeting
      */
-    public static void removeUserData(String key) {
-        userDataMap.remove(key);
+    public static synchronized void removeUserData(String key) {
+        userDataMap = withValues(userDataMap, key, null);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove all user data set from global user targeting
      */
-    public static void clearUserData() {
-        userDataMap.clear();
+    public static synchronized void clearUserData() {
+        userDataMap = Collections.emptyMap();
+        RequestSnapshot.invalidate();
     }
 
     static Map<String, Set<String>> getUserDataDictionary() {
@@ -312,30 +324,34 @@ public class TargetingParams {
      * This method obtains the user keyword for global user targeting
      * Inserts the given element in the set if it is not already present.
      */
-    public static void addUserKeyword(String keyword) {
-        userKeywordsSet.add(keyword);
+    public static synchronized void addUserKeyword(String keyword) {
+        userKeywordsSet = added(userKeywordsSet, Collections.singleton(keyword));
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method obtains the user keyword set for global user targeting
      * Adds the elements of the given set to the set.
      */
-    public static void addUserKeywords(Set<String> keywords) {
-        userKeywordsSet.addAll(keywords);
+    public static synchronized void addUserKeywords(Set<String> keywords) {
+        userKeywordsSet = added(userKeywordsSet, keywords);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove specific user keyword from global user targeting
      */
-    public static void removeUserKeyword(String keyword) {
-        userKeywordsSet.remove(keyword);
+    public static synchronized void removeUserKeyword(String keyword) {
+        userKeywordsSet = removed(userKeywordsSet, keyword);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove all keywords from the set of global user targeting
      */
-    public static void clearUserKeywords() {
-        userKeywordsSet.clear();
+    public static synchronized void clearUserKeywords() {
+        userKeywordsSet = Collections.emptySet();
+        RequestSnapshot.invalidate();
     }
 
     static Set<String> getUserKeywordsSet() {
@@ -348,30 +364,34 @@ public class TargetingParams {
      * This method obtains the context data keyword & value context for global context targeting
      * if the key already exists the value will be appended to the list. No duplicates will be added
      */
-    public static void addContextData(String key, String value) {
-        Util.addValue(contextDataDictionary, key, value);
+    public static synchronized void addContextData(String key, String value) {
+        contextDataDictionary = withValue(contextDataDictionary, key, value);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method obtains the context data keyword & values set for global context targeting.
      * the values if the key already exist will be replaced with the new set of values
      */
-    public static void updateContextData(String key, Set<String> value) {
-        contextDataDictionary.put(key, value);
+    public static synchronized void updateContextData(String key, Set<String> value) {
+        contextDataDictionary = withValues(contextDataDictionary, key, value);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove specific context data keyword & values set from global context targeting
      */
-    public static void removeContextData(String key) {
-        contextDataDictionary.remove(key);
+    public static synchronized void removeContextData(String key) {
+        contextDataDictionary = withValues(contextDataDictionary, key, null);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove all context data set from global context targeting
      */
-    public static void clearContextData() {
-        contextDataDictionary.clear();
+    public static synchronized void clearContextData() {
+        contextDataDictionary = Collections.emptyMap();
+        RequestSnapshot.invalidate();
     }
 
     static Map<String, Set<String>> getContextDataDictionary() {
@@ -384,35 +404,67 @@ public class TargetingParams {
      * This method obtains the context keyword for adunit context targeting
      * Inserts the given element in the set if it is not already present.
      */
-    public static void addContextKeyword(String keyword) {
-        contextKeywordsSet.add(keyword);
+    public static synchronized void addContextKeyword(String keyword) {
+        contextKeywordsSet = added(contextKeywordsSet, Collections.singleton(keyword));
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method obtains the context keyword set for adunit context targeting
      * Adds the elements of the given set to the set.
      */
-    public static void addContextKeywords(Set<String> keywords) {
-        contextKeywordsSet.addAll(keywords);
+    public static synchronized void addContextKeywords(Set<String> keywords) {
+        contextKeywordsSet = added(contextKeywordsSet, keywords);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove specific context keyword from adunit context targeting
      */
-    public static void removeContextKeyword(String keyword) {
-        contextKeywordsSet.remove(keyword);
+    public static synchronized void removeContextKeyword(String keyword) {
+        contextKeywordsSet = removed(contextKeywordsSet, keyword);
+        RequestSnapshot.invalidate();
     }
 
     /**
      * This method allows to remove all keywords from the set of adunit context targeting
      */
-    public static void clearContextKeywords() {
-        contextKeywordsSet.clear();
+    public static synchronized void clearContextKeywords() {
+        contextKeywordsSet = Collections.emptySet();
+        RequestSnapshot.invalidate();
     }
 
     static Set<String> getContextKeywordsSet()  {
         return contextKeywordsSet;
     }
 
+    private static Set<String> added(Set<String> set, Set<String> values) {
+        HashSet<String> copy = new HashSet<>(set);
+        copy.addAll(values);
+        return Collections.unmodifiableSet(copy);
+    }
+
+    private static Set<String> removed(Set<String> set, String value) {
+        HashSet<String> copy = new HashSet<>(set);
+        copy.remove(value);
+        return Collections.unmodifiableSet(copy);
+    }
+
+    private static Map<String, Set<String>> withValue(Map<String, Set<String>> map, String key, String value) {
+        Set<String> values = map.get(key);
+        return withValues(map, key, added(values != null ? values : Collections.<String>emptySet(), Collections.singleton(value)));
+    }
+
+    // null values remove the key
+    private static Map<String, Set<String>> withValues(Map<String, Set<String>> map, String key, @Nullable Set<String> values) {
+        HashMap<String, Set<String>> copy = new HashMap<>(map);
+        if (values != null) {
+            copy.put(key, Collections.unmodifiableSet(new HashSet<>(values)));
+        } else {
+            copy.remove(key);
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
 //endregion
 }
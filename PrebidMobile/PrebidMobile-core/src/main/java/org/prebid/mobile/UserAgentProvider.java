@@ -0,0 +1,158 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.prebid.mobile;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Loads the default user agent of the device into {@link PrebidServerSettings#userAgent} in the background.
+ * <p>
+ * The user agent is kept in the shared preferences together with the build and WebView version it was read with,
+ * so after a restart it is there before the first auction. It is only read again when the system or the WebView
+ * was updated, with {@link WebSettings#getDefaultUserAgent(Context)}, which doesn't need a WebView. No WebView is
+ * created, the system user agent is used on Android versions that don't have that method.
+ */
+final class UserAgentProvider {
+
+    private static final String[] WEBVIEW_PACKAGES = {"com.google.android.webview", "com.android.webview", "com.android.chrome"};
+
+    private static FutureTask<Void> loadTask;
+
+    private UserAgentProvider() {
+    }
+
+    /**
+     * Starts loading the user agent, does nothing once it has been started.
+     *
+     * @return the loading, done once the user agent is set
+     */
+    @NonNull
+    static synchronized Future<?> load(@NonNull Context context) {
+        if (loadTask != null) {
+            return loadTask;
+        }
+        final Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        loadTask = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                loadUserAgent(applicationContext);
+            }
+        }, null);
+        AuctionExecutors.getBackgroundExecutor().execute(loadTask);
+        return loadTask;
+    }
+
+    @WorkerThread
+    private static void loadUserAgent(@NonNull Context context) {
+        String storedUserAgent = null;
+        String storedVersion = null;
+        try {
+            storedUserAgent = StorageUtils.getPbUserAgent();
+            storedVersion = StorageUtils.getPbUserAgentVersion();
+        } catch (PbContextNullException e) {
+            // nothing stored can be read without a context
+        }
+        if (!TextUtils.isEmpty(storedUserAgent)) {
+            PrebidServerSettings.userAgent = storedUserAgent;
+        }
+
+        String version = getVersion(context);
+        if (!TextUtils.isEmpty(storedUserAgent) && version.equals(storedVersion)) {
+            return;
+        }
+        String userAgent = readUserAgent(context);
+        if (TextUtils.isEmpty(userAgent)) {
+            return;
+        }
+        PrebidServerSettings.userAgent = userAgent;
+        try {
+            StorageUtils.setPbUserAgent(userAgent, version);
+        } catch (PbContextNullException e) {
+            // kept for this session only
+        }
+    }
+
+    @Nullable
+    private static String readUserAgent(@NonNull Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            try {
+                return WebSettings.getDefaultUserAgent(context);
+            } catch (RuntimeException e) {
+                // the WebView is missing or being updated
+                LogUtil.w("Unable to read the default user agent: " + e.getMessage());
+            }
+        }
+        return System.getProperty("http.agent");
+    }
+
+    /**
+     * @return the build and WebView version the user agent depends on
+     */
+    @VisibleForTesting
+    @NonNull
+    static String getVersion(@NonNull Context context) {
+        PackageInfo webViewPackage = getWebViewPackage(context);
+        if (webViewPackage == null) {
+            return Build.FINGERPRINT;
+        }
+        return Build.FINGERPRINT + "|" + webViewPackage.packageName + "|" + webViewPackage.versionName;
+    }
+
+    @Nullable
+    private static PackageInfo getWebViewPackage(@NonNull Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return getCurrentWebViewPackage();
+        }
+        PackageManager packageManager = context.getPackageManager();
+        for (String packageName : WEBVIEW_PACKAGES) {
+            try {
+                return packageManager.getPackageInfo(packageName, 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                // try the next one
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    @Nullable
+    private static PackageInfo getCurrentWebViewPackage() {
+        return WebView.getCurrentWebViewPackage();
+    }
+
+    @VisibleForTesting
+    static synchronized void reset() {
+        loadTask = null;
+    }
+}
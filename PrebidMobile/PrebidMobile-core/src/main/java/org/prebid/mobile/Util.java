@@ -17,10 +17,8 @@
 package org.prebid.mobile;
 
 import android.annotation.TargetApi;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.support.annotation.CheckResult;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -38,13 +36,10 @@ import org.prebid.mobile.addendum.PbFindSizeError;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -56,7 +51,6 @@ public class Util {
     static final String DFP_AD_REQUEST_CLASS = "com.google.android.gms.ads.doubleclick.PublisherAdRequest";
     private static final Random RANDOM = new Random();
     private static final HashSet<String> reservedKeys;
-    private static final int MoPubQueryStringLimit = 4000;
 
     static {
         reservedKeys = new HashSet<>();
@@ -140,115 +134,6 @@ public class Util {
 
     }
 
-    @Nullable
-    static JSONObject getObjectWithoutEmptyValues(@NonNull JSONObject jsonObject) {
-
-        JSONObject result = null;
-        try {
-            JSONObject clone = new JSONObject(jsonObject.toString());
-            removeEntryWithoutValue(clone);
-
-            if (clone.length() > 0) {
-                result = clone;
-            }
-
-        } catch (JSONException e) {
-            LogUtil.e("message:" + e.getMessage());
-        }
-
-        return result;
-    }
-
-    private static void removeEntryWithoutValue(@NonNull JSONObject map) throws JSONException {
-        Iterator<String> iterator = map.keys();
-
-        while (iterator.hasNext()) {
-            String key = iterator.next();
-
-            Object value = map.opt(key);
-            if (value != null) {
-
-                if (value instanceof JSONObject) {
-
-                    JSONObject mapValue = (JSONObject) value;
-                    removeEntryWithoutValue(mapValue);
-
-                    if (mapValue.length() == 0) {
-                        iterator.remove();
-                    }
-                } else if (value instanceof JSONArray) {
-
-                    JSONArray arrayValue = (JSONArray) value;
-                    arrayValue = removeEntryWithoutValue(arrayValue);
-
-                    map.put(key, arrayValue);
-
-                    if (arrayValue.length() == 0) {
-                        iterator.remove();
-                    }
-                } else if (value instanceof String) {
-                    String stringValue = (String) value;
-
-                    if (stringValue.length() == 0) {
-                        iterator.remove();
-                    }
-                }
-            }
-        }
-    }
-
-    @CheckResult
-    private static JSONArray removeEntryWithoutValue(@NonNull JSONArray array) throws JSONException {
-
-        for (int i = 0; i < array.length(); i++) {
-
-            Object value = array.opt(i);
-            if (value != null) {
-
-                if (value instanceof JSONObject) {
-
-                    JSONObject mapValue = (JSONObject) value;
-                    removeEntryWithoutValue(mapValue);
-
-                    if (mapValue.length() == 0) {
-                        array = getJsonArrayWithoutEntryByIndex(array, i);
-                    }
-                } else if (value instanceof JSONArray) {
-                    JSONArray arrayValue = (JSONArray) value;
-                    arrayValue = removeEntryWithoutValue(arrayValue);
-
-                    array.put(i, arrayValue);
-
-                    if (arrayValue.length() == 0) {
-                        array = getJsonArrayWithoutEntryByIndex(array, i);
-                    }
-                } else if (value instanceof String) {
-                    String stringValue = (String) value;
-
-                    if (stringValue.length() == 0) {
-                        array = getJsonArrayWithoutEntryByIndex(array, i);
-                    }
-                }
-            }
-
-        }
-
-        return array;
-    }
-
-    @CheckResult
-    private static JSONArray getJsonArrayWithoutEntryByIndex(JSONArray jsonArray, int pos) throws JSONException {
-        JSONArray result = new JSONArray();
-
-        for (int i = 0; i < jsonArray.length(); i++) {
-            if (i != pos) {
-                result.put(jsonArray.get(i));
-            }
-        }
-
-        return result;
-    }
-
     static Class getClassFromString(String className) {
         try {
             return Class.forName(className);
@@ -264,12 +149,20 @@ public class Util {
             for (int i = 0; i < len; i++) {
                 classes[i] = params[i].getClass();
             }
-            Method method = object.getClass().getMethod(methodName, classes);
-            return method.invoke(object, params);
+            return invokeMethod(object.getClass().getMethod(methodName, classes), object, params);
         } catch (NullPointerException e) {
             e.printStackTrace();
         } catch (NoSuchMethodException e) {
             e.printStackTrace();
+        }
+        return null;
+    }
+
+    static Object invokeMethod(Method method, Object object, Object... params) {
+        try {
+            return method.invoke(object, params);
+        } catch (NullPointerException e) {
+            e.printStackTrace();
         } catch (InvocationTargetException e) {
             e.printStackTrace();
         } catch (IllegalAccessException e) {
@@ -393,57 +286,18 @@ public class Util {
     }
 
     static boolean supportedAdObject(Object adObj) {
-        if (adObj == null) return false;
-        if (adObj.getClass() == getClassFromString(MOPUB_BANNER_VIEW_CLASS)
-                || adObj.getClass() == getClassFromString(MOPUB_INTERSTITIAL_CLASS)
-                || adObj.getClass() == getClassFromString(DFP_AD_REQUEST_CLASS))
-            return true;
-        return false;
+        return AdServerAdapters.get(adObj) != null;
     }
 
     static void apply(HashMap<String, String> bids, Object adObj) {
-        if (adObj == null) return;
-        if (adObj.getClass() == getClassFromString(MOPUB_BANNER_VIEW_CLASS)
-                || adObj.getClass() == getClassFromString(MOPUB_INTERSTITIAL_CLASS)) {
-            handleMoPubKeywordsUpdate(bids, adObj);
-        } else if (adObj.getClass() == getClassFromString(DFP_AD_REQUEST_CLASS)) {
-            handleDFPCustomTargetingUpdate(bids, adObj);
-        }
-    }
-
-    private static void handleMoPubKeywordsUpdate(HashMap<String, String> bids, Object adObj) {
-        removeUsedKeywordsForMoPub(adObj);
+        AdServerAdapter adapter = AdServerAdapters.get(adObj);
+        if (adapter == null) return;
+        adapter.removeTargeting(adObj, getReservedKeys());
         if (bids != null && !bids.isEmpty()) {
-            StringBuilder keywordsBuilder = new StringBuilder();
             for (String key : bids.keySet()) {
                 addReservedKeys(key);
-                keywordsBuilder.append(key).append(":").append(bids.get(key)).append(",");
-            }
-            String pbmKeywords = keywordsBuilder.toString();
-            String adViewKeywords = (String) Util.callMethodOnObject(adObj, "getKeywords");
-            if (!TextUtils.isEmpty(adViewKeywords)) {
-                adViewKeywords = pbmKeywords + adViewKeywords;
-            } else {
-                adViewKeywords = pbmKeywords;
-            }
-            // only set keywords if less than mopub query string limit
-            if (adViewKeywords.length() <= MoPubQueryStringLimit) {
-                Util.callMethodOnObject(adObj, "setKeywords", adViewKeywords);
-            }
-        }
-    }
-
-    private static void handleDFPCustomTargetingUpdate(HashMap<String, String> bids, Object adObj) {
-        removeUsedCustomTargetingForDFP(adObj);
-        if (bids != null && !bids.isEmpty()) {
-            Bundle bundle = (Bundle) Util.callMethodOnObject(adObj, "getCustomTargeting");
-            if (bundle != null) {
-                // retrieve keywords from mopub adview
-                for (String key : bids.keySet()) {
-                    bundle.putString(key, bids.get(key));
-                    addReservedKeys(key);
-                }
             }
+            adapter.addTargeting(adObj, bids);
         }
     }
 
@@ -453,36 +307,9 @@ public class Util {
         }
     }
 
-    private static void removeUsedKeywordsForMoPub(Object adViewObj) {
-        String adViewKeywords = (String) Util.callMethodOnObject(adViewObj, "getKeywords");
-        if (!TextUtils.isEmpty(adViewKeywords) && reservedKeys != null && !reservedKeys.isEmpty()) {
-            // Copy used keywords to a temporary list to avoid concurrent modification
-            // while iterating through the list
-            String[] adViewKeywordsArray = adViewKeywords.split(",");
-            ArrayList<String> adViewKeywordsArrayList = new ArrayList<>(Arrays.asList(adViewKeywordsArray));
-            LinkedList<String> toRemove = new LinkedList<>();
-            for (String keyword : adViewKeywordsArray) {
-                if (!TextUtils.isEmpty(keyword) && keyword.contains(":")) {
-                    String[] keywordArray = keyword.split(":");
-                    if (keywordArray.length > 0) {
-                        if (reservedKeys.contains(keywordArray[0])) {
-                            toRemove.add(keyword);
-                        }
-                    }
-                }
-            }
-            adViewKeywordsArrayList.removeAll(toRemove);
-            adViewKeywords = TextUtils.join(",", adViewKeywordsArrayList);
-            Util.callMethodOnObject(adViewObj, "setKeywords", adViewKeywords);
-        }
-    }
-
-    private static void removeUsedCustomTargetingForDFP(Object adRequestObj) {
-        Bundle bundle = (Bundle) Util.callMethodOnObject(adRequestObj, "getCustomTargeting");
-        if (bundle != null && reservedKeys != null) {
-            for (String key : reservedKeys) {
-                bundle.remove(key);
-            }
+    private static Set<String> getReservedKeys() {
+        synchronized (reservedKeys) {
+            return new HashSet<>(reservedKeys);
         }
     }
 
@@ -497,6 +324,19 @@ public class Util {
         valueSet.add(value);
     }
 
+    /**
+     * @return unmodifiable copy of the map and of its value sets, later changes to the map don't show in it
+     */
+    @NonNull
+    static <E, U> Map<E, Set<U>> immutableCopy(@NonNull Map<E, ? extends Set<U>> map) {
+        HashMap<E, Set<U>> copy = new HashMap<>(map.size());
+        for (Map.Entry<E, ? extends Set<U>> entry : map.entrySet()) {
+            Set<U> values = entry.getValue();
+            copy.put(entry.getKey(), values != null ? Collections.unmodifiableSet(new HashSet<>(values)) : Collections.<U>emptySet());
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
     @NonNull
     static <E, U> JSONObject toJson(@Nullable Map<E, ? extends Collection<U>> map) throws JSONException {
 
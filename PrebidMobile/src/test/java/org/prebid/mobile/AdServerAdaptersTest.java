@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.support.annotation.NonNull;
+
+import com.mopub.mobileads.MoPubView;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK)
+public class AdServerAdaptersTest extends BaseSetup {
+
+    static class CustomAdRequest {
+        final HashMap<String, String> targeting = new HashMap<>();
+    }
+
+    static class CustomAdServerAdapter implements AdServerAdapter {
+        int supportsCalls;
+
+        @Override
+        public boolean supports(@NonNull Class<?> adObjectClass) {
+            supportsCalls++;
+            return adObjectClass == CustomAdRequest.class;
+        }
+
+        @Override
+        public void removeTargeting(@NonNull Object adObject, @NonNull Set<String> keys) {
+            ((CustomAdRequest) adObject).targeting.keySet().removeAll(keys);
+        }
+
+        @Override
+        public void addTargeting(@NonNull Object adObject, @NonNull Map<String, String> targeting) {
+            ((CustomAdRequest) adObject).targeting.putAll(targeting);
+        }
+    }
+
+    private CustomAdServerAdapter adapter;
+
+    @After
+    @Override
+    public void tearDown() {
+        if (adapter != null) {
+            AdServerAdapters.unregister(adapter);
+        }
+        super.tearDown();
+    }
+
+    @Test
+    public void testBuiltInAdapters() {
+        assertTrue(AdServerAdapters.get(new MoPubView(activity)) instanceof MoPubKeywordsAdapter);
+        assertNull(AdServerAdapters.get(new Object()));
+        assertNull(AdServerAdapters.get(null));
+    }
+
+    @Test
+    public void testRegisteredAdapterIsLookedUpOnce() {
+        adapter = new CustomAdServerAdapter();
+        PrebidMobile.registerAdServerAdapter(adapter);
+        CustomAdRequest request = new CustomAdRequest();
+        request.targeting.put("key", "value");
+        assertTrue(Util.supportedAdObject(request));
+
+        HashMap<String, String> bids = new HashMap<>();
+        bids.put("hb_pb", "0.50");
+        Util.apply(bids, request);
+        assertEquals(2, request.targeting.size());
+        assertEquals("0.50", request.targeting.get("hb_pb"));
+
+        Util.apply(null, request);
+        assertEquals(1, request.targeting.size());
+        assertEquals("value", request.targeting.get("key"));
+        assertEquals(1, adapter.supportsCalls);
+    }
+}
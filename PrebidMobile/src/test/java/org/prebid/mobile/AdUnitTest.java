@@ -41,11 +41,14 @@ public class AdUnitTest {
         assertEquals(1, keywords.size());
         assertTrue(keywords.contains("value"));
         adUnit.addUserKeyword("key", "value2");
+        keywords = TargetingParams.getUserKeywordsSet();
         assertEquals(2, keywords.size());
         assertTrue(keywords.contains("value") && keywords.contains("value2"));
         adUnit.removeUserKeyword("value");
+        keywords = TargetingParams.getUserKeywordsSet();
         assertEquals(1, keywords.size());
         adUnit.clearUserKeywords();
+        keywords = TargetingParams.getUserKeywordsSet();
         assertEquals(0, keywords.size());
     }
 
@@ -60,6 +63,7 @@ public class AdUnitTest {
         assertEquals(2, keywords.size());
         assertTrue(keywords.contains("value1") && keywords.contains("value2"));
         adUnit.addUserKeywords("key1", values);
+        keywords = TargetingParams.getUserKeywordsSet();
         assertEquals(2, keywords.size());
         assertTrue(keywords.contains("value1") && keywords.contains("value2"));
     }
@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowNetworkInfo;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class AdaptiveTimeoutTest {
+
+    private static final String HOST = "https://prebid.example.com/openrtb2/auction";
+
+    private AdaptiveTimeout adaptiveTimeout;
+
+    @Before
+    public void setUp() {
+        adaptiveTimeout = AdaptiveTimeout.getInstance();
+        adaptiveTimeout.clear();
+        PrebidMobile.setTimeoutMillis(2000);
+        PrebidMobile.setTimeoutPercentile(90);
+        PrebidMobile.setTimeoutMarginMillis(200);
+    }
+
+    @After
+    public void tearDown() {
+        adaptiveTimeout.clear();
+    }
+
+    @Test
+    public void testNetworkClass() {
+        assertEquals(AdaptiveTimeout.NETWORK_WIFI, AdaptiveTimeout.getNetworkClass(networkInfo(ConnectivityManager.TYPE_WIFI, 0)));
+        assertEquals(AdaptiveTimeout.NETWORK_2G, AdaptiveTimeout.getNetworkClass(networkInfo(ConnectivityManager.TYPE_MOBILE, TelephonyManager.NETWORK_TYPE_EDGE)));
+        assertEquals(AdaptiveTimeout.NETWORK_3G, AdaptiveTimeout.getNetworkClass(networkInfo(ConnectivityManager.TYPE_MOBILE, TelephonyManager.NETWORK_TYPE_HSPAP)));
+        assertEquals(AdaptiveTimeout.NETWORK_4G, AdaptiveTimeout.getNetworkClass(networkInfo(ConnectivityManager.TYPE_MOBILE, TelephonyManager.NETWORK_TYPE_LTE)));
+        assertEquals(AdaptiveTimeout.NETWORK_4G, AdaptiveTimeout.getNetworkClass(networkInfo(ConnectivityManager.TYPE_MOBILE, 19)));
+        assertEquals(AdaptiveTimeout.NETWORK_5G, AdaptiveTimeout.getNetworkClass(networkInfo(ConnectivityManager.TYPE_MOBILE, 20)));
+    }
+
+    @Test
+    public void testMaxTimeoutUntilEnoughSamples() {
+        for (int i = 1; i < AdaptiveTimeout.MIN_SAMPLES; i++) {
+            adaptiveTimeout.addSample(HOST, AdaptiveTimeout.NETWORK_WIFI, 100);
+        }
+        assertEquals(2000, adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_WIFI));
+
+        adaptiveTimeout.addSample(HOST, AdaptiveTimeout.NETWORK_WIFI, 100);
+        assertEquals(300, adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_WIFI));
+    }
+
+    @Test
+    public void testPercentilePlusMargin() {
+        for (int i = 1; i <= 10; i++) {
+            adaptiveTimeout.addSample(HOST, AdaptiveTimeout.NETWORK_4G, i * 100);
+        }
+        assertEquals(900 + 200, adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_4G));
+
+        PrebidMobile.setTimeoutPercentile(50);
+        PrebidMobile.setTimeoutMarginMillis(0);
+        assertEquals(500, adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_4G));
+
+        PrebidMobile.setTimeoutMillis(400);
+        assertEquals(400, adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_4G));
+    }
+
+    @Test
+    public void testLatencyPercentile() {
+        for (int i = 1; i < AdaptiveTimeout.MIN_SAMPLES; i++) {
+            adaptiveTimeout.addSample(HOST, AdaptiveTimeout.NETWORK_4G, i * 100);
+        }
+        assertEquals(-1, adaptiveTimeout.getLatencyPercentile(HOST, AdaptiveTimeout.NETWORK_4G, 90));
+
+        for (int i = AdaptiveTimeout.MIN_SAMPLES; i <= 10; i++) {
+            adaptiveTimeout.addSample(HOST, AdaptiveTimeout.NETWORK_4G, i * 100);
+        }
+        assertEquals(900, adaptiveTimeout.getLatencyPercentile(HOST, AdaptiveTimeout.NETWORK_4G, 90));
+        assertEquals(500, adaptiveTimeout.getLatencyPercentile(HOST, AdaptiveTimeout.NETWORK_4G, 50));
+    }
+
+    @Test
+    public void testSamplesPerNetworkClassAndHost() {
+        for (int i = 0; i < AdaptiveTimeout.MIN_SAMPLES; i++) {
+            adaptiveTimeout.addSample(HOST, AdaptiveTimeout.NETWORK_WIFI, 100);
+            adaptiveTimeout.addSample(HOST, AdaptiveTimeout.NETWORK_3G, 1000);
+        }
+        assertEquals(300, adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_WIFI));
+        assertEquals(1200, adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_3G));
+        assertEquals(2000, adaptiveTimeout.getTimeoutMillis("https://other.example.com", AdaptiveTimeout.NETWORK_WIFI));
+    }
+
+    @Test
+    public void testOldSamplesLeaveTheWindow() {
+        for (int i = 0; i < AdaptiveTimeout.WINDOW_SIZE; i++) {
+            adaptiveTimeout.addSample(HOST, AdaptiveTimeout.NETWORK_WIFI, 100);
+        }
+        assertEquals(300, adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_WIFI));
+
+        // the network got slower, timed out auctions count with their timeout
+        for (int i = 0; i < AdaptiveTimeout.WINDOW_SIZE; i++) {
+            adaptiveTimeout.addSample(HOST, AdaptiveTimeout.NETWORK_WIFI, adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_WIFI));
+        }
+        int timeoutMillis = adaptiveTimeout.getTimeoutMillis(HOST, AdaptiveTimeout.NETWORK_WIFI);
+        assertTrue("Actual adaptive timeout is " + timeoutMillis, timeoutMillis > 1500);
+    }
+
+    private static NetworkInfo networkInfo(int type, int subType) {
+        return ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTED, type, subType, true, true);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.prebid.mobile.testutils.MockPrebidServerResponses;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class AuctionBatchTest extends BaseSetup {
+
+    @Override
+    public void setup() {
+        super.setup();
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setPrebidServerAccountId("12345");
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        PrebidMobile.setAuctionBatchWindowMillis(50);
+    }
+
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        PrebidMobile.setAuctionBatchWindowMillis(0);
+    }
+
+    @Test
+    public void testBatchingDisabledByDefault() {
+        PrebidMobile.setAuctionBatchWindowMillis(0);
+        assertFalse(AuctionBatch.getInstance().canBatch(bannerParams("1", 320, 50)));
+    }
+
+    @Test
+    public void testInterstitialsAreNotBatched() {
+        assertTrue(AuctionBatch.getInstance().canBatch(bannerParams("1", 320, 50)));
+        assertFalse(AuctionBatch.getInstance().canBatch(new RequestParams("1", AdType.INTERSTITIAL, null)));
+    }
+
+    @Test
+    public void testTwoAdUnitsInOneRequest() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidForEachOfTwoImps()));
+
+        DemandAdapter.DemandAdapterListener listener1 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener2 = mock(DemandAdapter.DemandAdapterListener.class);
+        String auctionId1 = UUID.randomUUID().toString();
+        String auctionId2 = UUID.randomUUID().toString();
+
+        new PrebidServerAdapter().requestDemand(bannerParams("1001", 320, 50), listener1, auctionId1);
+        new PrebidServerAdapter().requestDemand(bannerParams("1002", 300, 250), listener2, auctionId2);
+
+        uiScheduler.advanceBy(50);
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertEquals(1, server.getRequestCount());
+        RecordedRequest request = server.takeRequest();
+        JSONArray imps = new JSONObject(request.getBody().readUtf8()).getJSONArray("imp");
+        assertEquals(2, imps.length());
+        assertEquals("PrebidMobile-1", imps.getJSONObject(0).getString("id"));
+        assertEquals("1001", imps.getJSONObject(0).getJSONObject("ext").getJSONObject("prebid").getJSONObject("storedrequest").getString("id"));
+        assertEquals("PrebidMobile-2", imps.getJSONObject(1).getString("id"));
+        assertEquals("1002", imps.getJSONObject(1).getJSONObject("ext").getJSONObject("prebid").getJSONObject("storedrequest").getString("id"));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<HashMap<String, String>> captor1 = (ArgumentCaptor) ArgumentCaptor.forClass(HashMap.class);
+        verify(listener1).onDemandReady(captor1.capture(), eq(auctionId1));
+        assertEquals("0.50", captor1.getValue().get("hb_pb"));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<HashMap<String, String>> captor2 = (ArgumentCaptor) ArgumentCaptor.forClass(HashMap.class);
+        verify(listener2).onDemandReady(captor2.capture(), eq(auctionId2));
+        assertEquals("1.20", captor2.getValue().get("hb_pb"));
+    }
+
+    @Test
+    public void testStoppedFetchIsLeftOut() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+
+        DemandAdapter.DemandAdapterListener listener1 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener2 = mock(DemandAdapter.DemandAdapterListener.class);
+        String auctionId1 = UUID.randomUUID().toString();
+        String auctionId2 = UUID.randomUUID().toString();
+
+        PrebidServerAdapter adapter1 = new PrebidServerAdapter();
+        adapter1.requestDemand(bannerParams("1001", 320, 50), listener1, auctionId1);
+        new PrebidServerAdapter().requestDemand(bannerParams("1002", 300, 250), listener2, auctionId2);
+        adapter1.stopRequest(auctionId1);
+
+        uiScheduler.advanceBy(50);
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+
+        RecordedRequest request = server.takeRequest();
+        JSONArray imps = new JSONObject(request.getBody().readUtf8()).getJSONArray("imp");
+        assertEquals(1, imps.length());
+        assertEquals("PrebidMobile", imps.getJSONObject(0).getString("id"));
+
+        verify(listener1, never()).onDemandReady(any(HashMap.class), anyString());
+        verify(listener2).onDemandReady(any(HashMap.class), eq(auctionId2));
+    }
+
+    @Test
+    public void testRejectedBatchIsSentSeparately() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400).setBody(MockPrebidServerResponses.invalidConfigIdFromRubicon()));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+        server.enqueue(new MockResponse().setResponseCode(400).setBody(MockPrebidServerResponses.invalidConfigIdFromRubicon()));
+
+        DemandAdapter.DemandAdapterListener listener1 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener2 = mock(DemandAdapter.DemandAdapterListener.class);
+        String auctionId1 = UUID.randomUUID().toString();
+        String auctionId2 = UUID.randomUUID().toString();
+
+        new PrebidServerAdapter().requestDemand(bannerParams("1001", 320, 50), listener1, auctionId1);
+        new PrebidServerAdapter().requestDemand(bannerParams("invalid", 300, 250), listener2, auctionId2);
+
+        uiScheduler.advanceBy(50);
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+        verify(listener1, never()).onDemandFailed(any(ResultCode.class), anyString());
+        verify(listener2, never()).onDemandFailed(any(ResultCode.class), anyString());
+
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, new JSONObject(server.takeRequest().getBody().readUtf8()).getJSONArray("imp").length());
+        JSONArray imps = new JSONObject(server.takeRequest().getBody().readUtf8()).getJSONArray("imp");
+        assertEquals(1, imps.length());
+        assertEquals("1001", imps.getJSONObject(0).getJSONObject("ext").getJSONObject("prebid").getJSONObject("storedrequest").getString("id"));
+        verify(listener1).onDemandReady(any(HashMap.class), eq(auctionId1));
+        verify(listener2).onDemandFailed(ResultCode.INVALID_CONFIG_ID, auctionId2);
+    }
+
+    @Test
+    public void testFullBatchSentRightAway() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
+
+        for (int i = 0; i <= AuctionBatch.MAX_IMPS; i++) {
+            DemandAdapter.DemandAdapterListener listener = mock(DemandAdapter.DemandAdapterListener.class);
+            new PrebidServerAdapter().requestDemand(bannerParams("100" + i, 320, 50), listener, UUID.randomUUID().toString());
+        }
+
+        // the full batch doesn't wait for the main thread, the fetch after it starts a new one
+        Robolectric.flushBackgroundThreadScheduler();
+        assertEquals(1, server.getRequestCount());
+        assertEquals(AuctionBatch.MAX_IMPS, new JSONObject(server.takeRequest().getBody().readUtf8()).getJSONArray("imp").length());
+
+        uiScheduler.advanceBy(50);
+        Robolectric.flushBackgroundThreadScheduler();
+        assertEquals(2, server.getRequestCount());
+        JSONArray imps = new JSONObject(server.takeRequest().getBody().readUtf8()).getJSONArray("imp");
+        assertEquals(1, imps.length());
+        assertEquals("100" + AuctionBatch.MAX_IMPS, imps.getJSONObject(0).getJSONObject("ext").getJSONObject("prebid").getJSONObject("storedrequest").getString("id"));
+    }
+
+    private static RequestParams bannerParams(String configId, int width, int height) {
+        HashSet<AdSize> sizes = new HashSet<>();
+        sizes.add(new AdSize(width, height));
+        return new RequestParams(configId, AdType.BANNER, sizes);
+    }
+}
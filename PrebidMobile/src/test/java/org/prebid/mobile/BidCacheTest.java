@@ -0,0 +1,165 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.os.SystemClock;
+
+import com.mopub.mobileads.MoPubView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.prebid.mobile.testutils.MockPrebidServerResponses;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class BidCacheTest extends BaseSetup {
+
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        BidCache.getInstance().clear();
+        TargetingParams.clearUserKeywords();
+        TargetingParams.setGDPRConsentString(null);
+    }
+
+    @Test
+    public void testBidIsUsedOnce() {
+        BidCache cache = new BidCache();
+        RequestParams params = bannerParams("1001", 300, 250);
+        cache.put(BidCache.getKey(params), targeting("0.50"), -1);
+
+        HashMap<String, String> bid = cache.take(params);
+        assertNotNull(bid);
+        assertEquals("0.50", bid.get("hb_pb"));
+        assertNull(cache.take(params));
+    }
+
+    @Test
+    public void testBidExpires() {
+        BidCache cache = new BidCache();
+        RequestParams params = bannerParams("1001", 300, 250);
+        cache.put(BidCache.getKey(params), targeting("0.50"), 1);
+
+        SystemClock.sleep(1001);
+        assertNull(cache.take(params));
+    }
+
+    @Test
+    public void testKeyedByConfigIdAndSizes() {
+        BidCache cache = new BidCache();
+        cache.put(BidCache.getKey(bannerParams("1001", 300, 250)), targeting("0.50"), -1);
+
+        assertNull(cache.take(bannerParams("1001", 320, 50)));
+        assertNull(cache.take(bannerParams("1002", 300, 250)));
+        assertNotNull(cache.take(bannerParams("1001", 300, 250)));
+    }
+
+    @Test
+    public void testKeyedByTargetingAndConsent() {
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        BidCache cache = new BidCache();
+        cache.put(BidCache.getKey(bannerParams("1001", 300, 250)), targeting("0.50"), -1);
+        TargetingParams.addUserKeyword("sports");
+        assertNull(cache.take(bannerParams("1001", 300, 250)));
+
+        cache.put(BidCache.getKey(bannerParams("1001", 300, 250)), targeting("0.50"), -1);
+        TargetingParams.setGDPRConsentString("BOEFEAyOEFEAyAHABDENAI4AAAB9vABAASA");
+        assertNull(cache.take(bannerParams("1001", 300, 250)));
+    }
+
+    @Test
+    public void testNotKeyedBySnapshotVersion() {
+        BidCache cache = new BidCache();
+        // the prefetch stores its bid under the key taken when it started
+        String key = BidCache.getKey(bannerParams("1001", 300, 250));
+        // a connectivity or configuration change while the prefetch runs
+        RequestSnapshot.invalidate();
+        cache.put(key, targeting("0.50"), -1);
+
+        assertNotNull(cache.take(bannerParams("1001", 300, 250)));
+    }
+
+    @Test
+    public void testExpiredBidsAreEvicted() {
+        BidCache cache = new BidCache();
+        cache.put(BidCache.getKey(bannerParams("1001", 300, 250)), targeting("0.50"), 1);
+        SystemClock.sleep(1001);
+
+        cache.put(BidCache.getKey(bannerParams("1002", 300, 250)), targeting("0.50"), -1);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testFetchDemandServedFromPrefetchedBid() throws Exception {
+        HttpUrl httpUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(httpUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        PrebidMobile.setPrebidServerAccountId("123456");
+        PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+
+        BannerAdUnit adUnit = new BannerAdUnit("123456", 300, 250);
+        adUnit.prefetchDemand();
+        ShadowLooper schedulerLooper = shadowOf(FetchScheduler.getInstance().getHandler().getLooper());
+        schedulerLooper.runOneTask();
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+        assertEquals(1, server.getRequestCount());
+
+        MoPubView testView = new MoPubView(activity);
+        OnCompleteListener mockListener = mock(OnCompleteListener.class);
+        adUnit.fetchDemand(testView, mockListener);
+
+        verify(mockListener).onComplete(ResultCode.SUCCESS);
+        assertTrue(testView.getKeywords().contains("hb_pb:0.50"));
+        // the next bid is on its way
+        assertTrue(BidCache.getInstance().isPrefetching(bannerParams("123456", 300, 250)));
+    }
+
+    private static RequestParams bannerParams(String configId, int width, int height) {
+        HashSet<AdSize> sizes = new HashSet<>();
+        sizes.add(new AdSize(width, height));
+        return new RequestParams(configId, AdType.BANNER, sizes);
+    }
+
+    private static HashMap<String, String> targeting(String price) {
+        HashMap<String, String> targeting = new HashMap<>();
+        targeting.put("hb_pb", price);
+        targeting.put("hb_cache_id", "df4aba04-5e69-44b8-8608-058ab21600b8");
+        return targeting;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.prebid.mobile.testutils.MockPrebidServerResponses;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class BidResponseParserTest {
+
+    @Test
+    public void testOneBid() throws Exception {
+        BidResponseParser.Result result = BidResponseParser.parse(toStream(MockPrebidServerResponses.oneBidFromAppNexus()));
+
+        assertTrue(result.containsTopBid());
+        assertEquals(10, result.getTargeting().size());
+        assertEquals("0.50", result.getTargeting().get("hb_pb"));
+        assertEquals("df4aba04-5e69-44b8-8608-058ab21600b8", result.getTargeting().get("hb_cache_id"));
+    }
+
+    @Test
+    public void testTwoBidsOnTheSameSeat() throws Exception {
+        BidResponseParser.Result result = BidResponseParser.parse(toStream(MockPrebidServerResponses.validBidResponseTwoBidsOnTheSameSeat()));
+
+        assertTrue(result.containsTopBid());
+        assertEquals("0.08", result.getTargeting().get("hb_pb"));
+    }
+
+    @Test
+    public void testTargetingPerImp() throws Exception {
+        BidResponseParser.Result result = BidResponseParser.parse(toStream(MockPrebidServerResponses.oneBidForEachOfTwoImps()));
+
+        assertTrue(result.containsTopBid("PrebidMobile-1"));
+        assertTrue(result.containsTopBid("PrebidMobile-2"));
+        assertFalse(result.containsTopBid("PrebidMobile-3"));
+        assertEquals("0.50", result.getTargeting("PrebidMobile-1").get("hb_pb"));
+        assertEquals("1.20", result.getTargeting("PrebidMobile-2").get("hb_pb"));
+        assertTrue(result.getTargeting("PrebidMobile-3").isEmpty());
+        assertEquals(300, result.getExp("PrebidMobile-1"));
+        assertEquals(-1, result.getExp("PrebidMobile-2"));
+        assertEquals(300, result.getExp());
+    }
+
+    @Test
+    public void testBidsWithoutCacheIdAreIgnored() throws Exception {
+        BidResponseParser.Result result = BidResponseParser.parse(toStream(MockPrebidServerResponses.invalidBidResponseWithoutCacheId()));
+
+        assertFalse(result.containsTopBid());
+        assertTrue(result.getTargeting().isEmpty());
+    }
+
+    @Test
+    public void testNoBidNoTmax() throws Exception {
+        BidResponseParser.Result result = BidResponseParser.parse(toStream(MockPrebidServerResponses.noBidResponseNoTmax()));
+
+        assertFalse(result.containsTopBid());
+        assertTrue(result.getTargeting().isEmpty());
+    }
+
+    @Test
+    public void testMalformedResponse() throws Exception {
+        try {
+            BidResponseParser.parse(toStream(MockPrebidServerResponses.htmlUnreachableFromRubicon()));
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static InputStream toStream(String body) throws Exception {
+        return new ByteArrayInputStream(body.getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.prebid.mobile;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowNetworkInfo;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class ConnectivityMonitorTest extends BaseSetup {
+
+    @Test
+    public void testStateFollowsNetworkCallback() {
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        ConnectivityManager connectivityManager = (ConnectivityManager) activity.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        assertEquals(1, shadowOf(connectivityManager).getNetworkCallbacks().size());
+
+        ConnectivityMonitor.State state = ConnectivityMonitor.getInstance().getState();
+        assertTrue(state.connected);
+        assertEquals(2, state.connectionType);
+        uiScheduler.advanceToLastPostedRunnable();
+
+        ConnectivityMonitor.Listener listener = mock(ConnectivityMonitor.Listener.class);
+        ConnectivityMonitor.getInstance().addListener(listener);
+        try {
+            ShadowNetworkInfo shadowOfActiveNetworkInfo = shadowOf(connectivityManager.getActiveNetworkInfo());
+            shadowOfActiveNetworkInfo.setConnectionStatus(false);
+            for (ConnectivityManager.NetworkCallback callback : shadowOf(connectivityManager).getNetworkCallbacks()) {
+                callback.onLost(null);
+            }
+            // read again once the callback returned
+            uiScheduler.advanceToLastPostedRunnable();
+
+            state = ConnectivityMonitor.getInstance().getState();
+            assertFalse(state.connected);
+            assertEquals(0, state.connectionType);
+            uiScheduler.advanceToLastPostedRunnable();
+            verify(listener).onConnectivityChanged(state);
+        } finally {
+            ConnectivityMonitor.getInstance().removeListener(listener);
+        }
+    }
+
+    @Test
+    public void testUnchangedNetworkIsNotReported() {
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        ConnectivityManager connectivityManager = (ConnectivityManager) activity.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        uiScheduler.advanceToLastPostedRunnable();
+
+        ConnectivityMonitor.Listener listener = mock(ConnectivityMonitor.Listener.class);
+        ConnectivityMonitor.getInstance().addListener(listener);
+        try {
+            for (ConnectivityManager.NetworkCallback callback : shadowOf(connectivityManager).getNetworkCallbacks()) {
+                callback.onCapabilitiesChanged(null, null);
+            }
+            uiScheduler.advanceToLastPostedRunnable();
+            verify(listener, never()).onConnectivityChanged(any(ConnectivityMonitor.State.class));
+        } finally {
+            ConnectivityMonitor.getInstance().removeListener(listener);
+        }
+    }
+}
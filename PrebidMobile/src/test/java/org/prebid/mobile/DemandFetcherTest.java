@@ -23,6 +23,7 @@ import com.mopub.mobileads.MoPubView;
 
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
@@ -34,21 +35,31 @@ import org.robolectric.Shadows;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLooper;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.Executor;
 
 import okhttp3.HttpUrl;
 import okhttp3.mockwebserver.MockResponse;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = BaseSetup.testSDK)
 public class DemandFetcherTest extends BaseSetup {
 
+    @Before
+    public void setApplicationContext() {
+        // the context is only weakly held, don't rely on the one a previous test has set
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+    }
+
     @Test
     public void testBaseConditions() throws Exception {
         PublisherAdRequest.Builder builder = new PublisherAdRequest.Builder();
@@ -70,6 +81,15 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals(DemandFetcher.STATE.DESTROYED, FieldUtils.readField(demandFetcher, "state", true));
     }
 
+    @Test
+    public void testFetchersShareOneThread() throws Exception {
+        DemandFetcher demandFetcher1 = new DemandFetcher(new PublisherAdRequest.Builder().build());
+        DemandFetcher demandFetcher2 = new DemandFetcher(new PublisherAdRequest.Builder().build());
+        assertSame(demandFetcher1.getHandler().getLooper(), demandFetcher2.getHandler().getLooper());
+        demandFetcher1.destroy();
+        demandFetcher2.destroy();
+    }
+
     @Test
     public void testSingleRequestNoBidsResponse() throws Exception {
         HttpUrl httpUrl = server.url("/");
@@ -92,14 +112,52 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
         ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = Shadows.shadowOf(demandFetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.NO_BIDS);
         assertEquals(DemandFetcher.STATE.DESTROYED, FieldUtils.readField(demandFetcher, "state", true));
     }
 
+    @Test
+    public void testListenerCalledOnCallbackExecutor() throws Exception {
+        HttpUrl httpUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(httpUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
+        final ArrayList<Runnable> callbacks = new ArrayList<>();
+        PrebidMobile.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                callbacks.add(command);
+            }
+        });
+        try {
+            DemandFetcher demandFetcher = new DemandFetcher(new PublisherAdRequest.Builder().build());
+            PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
+            demandFetcher.setPeriodMillis(0);
+            HashSet<AdSize> sizes = new HashSet<>();
+            sizes.add(new AdSize(300, 250));
+            demandFetcher.setRequestParams(new RequestParams("12345", AdType.BANNER, sizes));
+            OnCompleteListener mockListener = mock(OnCompleteListener.class);
+            demandFetcher.setListener(mockListener);
+            demandFetcher.start();
+            ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
+            fetcherLooper.runOneTask();
+            fetcherLooper.runOneTask();
+            Robolectric.flushBackgroundThreadScheduler();
+            Robolectric.flushForegroundThreadScheduler();
+            // the fetcher is done on the main thread, only the listener waits for the executor
+            assertEquals(DemandFetcher.STATE.DESTROYED, FieldUtils.readField(demandFetcher, "state", true));
+            verify(mockListener, never()).onComplete(ResultCode.NO_BIDS);
+            assertEquals(1, callbacks.size());
+            callbacks.get(0).run();
+            verify(mockListener).onComplete(ResultCode.NO_BIDS);
+        } finally {
+            PrebidMobile.setCallbackExecutor(null);
+        }
+    }
+
     @Test
     public void testDestroyAutoRefresh() throws Exception {
         HttpUrl httpUrl = server.url("/");
@@ -124,8 +182,7 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
         ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = Shadows.shadowOf(demandFetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
@@ -158,8 +215,7 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
         ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = Shadows.shadowOf(demandFetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.SUCCESS);
@@ -211,8 +267,7 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
         ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = Shadows.shadowOf(demandFetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.SUCCESS);
@@ -294,8 +349,7 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
         ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = Shadows.shadowOf(demandFetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.SUCCESS);
@@ -327,8 +381,7 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
         ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = Shadows.shadowOf(demandFetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.SUCCESS);
@@ -360,8 +413,7 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
         ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = Shadows.shadowOf(demandFetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.SUCCESS);
@@ -369,7 +421,7 @@ public class DemandFetcherTest extends BaseSetup {
         String adViewKeywords = adView.getKeywords();
         assertEquals("hb_pb:0.50,hb_env:mobile-app,hb_pb_appnexus:0.50,hb_size:300x250,hb_bidder_appnexus:appnexus,hb_bidder:appnexus,hb_cache_id:df4aba04-5e69-44b8-8608-058ab21600b8,hb_env_appnexus:mobile-app,hb_size_appnexus:300x250,hb_cache_id_appnexus:df4aba04-5e69-44b8-8608-058ab21600b8,", adViewKeywords);
         fetcherLooper.runOneTask();
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.NO_BIDS);
@@ -378,6 +430,46 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals("", adViewKeywords);
     }
 
+    @Test
+    public void testAutoRefreshPausedInBackground() throws Exception {
+        HttpUrl httpUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(httpUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setApplicationContext(activity);
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+        PublisherAdRequest request = new PublisherAdRequest.Builder().build();
+        DemandFetcher demandFetcher = new DemandFetcher(request);
+        PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
+        demandFetcher.setPeriodMillis(30000);
+        HashSet<AdSize> sizes = new HashSet<>();
+        sizes.add(new AdSize(300, 250));
+        demandFetcher.setRequestParams(new RequestParams("12345", AdType.BANNER, sizes));
+        OnCompleteListener mockListener = mock(OnCompleteListener.class);
+        demandFetcher.setListener(mockListener);
+
+        // app goes to the background
+        AppLifecycle.getInstance().onActivityStarted(activity);
+        AppLifecycle.getInstance().onActivityStopped(activity);
+
+        demandFetcher.start();
+        ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
+        fetcherLooper.runOneTask();
+        Robolectric.flushForegroundThreadScheduler();
+        assertEquals(DemandFetcher.STATE.PAUSED, FieldUtils.readField(demandFetcher, "state", true));
+        assertEquals(0, server.getRequestCount());
+
+        // and back to the foreground
+        AppLifecycle.getInstance().onActivityStarted(activity);
+        assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
+        fetcherLooper.runOneTask();
+        fetcherLooper.runOneTask();
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+        verify(mockListener).onComplete(ResultCode.SUCCESS);
+        assertEquals(1, server.getRequestCount());
+        demandFetcher.destroy();
+    }
+
     @Test
     public void testAutoRefreshForDFPAdObject() throws Exception {
         HttpUrl httpUrl = server.url("/");
@@ -401,8 +493,7 @@ public class DemandFetcherTest extends BaseSetup {
         assertEquals(DemandFetcher.STATE.RUNNING, FieldUtils.readField(demandFetcher, "state", true));
         ShadowLooper fetcherLooper = Shadows.shadowOf(demandFetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = Shadows.shadowOf(demandFetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.SUCCESS);
@@ -430,7 +521,7 @@ public class DemandFetcherTest extends BaseSetup {
         assertTrue(bundle.containsKey("hb_size_appnexus"));
         assertEquals("300x250", bundle.get("hb_size_appnexus"));
         fetcherLooper.runOneTask();
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.NO_BIDS);
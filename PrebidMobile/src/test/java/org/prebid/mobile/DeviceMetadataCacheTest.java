@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.prebid.mobile;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class DeviceMetadataCacheTest extends BaseSetup {
+
+    private final List<Runnable> queued = new ArrayList<>();
+    private boolean runDirectly;
+
+    @Override
+    public void setup() {
+        super.setup();
+        AuctionExecutors.setBackgroundExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (runDirectly) {
+                    command.run();
+                } else {
+                    queued.add(command);
+                }
+            }
+        });
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        queued.clear();
+        clear();
+    }
+
+    @Override
+    public void tearDown() {
+        AuctionExecutors.setBackgroundExecutor(null);
+        clear();
+        super.tearDown();
+    }
+
+    @Test
+    public void testStoredMetadataIsRestored() throws Exception {
+        StorageUtils.setPbDeviceMetadata(storedMetadata(DeviceMetadataCache.getInstallation(activity.getApplicationContext())));
+        int snapshotVersion = RequestSnapshot.getVersion();
+
+        DeviceMetadataCache.load(activity);
+        // restoring only, the revalidation is queued after it
+        queued.remove(0).run();
+
+        assertEquals("9.9", PrebidServerSettings.pkgVersion);
+        assertEquals("Cached App", PrebidServerSettings.appName);
+        assertEquals("Cached Carrier", PrebidServerSettings.getCarrierName());
+        assertEquals(310, PrebidServerSettings.getMCC());
+        assertEquals(260, PrebidServerSettings.getMNC());
+        assertNull(AdvertisingIDUtil.getAAID());
+        assertTrue(RequestSnapshot.getVersion() > snapshotVersion);
+        assertEquals(1, queued.size());
+    }
+
+    @Test
+    public void testMetadataOfAnotherInstallationIsReplaced() throws Exception {
+        StorageUtils.setPbDeviceMetadata(storedMetadata("older installation"));
+        runDirectly = true;
+
+        DeviceMetadataCache.load(activity);
+
+        assertFalse("9.9".equals(PrebidServerSettings.pkgVersion));
+        assertFalse("Cached App".equals(PrebidServerSettings.appName));
+        JSONObject stored = new JSONObject(StorageUtils.getPbDeviceMetadata());
+        assertEquals(DeviceMetadataCache.VERSION, stored.getInt("version"));
+        assertEquals(DeviceMetadataCache.getInstallation(activity.getApplicationContext()), stored.getString("installation"));
+        assertFalse(stored.has("aaid"));
+    }
+
+    private static String storedMetadata(String installation) throws Exception {
+        JSONObject metadata = new JSONObject();
+        metadata.put("version", DeviceMetadataCache.VERSION);
+        metadata.put("installation", installation);
+        metadata.put("pkgVersion", "9.9");
+        metadata.put("appName", "Cached App");
+        metadata.put("carrier", "Cached Carrier");
+        metadata.put("mcc", 310);
+        metadata.put("mnc", 260);
+        // never restored, only a freshly retrieved advertising id is sent
+        metadata.put("aaid", "cached-aaid");
+        return metadata.toString();
+    }
+
+    private static void clear() {
+        DeviceMetadataCache.reset();
+        PrebidServerSettings.pkgVersion = "";
+        PrebidServerSettings.appName = "";
+        PrebidServerSettings.setCarrierName(null);
+        PrebidServerSettings.setMCC(-1);
+        PrebidServerSettings.setMNC(-1);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class HostSelectorTest {
+
+    private static final String PRIMARY = "https://pbs.example.com/openrtb2/auction";
+    private static final String FALLBACK = "https://pbs-eu.example.com/openrtb2/auction";
+
+    private HostSelector hostSelector;
+
+    @Before
+    public void setUp() {
+        hostSelector = HostSelector.getInstance();
+        hostSelector.clear();
+        Host.CUSTOM.setHostUrl(PRIMARY);
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setFallbackHostUrls(FALLBACK);
+    }
+
+    @After
+    public void tearDown() {
+        hostSelector.clear();
+    }
+
+    @Test
+    public void testPrimaryUsedFirst() {
+        assertEquals(PRIMARY, hostSelector.selectHost());
+
+        hostSelector.onFailure(PRIMARY);
+        assertEquals(PRIMARY, hostSelector.selectHost());
+    }
+
+    @Test
+    public void testFailoverAndRecovery() {
+        for (int i = 0; i < HostSelector.FAILURES_TO_OPEN; i++) {
+            hostSelector.onFailure(PRIMARY);
+        }
+        assertEquals(FALLBACK, hostSelector.selectHost());
+
+        // the probe after the cooldown fails, the next cooldown is twice as long
+        SystemClock.sleep(HostSelector.COOLDOWN_MILLIS);
+        assertEquals(PRIMARY, hostSelector.selectHost());
+        hostSelector.onFailure(PRIMARY);
+        SystemClock.sleep(HostSelector.COOLDOWN_MILLIS);
+        assertEquals(FALLBACK, hostSelector.selectHost());
+
+        SystemClock.sleep(HostSelector.COOLDOWN_MILLIS);
+        assertEquals(PRIMARY, hostSelector.selectHost());
+        hostSelector.onSuccess(PRIMARY, 100);
+        assertEquals(PRIMARY, hostSelector.selectHost());
+    }
+
+    @Test
+    public void testSingleProbeAfterCooldown() {
+        for (int i = 0; i < HostSelector.FAILURES_TO_OPEN; i++) {
+            hostSelector.onFailure(PRIMARY);
+        }
+        SystemClock.sleep(HostSelector.COOLDOWN_MILLIS);
+
+        assertEquals(PRIMARY, hostSelector.selectHost());
+        // the probe has not reported back yet
+        assertEquals(FALLBACK, hostSelector.selectHost());
+        assertEquals(FALLBACK, hostSelector.selectHedgeHost(FALLBACK));
+
+        SystemClock.sleep(HostSelector.PROBE_TIMEOUT_MILLIS);
+        assertEquals(PRIMARY, hostSelector.selectHost());
+        hostSelector.onSuccess(PRIMARY, 100);
+        assertEquals(PRIMARY, hostSelector.selectHost());
+        assertEquals(PRIMARY, hostSelector.selectHost());
+    }
+
+    @Test
+    public void testAllFailingUsesTheOneRecoveringFirst() {
+        for (int i = 0; i < HostSelector.FAILURES_TO_OPEN; i++) {
+            hostSelector.onFailure(PRIMARY);
+        }
+        SystemClock.sleep(1000);
+        for (int i = 0; i < HostSelector.FAILURES_TO_OPEN; i++) {
+            hostSelector.onFailure(FALLBACK);
+        }
+        assertEquals(PRIMARY, hostSelector.selectHost());
+    }
+
+    @Test
+    public void testFasterHostTakesOver() {
+        hostSelector.onSuccess(PRIMARY, 600);
+        assertEquals(PRIMARY, hostSelector.selectHost());
+
+        hostSelector.onSuccess(FALLBACK, 150);
+        int primarySelections = 0;
+        for (int i = 0; i < HostSelector.EXPLORE_EVERY; i++) {
+            if (PRIMARY.equals(hostSelector.selectHost())) {
+                primarySelections++;
+            }
+        }
+        // only to keep the latency of the primary current
+        assertEquals(1, primarySelections);
+    }
+
+    @Test
+    public void testUnmeasuredFallbackExplored() {
+        hostSelector.onSuccess(PRIMARY, 300);
+        int fallbackSelections = 0;
+        for (int i = 0; i < HostSelector.EXPLORE_EVERY; i++) {
+            String url = hostSelector.selectHost();
+            if (FALLBACK.equals(url)) {
+                fallbackSelections++;
+                hostSelector.onSuccess(FALLBACK, 100);
+            } else {
+                hostSelector.onSuccess(PRIMARY, 300);
+            }
+        }
+        // the healthy primary doesn't keep the fallback from being measured
+        assertEquals(1, fallbackSelections);
+        assertEquals(FALLBACK, hostSelector.selectHost());
+    }
+
+    @Test
+    public void testNoFallbacks() {
+        PrebidMobile.setFallbackHostUrls();
+        for (int i = 0; i < HostSelector.FAILURES_TO_OPEN; i++) {
+            hostSelector.onFailure(PRIMARY);
+        }
+        assertEquals(PRIMARY, hostSelector.selectHost());
+    }
+
+    @Test
+    public void testHedgeHost() {
+        assertEquals(FALLBACK, hostSelector.selectHedgeHost(PRIMARY));
+        assertEquals(PRIMARY, hostSelector.selectHedgeHost(FALLBACK));
+
+        for (int i = 0; i < HostSelector.FAILURES_TO_OPEN; i++) {
+            hostSelector.onFailure(FALLBACK);
+        }
+        assertEquals(PRIMARY, hostSelector.selectHedgeHost(PRIMARY));
+
+        PrebidMobile.setFallbackHostUrls();
+        assertEquals(PRIMARY, hostSelector.selectHedgeHost(PRIMARY));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK)
+public class HttpTransportTest extends BaseSetup {
+
+    @Test
+    public void testSharedInstance() {
+        assertSame(HttpTransport.getInstance(), HttpTransport.getInstance());
+    }
+
+    @Test
+    public void testConnectionReturnedAfterRelease() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        HttpTransport transport = new HttpTransport(1);
+        URL url = server.url("/").url();
+
+        HttpURLConnection conn = transport.openConnection(url, 100);
+        assertEquals(0, transport.getAvailableConnections());
+        assertEquals(200, conn.getResponseCode());
+        transport.release(conn, conn.getInputStream());
+        assertEquals(1, transport.getAvailableConnections());
+
+        // releasing twice must not hand out an extra slot
+        transport.release(conn, null);
+        transport.discard(conn);
+        assertEquals(1, transport.getAvailableConnections());
+    }
+
+    @Test
+    public void testPreconnectPoolsTheConnection() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(405));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        HttpTransport transport = new HttpTransport(1);
+        URL url = server.url("/openrtb2/auction").url();
+
+        assertTrue(transport.preconnect(url, 1000));
+        assertEquals(1, transport.getAvailableConnections());
+        RecordedRequest preconnect = server.takeRequest();
+        assertEquals("HEAD", preconnect.getMethod());
+
+        HttpURLConnection conn = transport.openConnection(url, 100);
+        assertEquals(200, conn.getResponseCode());
+        transport.release(conn, conn.getInputStream());
+        // the second request on the same socket
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void testPreconnectSkippedWhenAllSlotsBusy() throws Exception {
+        HttpTransport transport = new HttpTransport(1);
+        URL url = server.url("/").url();
+
+        HttpURLConnection conn = transport.openConnection(url, 100);
+        assertFalse(transport.preconnect(url, 1000));
+        assertEquals(0, server.getRequestCount());
+
+        transport.discard(conn);
+    }
+
+    @Test
+    public void testOpenConnectionTimesOutWhenAllSlotsBusy() throws Exception {
+        HttpTransport transport = new HttpTransport(1);
+        URL url = server.url("/").url();
+
+        HttpURLConnection conn = transport.openConnection(url, 100);
+        try {
+            transport.openConnection(url, 10);
+            fail("Expected SocketTimeoutException");
+        } catch (SocketTimeoutException expected) {
+        }
+
+        transport.discard(conn);
+        assertEquals(1, transport.getAvailableConnections());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.prebid.mobile;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLocationManager;
+
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class LocationProviderTest extends BaseSetup {
+
+    @Override
+    public void setup() {
+        super.setup();
+        AuctionExecutors.setBackgroundExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                bgScheduler.post(command);
+            }
+        });
+    }
+
+    @Override
+    public void tearDown() {
+        PrebidMobile.setShareGeoLocation(false);
+        AuctionExecutors.setBackgroundExecutor(null);
+        super.tearDown();
+    }
+
+    @Test
+    public void testLocationIsReadInTheBackground() {
+        shadowOf(activity).grantPermissions("android.permission.ACCESS_FINE_LOCATION");
+        LocationManager locationManager = (LocationManager) activity.getApplicationContext().getSystemService(Context.LOCATION_SERVICE);
+        ShadowLocationManager shadowLocationManager = shadowOf(locationManager);
+        shadowLocationManager.setProviderEnabled(LocationManager.GPS_PROVIDER, true);
+        shadowLocationManager.setLastKnownLocation(LocationManager.GPS_PROVIDER, location(52.52, 13.40, System.currentTimeMillis() - 1000));
+
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        PrebidMobile.setShareGeoLocation(true);
+        assertNull(LocationProvider.getInstance().getGeo());
+        Robolectric.flushBackgroundThreadScheduler();
+
+        LocationProvider.Geo geo = LocationProvider.getInstance().getGeo();
+        assertNotNull(geo);
+        assertEquals(52.52, geo.latitude);
+        assertEquals(13.40, geo.longitude);
+        assertEquals(10, geo.accuracy);
+        assertTrue(geo.getAgeMillis() >= 1000);
+
+        // not read again before the refresh interval is over
+        shadowLocationManager.setLastKnownLocation(LocationManager.GPS_PROVIDER, location(40.71, -74.00, System.currentTimeMillis()));
+        LocationProvider.getInstance().getGeo();
+        Robolectric.flushBackgroundThreadScheduler();
+        assertEquals(52.52, LocationProvider.getInstance().getGeo().latitude);
+
+        // a newer fix obtained by another app
+        assertEquals(1, shadowLocationManager.getRequestLocationUpdateListeners().size());
+        shadowLocationManager.getRequestLocationUpdateListeners().get(0).onLocationChanged(location(48.14, 11.58, System.currentTimeMillis()));
+        assertEquals(48.14, LocationProvider.getInstance().getGeo().latitude);
+
+        PrebidMobile.setShareGeoLocation(false);
+        assertNull(LocationProvider.getInstance().getGeo());
+        assertTrue(shadowLocationManager.getRequestLocationUpdateListeners().isEmpty());
+    }
+
+    private static Location location(double latitude, double longitude, long time) {
+        Location location = new Location(LocationManager.GPS_PROVIDER);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setAccuracy(10);
+        location.setTime(time);
+        return location;
+    }
+}
@@ -290,4 +290,17 @@ public class NativeRequestParamsTest {
         assertEquals("request", NativeRequestParams.REQUEST);
     }
 
+    @Test
+    public void testNativeRequestParamsCopy() {
+        NativeRequestParams requestParams = new NativeRequestParams();
+        requestParams.setPlacementCount(2);
+        requestParams.addAsset(new NativeTitleAsset());
+        NativeRequestParams copy = requestParams.copy();
+        requestParams.setPlacementCount(3);
+        requestParams.addAsset(new NativeTitleAsset());
+        assertEquals(2, copy.getPlacementCount());
+        assertEquals(1, copy.getAssets().size());
+        assertEquals(2, requestParams.getAssets().size());
+    }
+
 }
\ No newline at end of file
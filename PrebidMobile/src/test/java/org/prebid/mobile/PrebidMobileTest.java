@@ -22,9 +22,19 @@ import org.prebid.mobile.testutils.BaseSetup;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = BaseSetup.testSDK)
@@ -49,4 +59,45 @@ public class PrebidMobileTest extends BaseSetup {
         PrebidMobile.clearStoredBidResponses();
         assertTrue(PrebidMobile.getStoredBidResponses().isEmpty());
     }
+
+    @Test
+    public void testInitialize() throws Exception {
+        AuctionExecutors.setBackgroundExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        // the initialization waits on a thread of its own
+        PrebidMobile.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        UserAgentProvider.reset();
+        PrebidServerSettings.userAgent = null;
+        try {
+            server.enqueue(new MockResponse().setResponseCode(200));
+            Host.CUSTOM.setHostUrl(server.url("/").toString());
+            PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+            PrebidMobile.setApplicationContext(activity.getApplicationContext());
+            StorageUtils.setPbUserAgent("Stored/1.0", UserAgentProvider.getVersion(activity.getApplicationContext()));
+            OnInitializationCompleteListener listener = mock(OnInitializationCompleteListener.class);
+
+            PrebidMobile.initialize(activity, listener);
+
+            verify(listener, timeout(SdkInitializer.TIMEOUT_MILLIS)).onInitializationComplete();
+            assertEquals(activity.getApplicationContext(), PrebidMobile.getApplicationContext());
+            assertEquals("Stored/1.0", PrebidServerSettings.userAgent);
+            RecordedRequest preconnect = server.takeRequest(1, TimeUnit.SECONDS);
+            assertNotNull(preconnect);
+            assertEquals("HEAD", preconnect.getMethod());
+        } finally {
+            AuctionExecutors.setBackgroundExecutor(null);
+            PrebidMobile.setCallbackExecutor(null);
+            UserAgentProvider.reset();
+            PrebidServerSettings.userAgent = null;
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package org.prebid.mobile;
 
 import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -33,6 +34,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ErrorCollector;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 import org.prebid.mobile.testutils.BaseSetup;
 import org.prebid.mobile.testutils.MockPrebidServerResponses;
 import org.prebid.mobile.testutils.Utils;
@@ -41,9 +44,11 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLooper;
 
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -51,14 +56,19 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import okhttp3.HttpUrl;
 import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
@@ -70,6 +80,7 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -115,6 +126,59 @@ public class PrebidServerAdapterTest extends BaseSetup {
 
     }
 
+    @Test
+    public void testBidLogEntry() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setPrebidServerAccountId("12345");
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
+        PrebidServerAdapter adapter = new PrebidServerAdapter();
+        HashSet<AdSize> sizes = new HashSet<>();
+        sizes.add(new AdSize(300, 250));
+        RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+        String uuid = UUID.randomUUID().toString();
+        BidLog.getInstance().setRecordBodies(true);
+        try {
+            adapter.requestDemand(requestParams, mockListener, uuid);
+            Robolectric.flushBackgroundThreadScheduler();
+            Robolectric.flushForegroundThreadScheduler();
+        } finally {
+            BidLog.getInstance().setRecordBodies(false);
+        }
+
+        BidLog.BidLogEntry entry = BidLog.getInstance().getLastBid();
+        assertEquals(200, entry.getResponseCode());
+        assertEquals(server.takeRequest().getBody().readUtf8(), entry.getRequestBody());
+        assertEquals(MockPrebidServerResponses.oneBidFromAppNexus(), entry.getResponse());
+    }
+
+    @Test
+    public void testBidLogEntryWithoutBodies() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setPrebidServerAccountId("12345");
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
+        PrebidServerAdapter adapter = new PrebidServerAdapter();
+        HashSet<AdSize> sizes = new HashSet<>();
+        sizes.add(new AdSize(300, 250));
+        RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+        String uuid = UUID.randomUUID().toString();
+        adapter.requestDemand(requestParams, mockListener, uuid);
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+
+        // the response is only copied for the log when it is asked for
+        BidLog.BidLogEntry entry = BidLog.getInstance().getLastBid();
+        assertEquals(200, entry.getResponseCode());
+        assertEquals("", entry.getResponse());
+    }
+
     @Test
     public void testInvalidPrebidServerAccountIdForAppNexusHostedPrebidServer() {
         PrebidMobile.setPrebidServerHost(Host.APPNEXUS);
@@ -235,53 +299,137 @@ public class PrebidServerAdapterTest extends BaseSetup {
     }
 
     @Test
-    public void testUpdateTimeoutMillis() {
-        PrebidMobile.setPrebidServerHost(Host.APPNEXUS);
-        assertEquals(2000, PrebidMobile.getTimeoutMillis());
-        assertFalse(PrebidMobile.timeoutMillisUpdated);
-        PrebidMobile.setPrebidServerAccountId("b7adad2c-e042-4126-8ca1-b3caac7d3e5c");
-        PrebidMobile.setShareGeoLocation(true);
+    public void testTimeoutAdaptsToLatency() {
+        AdaptiveTimeout.getInstance().clear();
+        for (int i = 0; i < AdaptiveTimeout.MIN_SAMPLES; i++) {
+            server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBidResponseNoTmax()));
+        }
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setTimeoutMillis(2000);
+        PrebidMobile.setPrebidServerAccountId("12345");
         PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        String networkClass = ConnectivityMonitor.getInstance().getState().networkClass;
         DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
         PrebidServerAdapter adapter = new PrebidServerAdapter();
         HashSet<AdSize> sizes = new HashSet<>();
         sizes.add(new AdSize(300, 250));
-        RequestParams requestParams = new RequestParams("e2edc23f-0b3b-4203-81b5-7cc97132f418", AdType.BANNER, sizes);
-        String uuid = UUID.randomUUID().toString();
-        adapter.requestDemand(requestParams, mockListener, uuid);
-        Robolectric.flushBackgroundThreadScheduler();
-        Robolectric.flushForegroundThreadScheduler();
-        verify(mockListener).onDemandFailed(ResultCode.NO_BIDS, uuid);
-        assertTrue("Actual Prebid Mobile timeout is " + PrebidMobile.getTimeoutMillis(), PrebidMobile.getTimeoutMillis() <= 2000 && PrebidMobile.getTimeoutMillis() > 700);
-        assertTrue(PrebidMobile.timeoutMillisUpdated);
+        RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+        for (int i = 0; i < AdaptiveTimeout.MIN_SAMPLES; i++) {
+            assertEquals(2000, AdaptiveTimeout.getInstance().getTimeoutMillis(hostUrl.toString(), networkClass));
+            adapter.requestDemand(requestParams, mockListener, UUID.randomUUID().toString());
+            Robolectric.flushBackgroundThreadScheduler();
+            Robolectric.flushForegroundThreadScheduler();
+        }
+        int timeoutMillis = AdaptiveTimeout.getInstance().getTimeoutMillis(hostUrl.toString(), networkClass);
+        assertTrue("Actual adaptive timeout is " + timeoutMillis, timeoutMillis >= PrebidMobile.getTimeoutMarginMillis() && timeoutMillis < 2000);
+        assertEquals(2000, PrebidMobile.getTimeoutMillis());
+    }
+
+    @Test
+    public void testSlowAuctionIsHedged() throws Exception {
+        AdaptiveTimeout.getInstance().clear();
+        HostSelector.getInstance().clear();
+        MockWebServer hedgeServer = new MockWebServer();
+        hedgeServer.start();
+        try {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                    // the clock of the test only moves when told to
+                    SystemClock.sleep(100);
+                    Thread.sleep(1000);
+                    return new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid());
+                }
+            });
+            hedgeServer.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+            HttpUrl hostUrl = server.url("/");
+            Host.CUSTOM.setHostUrl(hostUrl.toString());
+            PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+            PrebidMobile.setFallbackHostUrls(hedgeServer.url("/").toString());
+            PrebidMobile.setHedgingPercentile(90);
+            PrebidMobile.setTimeoutMillis(2000);
+            PrebidMobile.setPrebidServerAccountId("12345");
+            PrebidMobile.setApplicationContext(activity.getApplicationContext());
+            String networkClass = ConnectivityMonitor.getInstance().getState().networkClass;
+            for (int i = 0; i < AdaptiveTimeout.MIN_SAMPLES; i++) {
+                AdaptiveTimeout.getInstance().addSample(hostUrl.toString(), networkClass, 100);
+            }
+            DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
+            PrebidServerAdapter adapter = new PrebidServerAdapter();
+            HashSet<AdSize> sizes = new HashSet<>();
+            sizes.add(new AdSize(300, 250));
+            RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+            String uuid = UUID.randomUUID().toString();
+            adapter.requestDemand(requestParams, mockListener, uuid);
+            Robolectric.flushBackgroundThreadScheduler();
+            Robolectric.flushForegroundThreadScheduler();
+
+            assertEquals(1, server.getRequestCount());
+            assertEquals(1, hedgeServer.getRequestCount());
+            ArgumentCaptor<HashMap> bids = ArgumentCaptor.forClass(HashMap.class);
+            verify(mockListener).onDemandReady(bids.capture(), eq(uuid));
+            assertEquals("0.50", bids.getValue().get("hb_pb"));
+            // the hedge asks for no more than the time left when it is sent
+            JSONObject primaryRequest = new JSONObject(server.takeRequest().getBody().readUtf8());
+            JSONObject hedgedRequest = new JSONObject(hedgeServer.takeRequest().getBody().readUtf8());
+            assertEquals(primaryRequest.getString("id"), hedgedRequest.getString("id"));
+            assertTrue(hedgedRequest.getInt("tmax") <= primaryRequest.getInt("tmax") - 100);
+            hedgedRequest.put("tmax", primaryRequest.getInt("tmax"));
+            assertEquals(primaryRequest.toString(), hedgedRequest.toString());
+            // the request that lost doesn't count as a latency of its host
+            assertEquals(100, AdaptiveTimeout.getInstance().getLatencyPercentile(hostUrl.toString(), networkClass, 100));
+        } finally {
+            PrebidMobile.setHedgingPercentile(0);
+            PrebidMobile.setFallbackHostUrls();
+            HostSelector.getInstance().clear();
+            AdaptiveTimeout.getInstance().clear();
+            hedgeServer.shutdown();
+        }
     }
 
     @Test
-    public void testUpdateTimeoutMillis2() {
-        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBidResponseNoTmax()));
-        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBidResponseTmaxTooLarge()));
+    public void testInjectedExecutors() {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
         HttpUrl hostUrl = server.url("/");
         Host.CUSTOM.setHostUrl(hostUrl.toString());
         PrebidMobile.setPrebidServerHost(Host.CUSTOM);
         PrebidMobile.setPrebidServerAccountId("12345");
-        PrebidMobile.setShareGeoLocation(true);
         PrebidMobile.setApplicationContext(activity.getApplicationContext());
-        DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
-        PrebidServerAdapter adapter = new PrebidServerAdapter();
-        HashSet<AdSize> sizes = new HashSet<>();
-        sizes.add(new AdSize(300, 250));
-        RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
-        String uuid = UUID.randomUUID().toString();
-        adapter.requestDemand(requestParams, mockListener, uuid);
-        Robolectric.flushBackgroundThreadScheduler();
-        Robolectric.flushForegroundThreadScheduler();
-        assertEquals("Actual Prebid Mobile timeout is " + PrebidMobile.getTimeoutMillis(), 2000, PrebidMobile.getTimeoutMillis());
-        assertTrue(!PrebidMobile.timeoutMillisUpdated);
-        adapter.requestDemand(requestParams, mockListener, uuid);
-        Robolectric.flushBackgroundThreadScheduler();
-        Robolectric.flushForegroundThreadScheduler();
-        assertEquals("Actual Prebid Mobile timeout is " + PrebidMobile.getTimeoutMillis(), 2000, PrebidMobile.getTimeoutMillis());
-        assertTrue(PrebidMobile.timeoutMillisUpdated);
+        final ArrayList<Runnable> auctions = new ArrayList<>();
+        final ArrayList<Runnable> callbacks = new ArrayList<>();
+        PrebidMobile.setAuctionExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                auctions.add(command);
+            }
+        });
+        PrebidMobile.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                callbacks.add(command);
+            }
+        });
+        try {
+            DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
+            PrebidServerAdapter adapter = new PrebidServerAdapter();
+            HashSet<AdSize> sizes = new HashSet<>();
+            sizes.add(new AdSize(320, 50));
+            RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+            String uuid = UUID.randomUUID().toString();
+            adapter.requestDemand(requestParams, mockListener, uuid);
+
+            assertEquals(1, auctions.size());
+            auctions.get(0).run();
+            verify(mockListener, never()).onDemandFailed(ResultCode.NO_BIDS, uuid);
+            // the result is applied on the main thread, the callback executor is only for the listeners of the app
+            Robolectric.flushForegroundThreadScheduler();
+            verify(mockListener).onDemandFailed(ResultCode.NO_BIDS, uuid);
+            assertTrue(callbacks.isEmpty());
+        } finally {
+            PrebidMobile.setCallbackExecutor(null);
+        }
     }
 
     @Test
@@ -305,6 +453,89 @@ public class PrebidServerAdapterTest extends BaseSetup {
         verify(mockListener).onDemandFailed(ResultCode.NO_BIDS, uuid);
     }
 
+    @Test
+    public void testGzippedRequestAndResponse() throws Exception {
+        ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(responseBody);
+        gzip.write(MockPrebidServerResponses.oneBidFromAppNexus().getBytes("UTF-8"));
+        gzip.close();
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(new Buffer().write(responseBody.toByteArray())));
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setPrebidServerAccountId("12345");
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        PrebidMobile.setRequestCompressionThreshold(0);
+        try {
+            DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
+            PrebidServerAdapter adapter = new PrebidServerAdapter();
+            HashSet<AdSize> sizes = new HashSet<>();
+            sizes.add(new AdSize(320, 50));
+            RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+            String uuid = UUID.randomUUID().toString();
+            adapter.requestDemand(requestParams, mockListener, uuid);
+            Robolectric.flushBackgroundThreadScheduler();
+            Robolectric.flushForegroundThreadScheduler();
+
+            RecordedRequest request = server.takeRequest();
+            assertEquals("gzip", request.getHeader("Content-Encoding"));
+            assertEquals("gzip", request.getHeader("Accept-Encoding"));
+            // gzipped on the way to the connection, the compressed length isn't known up front
+            assertEquals("chunked", request.getHeader("Transfer-Encoding"));
+            Buffer requestBody = new Buffer();
+            requestBody.readFrom(new GZIPInputStream(request.getBody().inputStream()));
+            JSONObject postData = new JSONObject(requestBody.readUtf8());
+            assertEquals("67890", postData.getJSONArray("imp").getJSONObject(0).getJSONObject("ext").getJSONObject("prebid").getJSONObject("storedrequest").getString("id"));
+
+            HashMap<String, String> bids = new HashMap<>();
+            bids.put("hb_bidder", "appnexus");
+            bids.put("hb_bidder_appnexus", "appnexus");
+            bids.put("hb_cache_id", "df4aba04-5e69-44b8-8608-058ab21600b8");
+            bids.put("hb_cache_id_appnexus", "df4aba04-5e69-44b8-8608-058ab21600b8");
+            bids.put("hb_env", "mobile-app");
+            bids.put("hb_env_appnexus", "mobile-app");
+            bids.put("hb_pb", "0.50");
+            bids.put("hb_pb_appnexus", "0.50");
+            bids.put("hb_size", "300x250");
+            bids.put("hb_size_appnexus", "300x250");
+            verify(mockListener).onDemandReady(bids, uuid);
+        } finally {
+            PrebidMobile.setRequestCompressionThreshold(-1);
+        }
+    }
+
+    @Test
+    public void testSmallRequestNotGzipped() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setPrebidServerAccountId("12345");
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        PrebidMobile.setRequestCompressionThreshold(1024 * 1024);
+        try {
+            DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
+            PrebidServerAdapter adapter = new PrebidServerAdapter();
+            HashSet<AdSize> sizes = new HashSet<>();
+            sizes.add(new AdSize(320, 50));
+            RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+            String uuid = UUID.randomUUID().toString();
+            adapter.requestDemand(requestParams, mockListener, uuid);
+            Robolectric.flushBackgroundThreadScheduler();
+            Robolectric.flushForegroundThreadScheduler();
+
+            RecordedRequest request = server.takeRequest();
+            assertNull(request.getHeader("Content-Encoding"));
+            assertEquals(String.valueOf(request.getBodySize()), request.getHeader("Content-Length"));
+            new JSONObject(request.getBody().readUtf8());
+            verify(mockListener).onDemandFailed(ResultCode.NO_BIDS, uuid);
+        } finally {
+            PrebidMobile.setRequestCompressionThreshold(-1);
+        }
+    }
+
     @Test
     public void testNoBidRubiconResponse() {
         server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBidFromRubicon()));
@@ -619,6 +850,131 @@ public class PrebidServerAdapterTest extends BaseSetup {
         verify(mockListener, never()).onDemandFailed(ResultCode.NO_BIDS, uuid);
     }
 
+    @Test
+    public void testStopRequestInFlightDisconnects() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                Thread.sleep(3000);
+                return new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus());
+            }
+        });
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setPrebidServerAccountId("12345");
+        PrebidMobile.setTimeoutMillis(10_000);
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        AdaptiveTimeout.getInstance().clear();
+        final DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
+        final PrebidServerAdapter adapter = new PrebidServerAdapter();
+        HashSet<AdSize> sizes = new HashSet<>();
+        sizes.add(new AdSize(300, 250));
+        RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+        final String uuid = UUID.randomUUID().toString();
+        final PrebidServerAdapter.ServerConnector connector = new PrebidServerAdapter.ServerConnector(Collections.singletonList(
+                new PrebidServerAdapter.ImpRequest(adapter, mockListener, requestParams, uuid, null)));
+        adapter.addServerConnector(connector);
+        connector.execute();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                connector.destroy(uuid);
+            }
+        }).start();
+        long start = System.currentTimeMillis();
+        Robolectric.flushBackgroundThreadScheduler();
+        long elapsed = System.currentTimeMillis() - start;
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertTrue("The auction kept waiting for " + elapsed + " ms", elapsed < 2000);
+        assertEquals(1, server.getRequestCount());
+        verify(mockListener, never()).onDemandReady(ArgumentMatchers.<HashMap<String, String>>any(), eq(uuid));
+        PrebidMobile.setTimeoutMillis(2000);
+    }
+
+    @Test
+    public void testDeadlineIsSocketTimeout() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                Thread.sleep(3000);
+                return new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus());
+            }
+        });
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setPrebidServerAccountId("12345");
+        PrebidMobile.setTimeoutMillis(300);
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        AdaptiveTimeout.getInstance().clear();
+        DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
+        PrebidServerAdapter adapter = new PrebidServerAdapter();
+        HashSet<AdSize> sizes = new HashSet<>();
+        sizes.add(new AdSize(300, 250));
+        RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+        String uuid = UUID.randomUUID().toString();
+        adapter.requestDemand(requestParams, mockListener, uuid);
+
+        long start = System.currentTimeMillis();
+        Robolectric.flushBackgroundThreadScheduler();
+        long elapsed = System.currentTimeMillis() - start;
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertTrue("The auction kept waiting for " + elapsed + " ms", elapsed < 2000);
+        verify(mockListener).onDemandFailed(ResultCode.TIMEOUT, uuid);
+        PrebidMobile.setTimeoutMillis(2000);
+        AdaptiveTimeout.getInstance().clear();
+    }
+
+    @Test
+    public void testFirstByteTimeout() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                Thread.sleep(3000);
+                return new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus());
+            }
+        });
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setPrebidServerAccountId("12345");
+        PrebidMobile.setTimeoutMillis(2000);
+        PrebidMobile.setFirstByteTimeoutMillis(300);
+        PrebidMobile.setReadIdleTimeoutMillis(100);
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        AdaptiveTimeout.getInstance().clear();
+        try {
+            DemandAdapter.DemandAdapterListener mockListener = mock(DemandAdapter.DemandAdapterListener.class);
+            PrebidServerAdapter adapter = new PrebidServerAdapter();
+            HashSet<AdSize> sizes = new HashSet<>();
+            sizes.add(new AdSize(300, 250));
+            RequestParams requestParams = new RequestParams("67890", AdType.BANNER, sizes);
+            String uuid = UUID.randomUUID().toString();
+            adapter.requestDemand(requestParams, mockListener, uuid);
+
+            long start = System.currentTimeMillis();
+            Robolectric.flushBackgroundThreadScheduler();
+            long elapsed = System.currentTimeMillis() - start;
+            Robolectric.flushForegroundThreadScheduler();
+
+            assertTrue("The auction kept waiting for " + elapsed + " ms", elapsed < 1000);
+            verify(mockListener).onDemandFailed(ResultCode.TIMEOUT, uuid);
+        } finally {
+            PrebidMobile.setFirstByteTimeoutMillis(0);
+            PrebidMobile.setReadIdleTimeoutMillis(0);
+            AdaptiveTimeout.getInstance().clear();
+        }
+    }
+
     @Test
     public void testAdUnitKeyValuesInPostData() throws Exception {
         server.setDispatcher(new Dispatcher() {
@@ -657,8 +1013,7 @@ public class PrebidServerAdapterTest extends BaseSetup {
         PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
         ShadowLooper fetcherLooper = shadowOf(fetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = shadowOf(fetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         Host.CUSTOM.setHostUrl(server.url("/clearKeywords").toString());
@@ -670,8 +1025,7 @@ public class PrebidServerAdapterTest extends BaseSetup {
         PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
         fetcherLooper = shadowOf(fetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        demandLooper = shadowOf(fetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener, times(1)).onComplete(ResultCode.NO_BIDS);
@@ -703,13 +1057,14 @@ public class PrebidServerAdapterTest extends BaseSetup {
         String uuid = UUID.randomUUID().toString();
         adapter.requestDemand(requestParams, mockListener, uuid);
         @SuppressWarnings("unchecked")
-        ArrayList<PrebidServerAdapter.ServerConnector> connectors = (ArrayList<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
+        List<PrebidServerAdapter.ServerConnector> connectors = (List<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
         PrebidServerAdapter.ServerConnector connector = connectors.get(0);
         assertEquals(uuid, connector.getAuctionId());
         JSONObject postData = (JSONObject) MethodUtils.invokeMethod(connector, true, "getPostData");
-        assertEquals(8, postData.length());
+        assertEquals(9, postData.length());
         assertTrue(postData.has("id"));
         assertTrue(postData.has("source"));
+        assertEquals(PrebidMobile.getTimeoutMillis(), postData.getInt("tmax"));
         assertTrue(postData.has("imp"));
         assertTrue(postData.has("device"));
         assertTrue(postData.has("app"));
@@ -913,7 +1268,7 @@ public class PrebidServerAdapterTest extends BaseSetup {
         String uuid = UUID.randomUUID().toString();
         adapter.requestDemand(requestParams, mockListener, uuid);
         @SuppressWarnings("unchecked")
-        ArrayList<PrebidServerAdapter.ServerConnector> connectors = (ArrayList<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
+        List<PrebidServerAdapter.ServerConnector> connectors = (List<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
         PrebidServerAdapter.ServerConnector connector = connectors.get(0);
 
         JSONObject postData = (JSONObject) MethodUtils.invokeMethod(connector, true, "getPostData");
@@ -951,7 +1306,7 @@ public class PrebidServerAdapterTest extends BaseSetup {
         String uuid = UUID.randomUUID().toString();
         adapter.requestDemand(requestParams, mockListener, uuid);
         @SuppressWarnings("unchecked")
-        ArrayList<PrebidServerAdapter.ServerConnector> connectors = (ArrayList<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
+        List<PrebidServerAdapter.ServerConnector> connectors = (List<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
         PrebidServerAdapter.ServerConnector connector = connectors.get(0);
 
         JSONObject postData = (JSONObject) MethodUtils.invokeMethod(connector, true, "getPostData");
@@ -995,7 +1350,7 @@ public class PrebidServerAdapterTest extends BaseSetup {
         String uuid = UUID.randomUUID().toString();
         adapter.requestDemand(requestParams, mockListener, uuid);
         @SuppressWarnings("unchecked")
-        ArrayList<PrebidServerAdapter.ServerConnector> connectors = (ArrayList<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
+        List<PrebidServerAdapter.ServerConnector> connectors = (List<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
         PrebidServerAdapter.ServerConnector connector = connectors.get(0);
 
         JSONObject postData = (JSONObject) MethodUtils.invokeMethod(connector, true, "getPostData");
@@ -1466,7 +1821,7 @@ public class PrebidServerAdapterTest extends BaseSetup {
             String uuid = UUID.randomUUID().toString();
             adapter.requestDemand(requestParams, mockListener, uuid);
             @SuppressWarnings("unchecked")
-            ArrayList<PrebidServerAdapter.ServerConnector> connectors = (ArrayList<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
+            List<PrebidServerAdapter.ServerConnector> connectors = (List<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
             PrebidServerAdapter.ServerConnector connector = connectors.get(0);
 
             JSONObject postData = (JSONObject) MethodUtils.invokeMethod(connector, true, "getPostData");
@@ -0,0 +1,145 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class PrunedJsonWriterTest {
+
+    @Test
+    public void testEmptyValuesAreLeftOut() throws Exception {
+        StringWriter out = new StringWriter();
+        PrunedJsonWriter writer = new PrunedJsonWriter(out);
+
+        writer.beginObject();
+        writer.name("key1").beginObject()
+                .name("key11").beginObject()
+                .name("key111").beginObject().endObject()
+                .endObject()
+                .endObject();
+        writer.name("emptyString").value("");
+        writer.name("nullNumber").value((Number) null);
+        writer.name("emptyArray").values(Collections.singletonList(""));
+        writer.endObject();
+        writer.flush();
+
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void testNestedValue() throws Exception {
+        StringWriter out = new StringWriter();
+        PrunedJsonWriter writer = new PrunedJsonWriter(out);
+
+        writer.beginObject();
+        writer.name("key1").beginObject()
+                .name("key11").beginObject()
+                .name("key111").beginObject().name("key1111").value("value1111").endObject()
+                .endObject()
+                .name("key12").beginObject().name("key121").value("value121").endObject()
+                .endObject();
+        writer.endObject();
+        writer.flush();
+
+        assertEquals("{\"key1\":{\"key11\":{\"key111\":{\"key1111\":\"value1111\"}},\"key12\":{\"key121\":\"value121\"}}}", out.toString());
+    }
+
+    @Test
+    public void testArrays() throws Exception {
+        StringWriter out = new StringWriter();
+        PrunedJsonWriter writer = new PrunedJsonWriter(out);
+
+        writer.beginObject();
+        writer.name("key2").beginArray()
+                .beginObject().endObject()
+                .beginArray().endArray()
+                .endArray();
+        writer.name("key3").beginArray()
+                .beginObject().endObject()
+                .beginObject().name("key312").value("value312").endObject()
+                .beginArray()
+                .beginObject().name("key3131").value("value3131").endObject()
+                .beginObject().endObject()
+                .endArray()
+                .endArray();
+        writer.endObject();
+        writer.flush();
+
+        assertEquals("{\"key3\":[{\"key312\":\"value312\"},[{\"key3131\":\"value3131\"}]]}", out.toString());
+    }
+
+    @Test
+    public void testNumbersAndEmptyObjectAreKept() throws Exception {
+        StringWriter out = new StringWriter();
+        PrunedJsonWriter writer = new PrunedJsonWriter(out);
+
+        writer.beginObject();
+        writer.name("secure").value(0);
+        writer.name("ext").beginObject()
+                .name("cache").beginObject().name("bids").emptyObject().endObject()
+                .endObject();
+        writer.endObject();
+        writer.flush();
+
+        assertEquals("{\"secure\":0,\"ext\":{\"cache\":{\"bids\":{}}}}", out.toString());
+    }
+
+    @Test
+    public void testMapOfValues() throws Exception {
+        Map<String, Set<String>> map = new LinkedHashMap<>();
+        map.put("key1", new HashSet<>(Collections.singletonList("value10")));
+        map.put("key2", new HashSet<String>());
+        map.put("key3", new HashSet<>(Arrays.asList("")));
+
+        StringWriter out = new StringWriter();
+        PrunedJsonWriter writer = new PrunedJsonWriter(out);
+        writer.beginObject();
+        writer.name("data").values(map);
+        writer.endObject();
+        writer.flush();
+
+        assertEquals("{\"data\":{\"key1\":[\"value10\"]}}", out.toString());
+    }
+
+    @Test
+    public void testNestingProblem() throws Exception {
+        PrunedJsonWriter writer = new PrunedJsonWriter(new StringWriter());
+        writer.beginObject();
+        try {
+            writer.endArray();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
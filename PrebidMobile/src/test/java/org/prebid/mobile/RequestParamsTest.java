@@ -26,11 +26,15 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = BaseSetup.testSDK)
@@ -122,4 +126,31 @@ public class RequestParamsTest {
 
         assertTrue(minAdSizePerc.getWidth() == 50 && minAdSizePerc.getHeight() == 70);
     }
+
+    @Test
+    public void testLaterChangesDontReachTheParams() throws Exception {
+        HashSet<AdSize> sizes = new HashSet<>();
+        sizes.add(new AdSize(320, 50));
+        Map<String, Set<String>> contextData = new HashMap<>();
+        Util.addValue(contextData, "key1", "value10");
+        Set<String> contextKeywords = new HashSet<>();
+        contextKeywords.add("keyword1");
+
+        RequestParams requestParams = new RequestParams("123456", AdType.BANNER, sizes, contextData, contextKeywords, null, null);
+
+        sizes.add(new AdSize(300, 250));
+        Util.addValue(contextData, "key1", "value11");
+        Util.addValue(contextData, "key2", "value20");
+        contextKeywords.clear();
+
+        assertEquals(1, requestParams.getAdSizes().size());
+        assertEquals(1, requestParams.getContextDataDictionary().size());
+        assertEquals(1, requestParams.getContextDataDictionary().get("key1").size());
+        assertEquals(1, requestParams.getContextKeywordsSet().size());
+        try {
+            requestParams.getContextKeywordsSet().add("keyword2");
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.prebid.mobile;
+
+import android.content.res.Configuration;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK)
+public class RequestSnapshotTest extends BaseSetup {
+
+    @After
+    public void clearTargeting() {
+        TargetingParams.clearUserKeywords();
+        TargetingParams.setGender(TargetingParams.GENDER.UNKNOWN);
+    }
+
+    @Test
+    public void testSnapshotIsShared() {
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        RequestSnapshot snapshot = RequestSnapshot.get();
+        assertTrue(snapshot.hasContext);
+        assertSame(snapshot, RequestSnapshot.get());
+    }
+
+    @Test
+    public void testTargetingParamsRebuildSnapshot() {
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        RequestSnapshot snapshot = RequestSnapshot.get();
+
+        TargetingParams.addUserKeyword("keyword");
+        TargetingParams.setGender(TargetingParams.GENDER.FEMALE);
+        RequestSnapshot updated = RequestSnapshot.get();
+
+        assertNotSame(snapshot, updated);
+        assertEquals("keyword", updated.userKeywords);
+        assertEquals("F", updated.gender);
+        assertSame(updated, RequestSnapshot.get());
+    }
+
+    @Test
+    public void testConfigurationChangeRebuildsSnapshot() {
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+        RequestSnapshot snapshot = RequestSnapshot.get();
+
+        Configuration configuration = new Configuration(activity.getResources().getConfiguration());
+        configuration.orientation = Configuration.ORIENTATION_LANDSCAPE;
+        RuntimeEnvironment.application.onConfigurationChanged(configuration);
+
+        assertNotSame(snapshot, RequestSnapshot.get());
+    }
+}
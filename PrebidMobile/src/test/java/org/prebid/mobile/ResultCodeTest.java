@@ -34,7 +34,6 @@ import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLooper;
 import org.robolectric.shadows.ShadowNetworkInfo;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.UUID;
 
@@ -86,8 +85,7 @@ public class ResultCodeTest extends BaseSetup {
         PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
         ShadowLooper fetcherLooper = shadowOf(fetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = shadowOf(fetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.SUCCESS);
@@ -111,8 +109,7 @@ public class ResultCodeTest extends BaseSetup {
         PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
         ShadowLooper fetcherLooper = shadowOf(fetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = shadowOf(fetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.SUCCESS);
@@ -156,8 +153,7 @@ public class ResultCodeTest extends BaseSetup {
         PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
         ShadowLooper fetcherLooper = shadowOf(fetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = shadowOf(fetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
 
@@ -224,6 +220,7 @@ public class ResultCodeTest extends BaseSetup {
         ConnectivityManager connectivityManager = (ConnectivityManager) activity.getSystemService(Context.CONNECTIVITY_SERVICE);
         ShadowNetworkInfo shadowOfActiveNetworkInfo = shadowOf(connectivityManager.getActiveNetworkInfo());
         shadowOfActiveNetworkInfo.setConnectionStatus(false);
+        ConnectivityMonitor.getInstance().update();
         BannerAdUnit adUnit = new BannerAdUnit("123456", 300, 250);
         MoPubView testView = new MoPubView(activity);
         OnCompleteListener mockListener = mock(OnCompleteListener.class);
@@ -246,11 +243,8 @@ public class ResultCodeTest extends BaseSetup {
         String uuid = UUID.randomUUID().toString();
         adapter.requestDemand(requestParams, mockListener, uuid);
 
-        @SuppressWarnings("unchecked")
-        ArrayList<PrebidServerAdapter.ServerConnector> connectors = (ArrayList<PrebidServerAdapter.ServerConnector>) FieldUtils.readDeclaredField(adapter, "serverConnectors", true);
-        PrebidServerAdapter.ServerConnector connector = connectors.get(0);
-        PrebidServerAdapter.ServerConnector.TimeoutCountDownTimer timeoutCountDownTimer = (PrebidServerAdapter.ServerConnector.TimeoutCountDownTimer) FieldUtils.readDeclaredField(connector, "timeoutCountDownTimer", true);
-        shadowOf(timeoutCountDownTimer).invokeFinish();
+        // the deadline passes before the request is sent
+        shadowOf(FetchScheduler.getInstance().getHandler().getLooper()).runToEndOfTasks();
 
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
@@ -273,8 +267,7 @@ public class ResultCodeTest extends BaseSetup {
         PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
         ShadowLooper fetcherLooper = shadowOf(fetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = shadowOf(fetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.NO_BIDS);
@@ -297,8 +290,7 @@ public class ResultCodeTest extends BaseSetup {
         PrebidMobile.setTimeoutMillis(Integer.MAX_VALUE);
         ShadowLooper fetcherLooper = shadowOf(fetcher.getHandler().getLooper());
         fetcherLooper.runOneTask();
-        ShadowLooper demandLooper = shadowOf(fetcher.getDemandHandler().getLooper());
-        demandLooper.runOneTask();
+        fetcherLooper.runOneTask();
         Robolectric.flushBackgroundThreadScheduler();
         Robolectric.flushForegroundThreadScheduler();
         verify(mockListener).onComplete(ResultCode.NO_BIDS);
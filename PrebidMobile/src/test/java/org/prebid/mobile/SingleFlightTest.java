@@ -0,0 +1,263 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.prebid.mobile;
+
+import android.os.SystemClock;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.prebid.mobile.testutils.MockPrebidServerResponses;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class SingleFlightTest extends BaseSetup {
+
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        PrebidMobile.setAuctionDeduplicationWindowMillis(-1);
+        PrebidMobile.setAuctionBatchWindowMillis(0);
+        SingleFlight.getInstance().clear();
+        TargetingParams.clearUserKeywords();
+    }
+
+    @Test
+    public void testKey() {
+        LinkedHashSet<String> keywords1 = new LinkedHashSet<>(Arrays.asList("a", "b"));
+        LinkedHashSet<String> keywords2 = new LinkedHashSet<>(Arrays.asList("b", "a"));
+        String key = SingleFlight.getKey(bannerParams("1001", keywords1));
+
+        assertEquals(key, SingleFlight.getKey(bannerParams("1001", keywords2)));
+        assertFalse(key.equals(SingleFlight.getKey(bannerParams("1002", keywords1))));
+
+        TargetingParams.addUserKeyword("sports");
+        assertFalse(key.equals(SingleFlight.getKey(bannerParams("1001", keywords1))));
+
+        RequestParams nativeParams = new RequestParams("1001", AdType.NATIVE, null);
+        nativeParams.setNativeRequestParams(new NativeRequestParams());
+        assertNull(SingleFlight.getKey(nativeParams));
+    }
+
+    @Test
+    public void testIdenticalFetchesShareOneAuction() {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+        setUpServer();
+        PrebidMobile.setAuctionDeduplicationWindowMillis(0);
+        DemandAdapter.DemandAdapterListener listener1 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener2 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener3 = mock(DemandAdapter.DemandAdapterListener.class);
+        PrebidServerAdapter adapter = new PrebidServerAdapter();
+        String uuid1 = UUID.randomUUID().toString();
+        String uuid2 = UUID.randomUUID().toString();
+        String uuid3 = UUID.randomUUID().toString();
+        adapter.requestDemand(bannerParams("1001", null), listener1, uuid1);
+        adapter.requestDemand(bannerParams("1001", null), listener2, uuid2);
+        adapter.requestDemand(bannerParams("1001", null), listener3, uuid3);
+        adapter.stopRequest(uuid3);
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertEquals(1, server.getRequestCount());
+        ArgumentCaptor<HashMap> bids1 = ArgumentCaptor.forClass(HashMap.class);
+        ArgumentCaptor<HashMap> bids2 = ArgumentCaptor.forClass(HashMap.class);
+        verify(listener1).onDemandReady(bids1.capture(), eq(uuid1));
+        verify(listener2).onDemandReady(bids2.capture(), eq(uuid2));
+        assertEquals("0.50", bids1.getValue().get("hb_pb"));
+        assertEquals(bids1.getValue(), bids2.getValue());
+        verify(listener3, never()).onDemandReady(ArgumentMatchers.<HashMap<String, String>>any(), eq(uuid3));
+    }
+
+    @Test
+    public void testStoppedFetchStillRunsTheAuctionForJoinedFetches() {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+        setUpServer();
+        PrebidMobile.setAuctionDeduplicationWindowMillis(0);
+        DemandAdapter.DemandAdapterListener listener1 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener2 = mock(DemandAdapter.DemandAdapterListener.class);
+        PrebidServerAdapter adapter = new PrebidServerAdapter();
+        String uuid1 = UUID.randomUUID().toString();
+        String uuid2 = UUID.randomUUID().toString();
+        adapter.requestDemand(bannerParams("1001", null), listener1, uuid1);
+        adapter.requestDemand(bannerParams("1001", null), listener2, uuid2);
+        adapter.stopRequest(uuid1);
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertEquals(1, server.getRequestCount());
+        ArgumentCaptor<HashMap> bids2 = ArgumentCaptor.forClass(HashMap.class);
+        verify(listener2).onDemandReady(bids2.capture(), eq(uuid2));
+        assertEquals("0.50", bids2.getValue().get("hb_pb"));
+        verify(listener1, never()).onDemandReady(ArgumentMatchers.<HashMap<String, String>>any(), eq(uuid1));
+        verify(listener1, never()).onDemandFailed(ArgumentMatchers.any(ResultCode.class), eq(uuid1));
+    }
+
+    @Test
+    public void testStoppedFetchInBatchHandsOverToJoinedFetches() {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.oneBidFromAppNexus()));
+        setUpServer();
+        PrebidMobile.setAuctionDeduplicationWindowMillis(0);
+        PrebidMobile.setAuctionBatchWindowMillis(50);
+        DemandAdapter.DemandAdapterListener listener1 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener2 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener3 = mock(DemandAdapter.DemandAdapterListener.class);
+        PrebidServerAdapter adapter = new PrebidServerAdapter();
+        String uuid1 = UUID.randomUUID().toString();
+        String uuid2 = UUID.randomUUID().toString();
+        String uuid3 = UUID.randomUUID().toString();
+        adapter.requestDemand(bannerParams("1001", null), listener1, uuid1);
+        adapter.requestDemand(bannerParams("1001", null), listener2, uuid2);
+        adapter.stopRequest(uuid1);
+        adapter.requestDemand(bannerParams("1001", null), listener3, uuid3);
+        Robolectric.flushForegroundThreadScheduler();
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertEquals(1, server.getRequestCount());
+        verify(listener2).onDemandReady(ArgumentMatchers.<HashMap<String, String>>any(), eq(uuid2));
+        verify(listener3).onDemandReady(ArgumentMatchers.<HashMap<String, String>>any(), eq(uuid3));
+        verify(listener1, never()).onDemandReady(ArgumentMatchers.<HashMap<String, String>>any(), eq(uuid1));
+    }
+
+    @Test
+    public void testStoppedFetchHandsItsAuctionToJoinedFetches() throws Exception {
+        setUpServer();
+        PrebidMobile.setAuctionDeduplicationWindowMillis(0);
+        DemandAdapter.DemandAdapterListener listener1 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener2 = mock(DemandAdapter.DemandAdapterListener.class);
+        PrebidServerAdapter adapter1 = new PrebidServerAdapter();
+        PrebidServerAdapter adapter2 = new PrebidServerAdapter();
+        String uuid1 = UUID.randomUUID().toString();
+        String uuid2 = UUID.randomUUID().toString();
+        adapter1.requestDemand(bannerParams("1001", null), listener1, uuid1);
+        adapter2.requestDemand(bannerParams("1001", null), listener2, uuid2);
+        adapter1.stopRequest(uuid1);
+
+        assertEquals(0, getServerConnectors(adapter1).size());
+        assertEquals(1, getServerConnectors(adapter2).size());
+
+        adapter2.stopRequest(uuid2);
+        assertEquals(0, getServerConnectors(adapter2).size());
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+
+        verify(listener2, never()).onDemandReady(ArgumentMatchers.<HashMap<String, String>>any(), eq(uuid2));
+        verify(listener2, never()).onDemandFailed(ArgumentMatchers.any(ResultCode.class), eq(uuid2));
+        assertEquals(0, SingleFlight.getInstance().size());
+    }
+
+    @Test
+    public void testCompletedFlightsAreDropped() {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
+        setUpServer();
+        PrebidServerAdapter adapter = new PrebidServerAdapter();
+        PrebidMobile.setAuctionDeduplicationWindowMillis(0);
+        adapter.requestDemand(bannerParams("1001", null), mock(DemandAdapter.DemandAdapterListener.class), UUID.randomUUID().toString());
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+        assertEquals(0, SingleFlight.getInstance().size());
+
+        PrebidMobile.setAuctionDeduplicationWindowMillis(1000);
+        adapter.requestDemand(bannerParams("1001", null), mock(DemandAdapter.DemandAdapterListener.class), UUID.randomUUID().toString());
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+        assertEquals(1, SingleFlight.getInstance().size());
+
+        SystemClock.sleep(1001);
+        adapter.requestDemand(bannerParams("1002", null), mock(DemandAdapter.DemandAdapterListener.class), UUID.randomUUID().toString());
+        assertEquals(1, SingleFlight.getInstance().size());
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+    }
+
+    @Test
+    public void testResultSharedWithinWindow() {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(MockPrebidServerResponses.noBid()));
+        setUpServer();
+        PrebidMobile.setAuctionDeduplicationWindowMillis(1000);
+        DemandAdapter.DemandAdapterListener listener1 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener2 = mock(DemandAdapter.DemandAdapterListener.class);
+        DemandAdapter.DemandAdapterListener listener3 = mock(DemandAdapter.DemandAdapterListener.class);
+        PrebidServerAdapter adapter = new PrebidServerAdapter();
+        String uuid1 = UUID.randomUUID().toString();
+        String uuid2 = UUID.randomUUID().toString();
+        String uuid3 = UUID.randomUUID().toString();
+        adapter.requestDemand(bannerParams("1001", null), listener1, uuid1);
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+
+        adapter.requestDemand(bannerParams("1001", null), listener2, uuid2);
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+        assertEquals(1, server.getRequestCount());
+        verify(listener1).onDemandFailed(ResultCode.NO_BIDS, uuid1);
+        verify(listener2).onDemandFailed(ResultCode.NO_BIDS, uuid2);
+
+        SystemClock.sleep(1001);
+        adapter.requestDemand(bannerParams("1001", null), listener3, uuid3);
+        Robolectric.flushBackgroundThreadScheduler();
+        Robolectric.flushForegroundThreadScheduler();
+        assertEquals(2, server.getRequestCount());
+        verify(listener3).onDemandFailed(ResultCode.NO_BIDS, uuid3);
+    }
+
+    private void setUpServer() {
+        HttpUrl hostUrl = server.url("/");
+        Host.CUSTOM.setHostUrl(hostUrl.toString());
+        PrebidMobile.setPrebidServerHost(Host.CUSTOM);
+        PrebidMobile.setPrebidServerAccountId("12345");
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+    }
+
+    private static List getServerConnectors(PrebidServerAdapter adapter) throws IllegalAccessException {
+        return (List) FieldUtils.readField(adapter, "serverConnectors", true);
+    }
+
+    private static RequestParams bannerParams(String configId, LinkedHashSet<String> contextKeywords) {
+        HashSet<AdSize> sizes = new HashSet<>();
+        sizes.add(new AdSize(300, 250));
+        return new RequestParams(configId, AdType.BANNER, sizes, null, contextKeywords, null, null);
+    }
+}
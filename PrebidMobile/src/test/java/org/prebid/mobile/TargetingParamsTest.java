@@ -205,4 +205,23 @@ public class TargetingParamsTest extends BaseSetup {
         Assert.assertEquals(1, set.size());
         assertThat(set, containsInAnyOrder("value10"));
     }
+
+    @Test
+    public void testCollectionsReadAreNotChangedLater() {
+        TargetingParams.addContextData("key1", "value10");
+        TargetingParams.addUserKeyword("value10");
+
+        Map<String, Set<String>> dictionary = TargetingParams.getContextDataDictionary();
+        Set<String> keywords = TargetingParams.getUserKeywordsSet();
+
+        TargetingParams.addContextData("key1", "value11");
+        TargetingParams.addContextData("key2", "value20");
+        TargetingParams.clearUserKeywords();
+
+        assertEquals(1, dictionary.size());
+        assertThat(dictionary.get("key1"), containsInAnyOrder("value10"));
+        assertThat(keywords, containsInAnyOrder("value10"));
+        assertThat(TargetingParams.getContextDataDictionary().get("key1"), containsInAnyOrder("value10", "value11"));
+        assertTrue(TargetingParams.getUserKeywordsSet().isEmpty());
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2018-2019 Prebid.org, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package org.prebid.mobile;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.prebid.mobile.testutils.BaseSetup;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = BaseSetup.testSDK, manifest = Config.NONE)
+public class UserAgentProviderTest extends BaseSetup {
+
+    @Override
+    public void setup() {
+        super.setup();
+        AuctionExecutors.setBackgroundExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        UserAgentProvider.reset();
+        PrebidServerSettings.userAgent = null;
+        PrebidMobile.setApplicationContext(activity.getApplicationContext());
+    }
+
+    @Override
+    public void tearDown() {
+        AuctionExecutors.setBackgroundExecutor(null);
+        UserAgentProvider.reset();
+        PrebidServerSettings.userAgent = null;
+        super.tearDown();
+    }
+
+    @Test
+    public void testStoredUserAgentIsUsed() throws Exception {
+        StorageUtils.setPbUserAgent("Stored/1.0", UserAgentProvider.getVersion(activity.getApplicationContext()));
+
+        UserAgentProvider.load(activity);
+
+        assertEquals("Stored/1.0", PrebidServerSettings.userAgent);
+    }
+
+    @Test
+    public void testUserAgentIsReadAgainAfterAnUpdate() throws Exception {
+        String systemUserAgent = System.getProperty("http.agent");
+        System.setProperty("http.agent", "System/2.0");
+        try {
+            StorageUtils.setPbUserAgent("Stored/1.0", "older build");
+
+            UserAgentProvider.load(activity);
+
+            assertFalse("Stored/1.0".equals(PrebidServerSettings.userAgent));
+            assertEquals(PrebidServerSettings.userAgent, StorageUtils.getPbUserAgent());
+            assertEquals(UserAgentProvider.getVersion(activity.getApplicationContext()), StorageUtils.getPbUserAgentVersion());
+        } finally {
+            if (systemUserAgent != null) {
+                System.setProperty("http.agent", systemUserAgent);
+            } else {
+                System.clearProperty("http.agent");
+            }
+        }
+    }
+}
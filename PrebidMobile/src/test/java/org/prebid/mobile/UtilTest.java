@@ -20,7 +20,6 @@ import com.google.android.gms.ads.doubleclick.PublisherAdRequest;
 import com.mopub.mobileads.MoPubInterstitial;
 import com.mopub.mobileads.MoPubView;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Assert;
@@ -30,10 +29,8 @@ import org.prebid.mobile.testutils.BaseSetup;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -120,98 +117,6 @@ public class UtilTest extends BaseSetup {
         assertFalse(Util.supportedAdObject(object));
     }
 
-    @Test
-    public void testGetObjectWithoutEmptyValues() throws JSONException {
-
-        //Test 1
-        JSONObject node1111 = new JSONObject();
-
-        JSONObject node111 = new JSONObject();
-        node111.put("key111", node1111);
-
-        JSONObject node11 = new JSONObject();
-        node11.put("key11", node111);
-
-        JSONObject node1 = new JSONObject();
-        node1.put("key1", node11);
-
-        node1.put("emptyObject", "");
-        List<String> array = new ArrayList<>();
-        array.add("");
-        node1.put("emptyArray", new JSONArray(array));
-
-        JSONObject result1 = Util.getObjectWithoutEmptyValues(node1);
-
-        Assert.assertNull(result1);
-
-        //Test 2
-        node1111.put("key1111", "value1111");
-        JSONObject result2 = Util.getObjectWithoutEmptyValues(node1);
-        Assert.assertEquals("{\"key1\":{\"key11\":{\"key111\":{\"key1111\":\"value1111\"}}}}", result2.toString());
-
-        //Test 3
-        node1111.remove("key1111");
-        JSONObject node121 = new JSONObject();
-        node121.put("key121", "value121");
-        node11.put("key12", node121);
-
-        JSONObject result3 = Util.getObjectWithoutEmptyValues(node1);
-        Assert.assertEquals("{\"key1\":{\"key12\":{\"key121\":\"value121\"}}}", result3.toString());
-
-        //Test 4
-        node11.remove("key12");
-        JSONArray node21 = new JSONArray();
-        node1.put("key2", node21);
-        JSONObject result4 = Util.getObjectWithoutEmptyValues(node1);
-        Assert.assertNull(result4);
-
-        //Test5
-        node21.put("value21");
-        JSONObject result5 = Util.getObjectWithoutEmptyValues(node1);
-        Assert.assertEquals("{\"key2\":[\"value21\"]}", result5.toString());
-
-        //Test6
-        node21.remove(0);
-        JSONObject node211 = new JSONObject();
-        node21.put(node211);
-        JSONObject result6 = Util.getObjectWithoutEmptyValues(node1);
-        Assert.assertNull(result6);
-
-        //Test7
-        node211.put("key211", "value211");
-        JSONObject result7 = Util.getObjectWithoutEmptyValues(node1);
-        Assert.assertEquals("{\"key2\":[{\"key211\":\"value211\"}]}", result7.toString());
-
-        //Test8
-        node21.remove(0);
-        JSONArray node212 = new JSONArray();
-        node21.put(node212);
-        JSONObject result8 = Util.getObjectWithoutEmptyValues(node1);
-        Assert.assertNull(result8);
-
-        //Test9
-        JSONArray node31 = new JSONArray();
-        node1.put("key3", node31);
-        JSONObject node311 = new JSONObject();
-        node31.put(node311);
-        JSONObject node312 = new JSONObject();
-        node312.put("key312", "value312");
-        node31.put(node312);
-        JSONObject result9 = Util.getObjectWithoutEmptyValues(node1);
-        Assert.assertEquals("{\"key3\":[{\"key312\":\"value312\"}]}", result9.toString());
-
-        //Test10
-        JSONArray node313 = new JSONArray();
-        JSONObject node3131 = new JSONObject();
-        node3131.put("key3131", "value3131");
-        node313.put(node3131);
-        JSONObject node3132 = new JSONObject();
-        node313.put(node3132);
-        node31.put(node313);
-        JSONObject result10 = Util.getObjectWithoutEmptyValues(node1);
-        Assert.assertEquals("{\"key3\":[{\"key312\":\"value312\"},[{\"key3131\":\"value3131\"}]]}", result10.toString());
-    }
-
     @Test
     public void testAddValue() {
 
@@ -20,11 +20,13 @@ import android.app.Activity;
 
 import org.junit.After;
 import org.junit.Before;
+import org.prebid.mobile.PrebidMobile;
 import org.robolectric.Robolectric;
 import org.robolectric.shadows.httpclient.FakeHttp;
 import org.robolectric.util.Scheduler;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import okhttp3.mockwebserver.MockWebServer;
 
@@ -59,10 +61,18 @@ public class BaseSetup {
         Robolectric.flushForegroundThreadScheduler();
         bgScheduler.pause();
         uiScheduler.pause();
+        // auctions run when the tests flush the background scheduler
+        PrebidMobile.setAuctionExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                bgScheduler.post(command);
+            }
+        });
     }
 
     @After
     public void tearDown() {
+        PrebidMobile.setAuctionExecutor(null);
         activity.finish();
         try {
             server.shutdown();
@@ -36,6 +36,11 @@ public class MockPrebidServerResponses {
         return inputStreamToString(in);
     }
 
+    public static String oneBidForEachOfTwoImps() {
+        InputStream in = MockPrebidServerResponses.class.getClassLoader().getResourceAsStream("PrebidServerTwoImpsResponse.json");
+        return inputStreamToString(in);
+    }
+
     public static String oneBidFromRubicon() {
         InputStream in = MockPrebidServerResponses.class.getClassLoader().getResourceAsStream("PrebidServerOneBidFromRubiconResponse.json");
         return inputStreamToString(in);